@@ -0,0 +1,107 @@
+package com.kristian.inventory.benchmark;
+
+import com.kristian.inventory.config.InventoryProperties;
+import com.kristian.inventory.model.Product;
+import com.kristian.inventory.repository.InMemoryProductRepository;
+import com.kristian.inventory.repository.ProductRepository;
+import com.kristian.inventory.repository.columnar.ColumnarProductRepository;
+import com.kristian.inventory.service.ProductServiceImpl;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+// Synthetic catalogs for the benchmarks, always the same products for the same size
+final class Catalogs {
+
+    static final String[] WORDS = {
+            "apple", "banana", "cherry", "organic", "fresh", "premium", "milk", "bread", "cheese", "coffee",
+            "green", "red", "sparkling", "water", "juice", "soap", "shampoo", "towel", "paper", "rice",
+            "pasta", "tomato", "sauce", "chicken", "beef", "salmon", "yogurt", "butter", "honey", "tea"
+    };
+
+    static final int CATEGORIES = 50;
+
+    private Catalogs() {
+    }
+
+    static String category(int i) {
+        return "Category " + i;
+    }
+
+    static Product product(SplittableRandom random, int i) {
+        Product product = new Product();
+        // Capitalized like real product names (an all lower-case String would make toLowerCase() free)
+        String first = WORDS[random.nextInt(WORDS.length)];
+        product.setName(Character.toUpperCase(first.charAt(0)) + first.substring(1) + " "
+                + WORDS[random.nextInt(WORDS.length)] + " " + i);
+        product.setCategory(category(random.nextInt(CATEGORIES)));
+        product.setUnitPrice(BigDecimal.valueOf(random.nextInt(100, 100_000), 2));
+        // About 10% out of stock
+        product.setQuantityInStock(random.nextInt(10) == 0 ? 0 : random.nextInt(1, 500));
+        if (random.nextBoolean()) {
+            product.setExpirationDate(LocalDate.of(2026, 1, 1).plusDays(random.nextInt(730)));
+        }
+        return product;
+    }
+
+    static List<Product> generate(int size) {
+        SplittableRandom random = new SplittableRandom(42);
+        List<Product> products = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            products.add(product(random, i));
+        }
+        return products;
+    }
+
+    static InMemoryProductRepository repository(int size) {
+        return fill(new InMemoryProductRepository(), size);
+    }
+
+    // "memory" or "columnar", like inventory.storage.backend
+    static ProductRepository repository(String backend, int size) {
+        return repository(backend, size, false);
+    }
+
+    static ProductRepository repository(String backend, int size, boolean parallel) {
+        return backend.equals("columnar")
+                ? fill(new ColumnarProductRepository(properties(true, parallel)), size)
+                : repository(size);
+    }
+
+    private static <R extends ProductRepository> R fill(R repository, int size) {
+        for (Product product : generate(size)) {
+            repository.save(product);
+        }
+        return repository;
+    }
+
+    static ProductServiceImpl service(ProductRepository repository, boolean filterCache) {
+        return service(repository, filterCache, false);
+    }
+
+    // parallel: every scan of at least 100k products is split over the fork-join pool
+    static ProductServiceImpl service(ProductRepository repository, boolean filterCache, boolean parallel) {
+        return new ProductServiceImpl(repository, properties(filterCache, parallel));
+    }
+
+    static InventoryProperties properties(boolean filterCache, boolean parallel) {
+        InventoryProperties properties = new InventoryProperties();
+        // Without the filter cache the page cache has to go too, or repeated pages would never reach the filter
+        if (!filterCache) {
+            properties.getFilterCache().setEntries(0);
+            properties.getPageCache().setEntries(0);
+        }
+        properties.getParallel().setEnabled(parallel);
+        properties.getParallel().setThreshold(100_000);
+        return properties;
+    }
+
+    // Ids are handed out from 1000 in save order
+    static long randomId(SplittableRandom random, int size) {
+        return 1000L + random.nextInt(size);
+    }
+
+}
@@ -0,0 +1,147 @@
+package com.kristian.inventory.benchmark;
+
+import com.kristian.inventory.BackendApplication;
+import com.kristian.inventory.service.ProductService;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.SplittableRandom;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ HTTP load test, not a JMH benchmark: starts the application, keeps a fixed number of requests in flight
+ for a while and prints throughput and latency percentiles.
+
+   ./mvnw -Pbenchmark test-compile exec:exec -Dbenchmark.main=com.kristian.inventory.benchmark.LoadTest \
+       -Djmh.args="platform 1000 30"
+
+ Arguments: threads (platform or virtual), concurrent requests (default 1000), seconds (default 30).
+ virtual needs a Java 21+ runtime (see application-virtual-threads.properties).
+
+ The mix is what makes the thread model matter: 70% GET /products/{id}, 10% a GET /products page and
+ 20% PATCH /products/{id}/stock with persistence on and fsync=always, so writes block on the disk.
+ With platform threads at most server.tomcat.threads.max (200) requests run at once and the rest
+ wait in line; with virtual threads every connection gets its own thread. Run both modes on the same
+ machine and compare, absolute numbers depend on the disk.
+*/
+public class LoadTest {
+
+    private static final int PRODUCTS = 10_000;
+
+    public static void main(String[] args) throws Exception {
+        String threads = args.length > 0 ? args[0] : "platform";
+        int concurrency = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 30;
+        if (!threads.equals("platform") && !threads.equals("virtual")) {
+            throw new IllegalArgumentException("threads must be platform or virtual, not " + threads);
+        }
+
+        Path data = Files.createTempDirectory("load-test");
+        SpringApplicationBuilder application = new SpringApplicationBuilder(BackendApplication.class);
+        if (threads.equals("virtual")) {
+            application.profiles("virtual-threads");
+        }
+        ConfigurableApplicationContext context = application
+                .properties("server.port=0",
+                        "inventory.persistence.enabled=true",
+                        "inventory.persistence.directory=" + data,
+                        "inventory.persistence.fsync=always",
+                        "logging.level.root=warn")
+                .run();
+        try {
+            ProductService productService = context.getBean(ProductService.class);
+            productService.createProducts(Catalogs.generate(PRODUCTS));
+            int port = Integer.parseInt(context.getEnvironment().getProperty("local.server.port"));
+
+            int javaVersion = Runtime.version().feature();
+            System.out.printf("%s threads%s, %d concurrent requests, %d s (Java %d)%n",
+                    threads, threads.equals("virtual") && javaVersion < 21 ? " requested but not available" : "",
+                    concurrency, seconds, javaVersion);
+            run(URI.create("http://localhost:" + port), concurrency, Duration.ofSeconds(seconds));
+        } finally {
+            context.close();
+        }
+    }
+
+    private static void run(URI base, int concurrency, Duration duration) throws Exception {
+        ExecutorService callbacks = Executors.newFixedThreadPool(4);
+        HttpClient client = HttpClient.newBuilder()
+                .executor(callbacks)
+                .connectTimeout(Duration.ofSeconds(10))
+                .build();
+
+        // First half of the run warms up, only the second half is measured
+        long start = System.nanoTime();
+        long measureFrom = start + duration.toNanos() / 2;
+        long end = start + duration.toNanos();
+        ConcurrentLinkedQueue<Long> latencies = new ConcurrentLinkedQueue<>();
+        AtomicLong errors = new AtomicLong();
+
+        CompletableFuture<?>[] users = new CompletableFuture<?>[concurrency];
+        for (int i = 0; i < concurrency; i++) {
+            users[i] = user(client, base, new SplittableRandom(i), end, measureFrom, latencies, errors);
+        }
+        CompletableFuture.allOf(users).join();
+        callbacks.shutdown();
+
+        long[] all = latencies.stream().mapToLong(Long::longValue).sorted().toArray();
+        double measuredSeconds = (end - measureFrom) / 1e9;
+        System.out.printf("requests/s %.0f   p50 %.1f ms   p99 %.1f ms   max %.1f ms   errors %d%n",
+                all.length / measuredSeconds, percentile(all, 0.50), percentile(all, 0.99),
+                all.length == 0 ? 0 : all[all.length - 1] / 1e6, errors.get());
+    }
+
+    // One simulated client: sends the next request as soon as the previous one is answered
+    private static CompletableFuture<Void> user(HttpClient client, URI base, SplittableRandom random, long end,
+                                                long measureFrom, ConcurrentLinkedQueue<Long> latencies, AtomicLong errors) {
+        long sent = System.nanoTime();
+        if (sent >= end) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return client.sendAsync(nextRequest(base, random), HttpResponse.BodyHandlers.discarding())
+                .handle((response, failure) -> {
+                    if (failure != null || response.statusCode() >= 500) {
+                        errors.incrementAndGet();
+                    } else if (sent >= measureFrom) {
+                        latencies.add(System.nanoTime() - sent);
+                    }
+                    return null;
+                })
+                .thenCompose(ignored -> user(client, base, random, end, measureFrom, latencies, errors));
+    }
+
+    private static HttpRequest nextRequest(URI base, SplittableRandom random) {
+        long id = Catalogs.randomId(random, PRODUCTS);
+        int kind = random.nextInt(10);
+        if (kind < 7) {
+            return HttpRequest.newBuilder(base.resolve("/products/" + id)).GET().build();
+        }
+        if (kind < 8) {
+            return HttpRequest.newBuilder(base.resolve("/products?page=" + random.nextInt(50) + "&size=20&sortBy=price")).GET().build();
+        }
+        String body = "{\"delta\": " + (random.nextBoolean() ? 1 : -1) + "}";
+        return HttpRequest.newBuilder(base.resolve("/products/" + id + "/stock"))
+                .header("Content-Type", "application/json")
+                .method("PATCH", HttpRequest.BodyPublishers.ofString(body))
+                .build();
+    }
+
+    private static double percentile(long[] sorted, double p) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        return sorted[Math.min(sorted.length - 1, (int) Math.ceil(p * sorted.length) - 1)] / 1e6;
+    }
+
+}
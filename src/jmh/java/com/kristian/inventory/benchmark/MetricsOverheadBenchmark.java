@@ -0,0 +1,78 @@
+package com.kristian.inventory.benchmark;
+
+import com.kristian.inventory.dto.InventoryMetrics;
+import com.kristian.inventory.model.Product;
+import com.kristian.inventory.repository.ProductRepository;
+import com.kristian.inventory.service.ProductServiceImpl;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+import io.micrometer.core.instrument.config.MeterFilter;
+import io.micrometer.core.instrument.distribution.DistributionStatisticConfig;
+import io.micrometer.prometheusmetrics.PrometheusConfig;
+import io.micrometer.prometheusmetrics.PrometheusMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/*
+ What the query instrumentation (QueryMetrics) costs: the same queries with meters that do nothing
+ (registry=none) and with a Prometheus registry with histograms on, as configured in
+ application.properties. A cached page is the cheapest query, so the overhead shows most there.
+*/
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MetricsOverheadBenchmark {
+
+    @Param({"100000"})
+    int catalogSize;
+
+    @Param({"none", "prometheus"})
+    String registry;
+
+    ProductServiceImpl cached;
+    ProductServiceImpl uncached;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        ProductRepository repository = Catalogs.repository(catalogSize);
+        cached = new ProductServiceImpl(repository, Catalogs.properties(true, false), meterRegistry());
+        uncached = new ProductServiceImpl(repository, Catalogs.properties(false, false), meterRegistry());
+    }
+
+    private MeterRegistry meterRegistry() {
+        if (registry.equals("none")) {
+            return new CompositeMeterRegistry();
+        }
+        PrometheusMeterRegistry prometheus = new PrometheusMeterRegistry(PrometheusConfig.DEFAULT);
+        // Same as management.metrics.distribution.percentiles-histogram.inventory.*=true
+        prometheus.config().meterFilter(new MeterFilter() {
+            @Override
+            public DistributionStatisticConfig configure(Meter.Id id, DistributionStatisticConfig config) {
+                return DistributionStatisticConfig.builder().percentilesHistogram(true).build().merge(config);
+            }
+        });
+        return prometheus;
+    }
+
+    @Benchmark
+    public List<Product> cachedPage() {
+        return cached.getFilteredSortedPaginatedProducts(0, 10, "name", "asc", null, "asc", null, "category 7", true);
+    }
+
+    @Benchmark
+    public List<Product> filteredSortedPage() {
+        return uncached.getFilteredSortedPaginatedProducts(0, 10, "price", "asc", null, "asc", null, "category 7", true);
+    }
+
+    @Benchmark
+    public InventoryMetrics inventoryMetrics() {
+        return cached.getInventoryMetrics();
+    }
+
+}
@@ -0,0 +1,140 @@
+package com.kristian.inventory.benchmark;
+
+import com.kristian.inventory.dto.InventoryMetrics;
+import com.kristian.inventory.dto.ProductPage;
+import com.kristian.inventory.model.Product;
+import com.kristian.inventory.repository.ParallelScan;
+import com.kristian.inventory.repository.ProductRepository;
+import com.kristian.inventory.service.InventoryMetricsCalculator;
+import com.kristian.inventory.service.ProductServiceImpl;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/*
+ Every query of ProductServiceImpl on a synthetic catalog.
+
+ With filterCache=true repeated queries are answered from the page and filter caches,
+ filterCache=false turns both off and measures the work behind a cache miss. The readWhileWriting
+ group runs listing queries while a writer keeps changing products (and so keeps invalidating the cache).
+*/
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ProductServiceBenchmark {
+
+    @Param({"10000", "100000", "1000000"})
+    int catalogSize;
+
+    @Param({"true", "false"})
+    boolean filterCache;
+
+    @Param({"memory", "columnar"})
+    String backend;
+
+    // inventory.parallel.enabled, only changes anything from 100k products on
+    @Param({"false", "true"})
+    boolean parallel;
+
+    ProductRepository repository;
+    ProductServiceImpl productService;
+    ParallelScan scan;
+
+    @State(Scope.Thread)
+    public static class ThreadState {
+        final SplittableRandom random = new SplittableRandom();
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        repository = Catalogs.repository(backend, catalogSize, parallel);
+        productService = Catalogs.service(repository, filterCache, parallel);
+        scan = ParallelScan.of(Catalogs.properties(filterCache, parallel).getParallel());
+    }
+
+    @Benchmark
+    public List<Product> searchByName() {
+        return productService.searchByName("cheese");
+    }
+
+    @Benchmark
+    public List<Product> searchByShortName() {
+        return productService.searchByName("ch");
+    }
+
+    @Benchmark
+    public List<Product> filterByCategory() {
+        return productService.filterByCategory("category 7");
+    }
+
+    @Benchmark
+    public List<Product> getOutOfStockProducts() {
+        return productService.getOutOfStockProducts();
+    }
+
+    // What the UI asks for by default
+    @Benchmark
+    public List<Product> firstPageByName() {
+        return productService.getFilteredSortedPaginatedProducts(0, 10, "name", "asc", null, "asc", null, null, null);
+    }
+
+    @Benchmark
+    public List<Product> filteredPageByPrice() {
+        return productService.getFilteredSortedPaginatedProducts(0, 10, "price", "desc", null, "asc", "fresh", "category 3", true);
+    }
+
+    @Benchmark
+    public List<Product> firstPageWithSecondarySort() {
+        return productService.getFilteredSortedPaginatedProducts(0, 10, "category", "asc", "expiration", "asc", null, null, true);
+    }
+
+    @Benchmark
+    public List<Product> deepPageWithSecondarySort() {
+        return productService.getFilteredSortedPaginatedProducts(
+                catalogSize / 20, 10, "category", "asc", "expiration", "asc", null, null, null);
+    }
+
+    @Benchmark
+    public ProductPage pageWithTotalCount() {
+        return productService.getProductPage(0, 10, "name", "asc", null, "asc", "apple", null, true);
+    }
+
+    @Benchmark
+    public long countFilteredProducts() {
+        return productService.countFilteredProducts("apple", null, true);
+    }
+
+    @Benchmark
+    public InventoryMetrics getInventoryMetrics() {
+        return productService.getInventoryMetrics();
+    }
+
+    // The full recomputation getInventoryMetrics used to do on every call
+    @Benchmark
+    public InventoryMetrics recomputeInventoryMetrics() {
+        return InventoryMetricsCalculator.compute(repository.findAll(), scan);
+    }
+
+    @Benchmark
+    @Group("readWhileWriting")
+    @GroupThreads(3)
+    public List<Product> readWhileWritingQuery() {
+        return productService.getFilteredSortedPaginatedProducts(0, 10, "price", "asc", null, "asc", null, "category 3", true);
+    }
+
+    @Benchmark
+    @Group("readWhileWriting")
+    @GroupThreads(1)
+    public Product readWhileWritingWriter(ThreadState state) {
+        Product product = repository.findById(Catalogs.randomId(state.random, catalogSize)).orElseThrow();
+        Product copy = new Product(product.getId(), product.getName(), product.getCategory(), product.getUnitPrice(),
+                state.random.nextInt(0, 500), product.getExpirationDate(), product.getCreatedAt(), product.getUpdatedAt());
+        return productService.updateProduct(copy.getId(), copy).orElseThrow();
+    }
+
+}
@@ -0,0 +1,83 @@
+package com.kristian.inventory.benchmark;
+
+import com.kristian.inventory.model.Product;
+import com.kristian.inventory.repository.ProductRepository;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RepositoryBenchmark {
+
+    @Param({"10000", "100000", "1000000"})
+    int catalogSize;
+
+    @Param({"memory", "columnar"})
+    String backend;
+
+    ProductRepository repository;
+
+    @State(Scope.Thread)
+    public static class ThreadState {
+        final SplittableRandom random = new SplittableRandom();
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        repository = Catalogs.repository(backend, catalogSize);
+    }
+
+    @Benchmark
+    public Optional<Product> findById(ThreadState state) {
+        return repository.findById(Catalogs.randomId(state.random, catalogSize));
+    }
+
+    @Benchmark
+    public List<Product> findAll() {
+        return repository.findAll();
+    }
+
+    // Re-saves an existing product with a new stock and category, so every index has to move it
+    @Benchmark
+    public Product save(ThreadState state) {
+        return repository.save(changed(state.random));
+    }
+
+    @Benchmark
+    @Threads(8)
+    public Product saveConcurrently(ThreadState state) {
+        return repository.save(changed(state.random));
+    }
+
+    // 3 readers and 1 writer working on the same repository at the same time
+    @Benchmark
+    @Group("readWhileWriting")
+    @GroupThreads(3)
+    public Optional<Product> readWhileWritingReader(ThreadState state) {
+        return repository.findById(Catalogs.randomId(state.random, catalogSize));
+    }
+
+    @Benchmark
+    @Group("readWhileWriting")
+    @GroupThreads(1)
+    public Product readWhileWritingWriter(ThreadState state) {
+        return repository.save(changed(state.random));
+    }
+
+    private Product changed(SplittableRandom random) {
+        Product product = repository.findById(Catalogs.randomId(random, catalogSize)).orElseThrow();
+        Product copy = new Product(product.getId(), product.getName(), Catalogs.category(random.nextInt(Catalogs.CATEGORIES)),
+                product.getUnitPrice(), random.nextInt(0, 500), product.getExpirationDate(),
+                product.getCreatedAt(), product.getUpdatedAt());
+        return copy;
+    }
+
+}
@@ -0,0 +1,50 @@
+package com.kristian.inventory.benchmark;
+
+import com.kristian.inventory.model.Product;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/*
+ Sorting by name with toLowerCase() in the comparator vs the name Product keeps lower-cased.
+ Run with -prof gc to see the allocation difference (gc.alloc.rate.norm).
+*/
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SortKeyBenchmark {
+
+    @Param({"10000", "100000"})
+    int catalogSize;
+
+    List<Product> products;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        products = Catalogs.generate(catalogSize);
+        Collections.shuffle(products, new Random(7));
+    }
+
+    @Benchmark
+    public List<Product> lowerCaseInComparator() {
+        List<Product> sorted = new ArrayList<>(products);
+        sorted.sort(Comparator.comparing(p -> p.getName().toLowerCase()));
+        return sorted;
+    }
+
+    @Benchmark
+    public List<Product> precomputedKey() {
+        List<Product> sorted = new ArrayList<>(products);
+        sorted.sort(Comparator.comparing(Product::getNormalizedName));
+        return sorted;
+    }
+
+}
@@ -0,0 +1,92 @@
+package com.kristian.inventory.benchmark;
+
+import com.kristian.inventory.config.InventoryProperties;
+import com.kristian.inventory.dto.StockEvent;
+import com.kristian.inventory.model.Product;
+import com.kristian.inventory.repository.InMemoryProductRepository;
+import com.kristian.inventory.service.ProductServiceImpl;
+import com.kristian.inventory.service.StockEventPipeline;
+import org.openjdk.jmh.annotations.*;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/*
+ Scanner traffic: +1/-1 stock events on a few hot products, applied three ways. Times are per event.
+
+   saveEachEvent    read, copy, change and save the product for every event (what clients did before PATCH)
+   adjustEachEvent  one atomic adjustStock per event
+   pipeline         submit all events to StockEventPipeline and wait until they are applied
+*/
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class StockEventBenchmark {
+
+    static final int EVENTS = 10_000;
+
+    @Param({"100000"})
+    int catalogSize;
+
+    // How many products the events are spread over
+    @Param({"10", "10000"})
+    int hotProducts;
+
+    InMemoryProductRepository repository;
+    StockEventPipeline pipeline;
+    List<StockEvent> events;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        repository = Catalogs.repository(catalogSize);
+        InventoryProperties properties = Catalogs.properties(true, false);
+        pipeline = new StockEventPipeline(new ProductServiceImpl(repository, properties), properties);
+
+        // Enough stock that the -1 events never run out
+        for (int i = 0; i < hotProducts; i++) {
+            repository.adjustStock(1000L + i, 1_000_000);
+        }
+        SplittableRandom random = new SplittableRandom(7);
+        events = new ArrayList<>(EVENTS);
+        for (int i = 0; i < EVENTS; i++) {
+            events.add(new StockEvent(1000L + random.nextInt(hotProducts), random.nextBoolean() ? 1 : -1, null));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        pipeline.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(EVENTS)
+    public void saveEachEvent() {
+        for (StockEvent event : events) {
+            Product copy = new Product(repository.findById(event.getId()).orElseThrow());
+            copy.setQuantityInStock(copy.getQuantityInStock() + event.getDelta());
+            repository.save(copy);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(EVENTS)
+    public void adjustEachEvent() {
+        for (StockEvent event : events) {
+            repository.adjustStock(event.getId(), event.getDelta());
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(EVENTS)
+    public boolean pipeline() throws InterruptedException {
+        pipeline.submit(events);
+        return pipeline.flush(Duration.ofMinutes(1));
+    }
+
+}
@@ -0,0 +1,111 @@
+package com.kristian.inventory.config;
+
+import com.kristian.inventory.dto.CacheStats;
+import com.kristian.inventory.dto.StockEventStats;
+import com.kristian.inventory.repository.ProductRepository;
+import com.kristian.inventory.service.ProductChangeFeed;
+import com.kristian.inventory.service.ProductChangeIndex;
+import com.kristian.inventory.service.ProductService;
+import com.kristian.inventory.service.StockEventPipeline;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.function.ToLongFunction;
+
+/*
+ Gauges and counters read from the application's own state when the registry is scraped (GET
+ /actuator/prometheus), so they cost nothing between scrapes:
+
+   inventory.catalog.products / .categories    catalog size and number of categories with products
+   inventory.index.size{index}                 entries per repository index (ProductRepository.getIndexSizes)
+   inventory.cache.size{cache} and .hits/.misses/.evictions{cache}   page and filter caches
+   inventory.change.feed.subscribers, inventory.change.index.size
+   inventory.stock.events.queued, inventory.stock.events.applied/.rejected
+
+ Cache stats, index sizes and stock event stats are built anew on every call, the meters reading them share
+ one ScrapeSnapshot per scrape.
+
+ Request timers per endpoint come from Spring MVC (http.server.requests), the query stages from
+ ProductServiceImpl (inventory.query.*).
+*/
+@Component
+class InventoryMeterBinder implements MeterBinder {
+
+    private final ProductRepository productRepository;
+    private final ProductService productService;
+    private final ProductChangeFeed productChangeFeed;
+    private final ProductChangeIndex productChangeIndex;
+    private final StockEventPipeline stockEventPipeline;
+
+    private final ScrapeSnapshot<Map<String, Integer>> indexSizes;
+    private final ScrapeSnapshot<Map<String, CacheStats>> cacheStats;
+    private final ScrapeSnapshot<StockEventStats> stockEventStats;
+
+    InventoryMeterBinder(ProductRepository productRepository, ProductService productService,
+                         ProductChangeFeed productChangeFeed, ProductChangeIndex productChangeIndex,
+                         StockEventPipeline stockEventPipeline) {
+        this.productRepository = productRepository;
+        this.productService = productService;
+        this.productChangeFeed = productChangeFeed;
+        this.productChangeIndex = productChangeIndex;
+        this.stockEventPipeline = stockEventPipeline;
+        this.indexSizes = new ScrapeSnapshot<>(productRepository::getIndexSizes);
+        this.cacheStats = new ScrapeSnapshot<>(productService::getCacheStats);
+        this.stockEventStats = new ScrapeSnapshot<>(stockEventPipeline::getStats);
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("inventory.catalog.products", productRepository, ProductRepository::count)
+                .description("Products in the catalog")
+                .register(registry);
+        Gauge.builder("inventory.catalog.categories", productRepository, ProductRepository::countCategories)
+                .description("Categories with at least one priced product")
+                .register(registry);
+        for (String index : productRepository.getIndexSizes().keySet()) {
+            Gauge.builder("inventory.index.size", indexSizes, sizes -> sizes.get().getOrDefault(index, 0))
+                    .description("Entries in a repository index")
+                    .tag("index", index)
+                    .register(registry);
+        }
+
+        for (String cache : productService.getCacheStats().keySet()) {
+            Gauge.builder("inventory.cache.size", cacheStats, stats -> cacheStat(stats, cache, CacheStats::getSize))
+                    .tag("cache", cache)
+                    .register(registry);
+            cacheCounter(registry, cache, "hits", CacheStats::getHits);
+            cacheCounter(registry, cache, "misses", CacheStats::getMisses);
+            cacheCounter(registry, cache, "evictions", CacheStats::getEvictions);
+        }
+
+        Gauge.builder("inventory.change.feed.subscribers", productChangeFeed, ProductChangeFeed::getSubscriberCount)
+                .description("Open change feed streams")
+                .register(registry);
+        Gauge.builder("inventory.change.index.size", productChangeIndex, ProductChangeIndex::size)
+                .description("Products and tombstones in the change index")
+                .register(registry);
+
+        Gauge.builder("inventory.stock.events.queued", stockEventStats, stats -> stats.get().getQueued())
+                .register(registry);
+        FunctionCounter.builder("inventory.stock.events.applied", stockEventStats, stats -> stats.get().getApplied())
+                .register(registry);
+        FunctionCounter.builder("inventory.stock.events.rejected", stockEventStats, stats -> stats.get().getRejected())
+                .register(registry);
+    }
+
+    private void cacheCounter(MeterRegistry registry, String cache, String name, ToLongFunction<CacheStats> stat) {
+        FunctionCounter.builder("inventory.cache." + name, cacheStats, stats -> cacheStat(stats, cache, stat))
+                .tag("cache", cache)
+                .register(registry);
+    }
+
+    private static double cacheStat(ScrapeSnapshot<Map<String, CacheStats>> snapshot, String cache, ToLongFunction<CacheStats> stat) {
+        CacheStats stats = snapshot.get().get(cache);
+        return stats == null ? 0 : stat.applyAsLong(stats);
+    }
+
+}
@@ -0,0 +1,441 @@
+package com.kristian.inventory.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+// Settings under "inventory." in application.properties
+@ConfigurationProperties(prefix = "inventory")
+public class InventoryProperties {
+
+    private final Metrics metrics = new Metrics();
+    private final FilterCache filterCache = new FilterCache();
+    private final PageCache pageCache = new PageCache();
+    private final Import importSettings = new Import();
+    private final Export export = new Export();
+    private final Async async = new Async();
+    private final Persistence persistence = new Persistence();
+    private final Storage storage = new Storage();
+    private final Parallel parallel = new Parallel();
+    private final StockEvents stockEvents = new StockEvents();
+    private final Expiry expiry = new Expiry();
+    private final ChangeFeed changeFeed = new ChangeFeed();
+    private final Changes changes = new Changes();
+    private final SlowQuery slowQuery = new SlowQuery();
+
+    public Metrics getMetrics() {
+        return metrics;
+    }
+
+    public FilterCache getFilterCache() {
+        return filterCache;
+    }
+
+    public PageCache getPageCache() {
+        return pageCache;
+    }
+
+    public Import getImport() {
+        return importSettings;
+    }
+
+    public Export getExport() {
+        return export;
+    }
+
+    public Async getAsync() {
+        return async;
+    }
+
+    public Persistence getPersistence() {
+        return persistence;
+    }
+
+    public Storage getStorage() {
+        return storage;
+    }
+
+    public Parallel getParallel() {
+        return parallel;
+    }
+
+    public StockEvents getStockEvents() {
+        return stockEvents;
+    }
+
+    public Expiry getExpiry() {
+        return expiry;
+    }
+
+    public ChangeFeed getChangeFeed() {
+        return changeFeed;
+    }
+
+    public Changes getChanges() {
+        return changes;
+    }
+
+    public SlowQuery getSlowQuery() {
+        return slowQuery;
+    }
+
+    public static class Metrics {
+        // Compare the incrementally maintained metrics with a full recomputation on every request (debug only)
+        private boolean verify = false;
+
+        public boolean isVerify() {
+            return verify;
+        }
+
+        public void setVerify(boolean verify) {
+            this.verify = verify;
+        }
+    }
+
+    public static class FilterCache {
+        // How many filter combinations keep their matching products between requests
+        private int entries = 64;
+        // Bigger results are not cached, they would hold on to too much of the catalog
+        private int maxMatches = 100_000;
+
+        public int getEntries() {
+            return entries;
+        }
+
+        public void setEntries(int entries) {
+            this.entries = entries;
+        }
+
+        public int getMaxMatches() {
+            return maxMatches;
+        }
+
+        public void setMaxMatches(int maxMatches) {
+            this.maxMatches = maxMatches;
+        }
+    }
+
+    public static class PageCache {
+        // Finished pages of GET /products (per full set of parameters), 0 turns the cache off
+        private int entries = 256;
+        // Pages are always dropped when the catalog changes, this also drops the ones nobody asks for anymore
+        private Duration ttl = Duration.ofMinutes(1);
+        // Bigger pages are not cached, a few of them would hold on to most of the catalog
+        private int maxProducts = 1000;
+
+        public int getEntries() {
+            return entries;
+        }
+
+        public void setEntries(int entries) {
+            this.entries = entries;
+        }
+
+        public int getMaxProducts() {
+            return maxProducts;
+        }
+
+        public void setMaxProducts(int maxProducts) {
+            this.maxProducts = maxProducts;
+        }
+
+        public Duration getTtl() {
+            return ttl;
+        }
+
+        public void setTtl(Duration ttl) {
+            this.ttl = ttl;
+        }
+    }
+
+    public static class Import {
+        // Products created per repository call (and per progress line) by POST /products/import
+        private int batchSize = 1000;
+        // How long one import may run, instead of spring.mvc.async.request-timeout; 0 for no limit
+        private Duration timeout = Duration.ofHours(2);
+
+        public int getBatchSize() {
+            return batchSize;
+        }
+
+        public void setBatchSize(int batchSize) {
+            this.batchSize = batchSize;
+        }
+
+        public Duration getTimeout() {
+            return timeout;
+        }
+
+        public void setTimeout(Duration timeout) {
+            this.timeout = timeout;
+        }
+    }
+
+    public static class Export {
+        // How long one GET /products/export may run, instead of spring.mvc.async.request-timeout; 0 for no limit
+        private Duration timeout = Duration.ofHours(2);
+
+        public Duration getTimeout() {
+            return timeout;
+        }
+
+        public void setTimeout(Duration timeout) {
+            this.timeout = timeout;
+        }
+    }
+
+    public static class Async {
+        // Threads for the /async endpoints without virtual threads, started when needed and stopped when idle
+        private int poolSize = 200;
+
+        public int getPoolSize() {
+            return poolSize;
+        }
+
+        public void setPoolSize(int poolSize) {
+            this.poolSize = poolSize;
+        }
+    }
+
+    public static class Persistence {
+        // Keep the catalog on disk (write-ahead log + snapshots) instead of only in memory
+        private boolean enabled = false;
+        private String directory = "data";
+        // ALWAYS: a write returns once it is on disk; INTERVAL: the log is synced every fsync-interval;
+        // NEVER: left to the operating system
+        private FsyncPolicy fsync = FsyncPolicy.ALWAYS;
+        private Duration fsyncInterval = Duration.ofMillis(100);
+        // How often the whole catalog is written to a snapshot, so the log to replay on startup stays short
+        private Duration snapshotInterval = Duration.ofMinutes(10);
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public String getDirectory() {
+            return directory;
+        }
+
+        public void setDirectory(String directory) {
+            this.directory = directory;
+        }
+
+        public FsyncPolicy getFsync() {
+            return fsync;
+        }
+
+        public void setFsync(FsyncPolicy fsync) {
+            this.fsync = fsync;
+        }
+
+        public Duration getFsyncInterval() {
+            return fsyncInterval;
+        }
+
+        public void setFsyncInterval(Duration fsyncInterval) {
+            this.fsyncInterval = fsyncInterval;
+        }
+
+        public Duration getSnapshotInterval() {
+            return snapshotInterval;
+        }
+
+        public void setSnapshotInterval(Duration snapshotInterval) {
+            this.snapshotInterval = snapshotInterval;
+        }
+    }
+
+    public static class Storage {
+        // MEMORY: InMemoryProductRepository (indexed, can be persisted); COLUMNAR: ColumnarProductRepository
+        // (primitive columns, a fraction of the heap per product, queries scan)
+        private StorageBackend backend = StorageBackend.MEMORY;
+
+        public StorageBackend getBackend() {
+            return backend;
+        }
+
+        public void setBackend(StorageBackend backend) {
+            this.backend = backend;
+        }
+    }
+
+    public static class Parallel {
+        // Split big scans (filters, counts, metrics recomputation, columnar scans) over the common fork-join pool
+        private boolean enabled = false;
+        // Scans over fewer products stay on the calling thread
+        private int threshold = 200_000;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public int getThreshold() {
+            return threshold;
+        }
+
+        public void setThreshold(int threshold) {
+            this.threshold = threshold;
+        }
+    }
+
+    public static class StockEvents {
+        // Events waiting to be applied; when it is full, senders wait up to offer-timeout and then get a 503
+        private int queueCapacity = 100_000;
+        // A batch is applied once it has max-batch events or window has passed since its first event
+        private int maxBatch = 1000;
+        private Duration window = Duration.ofMillis(5);
+        private Duration offerTimeout = Duration.ofSeconds(1);
+
+        public int getQueueCapacity() {
+            return queueCapacity;
+        }
+
+        public void setQueueCapacity(int queueCapacity) {
+            this.queueCapacity = queueCapacity;
+        }
+
+        public int getMaxBatch() {
+            return maxBatch;
+        }
+
+        public void setMaxBatch(int maxBatch) {
+            this.maxBatch = maxBatch;
+        }
+
+        public Duration getWindow() {
+            return window;
+        }
+
+        public void setWindow(Duration window) {
+            this.window = window;
+        }
+
+        public Duration getOfferTimeout() {
+            return offerTimeout;
+        }
+
+        public void setOfferTimeout(Duration offerTimeout) {
+            this.offerTimeout = offerTimeout;
+        }
+    }
+
+    public static class Expiry {
+        // Look for products whose expiration date has passed every sweep-interval and publish a ProductsExpiredEvent
+        private boolean sweepEnabled = true;
+        private Duration sweepInterval = Duration.ofHours(1);
+        // The first sweep after startup only reports the products that expired in the last look-back days
+        private Duration lookBack = Duration.ofDays(1);
+
+        public boolean isSweepEnabled() {
+            return sweepEnabled;
+        }
+
+        public void setSweepEnabled(boolean sweepEnabled) {
+            this.sweepEnabled = sweepEnabled;
+        }
+
+        public Duration getSweepInterval() {
+            return sweepInterval;
+        }
+
+        public void setSweepInterval(Duration sweepInterval) {
+            this.sweepInterval = sweepInterval;
+        }
+
+        public Duration getLookBack() {
+            return lookBack;
+        }
+
+        public void setLookBack(Duration lookBack) {
+            this.lookBack = lookBack;
+        }
+    }
+
+    public static class ChangeFeed {
+        // Recent changes kept for clients to resume from; a client that falls further behind is dropped
+        private int capacity = 10_000;
+        private int maxSubscribers = 100;
+        // Comment line sent to an idle client, so dead connections are noticed
+        private Duration heartbeat = Duration.ofSeconds(15);
+        // A stream is closed after this long, the client reconnects with Last-Event-ID
+        private Duration timeout = Duration.ofMinutes(30);
+
+        public int getCapacity() {
+            return capacity;
+        }
+
+        public void setCapacity(int capacity) {
+            this.capacity = capacity;
+        }
+
+        public int getMaxSubscribers() {
+            return maxSubscribers;
+        }
+
+        public void setMaxSubscribers(int maxSubscribers) {
+            this.maxSubscribers = maxSubscribers;
+        }
+
+        public Duration getHeartbeat() {
+            return heartbeat;
+        }
+
+        public void setHeartbeat(Duration heartbeat) {
+            this.heartbeat = heartbeat;
+        }
+
+        public Duration getTimeout() {
+            return timeout;
+        }
+
+        public void setTimeout(Duration timeout) {
+            this.timeout = timeout;
+        }
+    }
+
+    public static class Changes {
+        // How long deletes are remembered; a client that last synced before that has to sync again from 0
+        private Duration tombstoneRetention = Duration.ofDays(7);
+
+        public Duration getTombstoneRetention() {
+            return tombstoneRetention;
+        }
+
+        public void setTombstoneRetention(Duration tombstoneRetention) {
+            this.tombstoneRetention = tombstoneRetention;
+        }
+    }
+
+    public static class SlowQuery {
+        // Listings that take at least this long are logged with their plan; 0 turns the log off
+        private Duration threshold = Duration.ofMillis(500);
+
+        public Duration getThreshold() {
+            return threshold;
+        }
+
+        public void setThreshold(Duration threshold) {
+            this.threshold = threshold;
+        }
+    }
+
+    public enum StorageBackend {
+        MEMORY,
+        COLUMNAR
+    }
+
+    public enum FsyncPolicy {
+        ALWAYS,
+        INTERVAL,
+        NEVER
+    }
+
+}
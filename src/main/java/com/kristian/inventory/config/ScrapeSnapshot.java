@@ -0,0 +1,32 @@
+package com.kristian.inventory.config;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/*
+ The result of a getter that builds a new object on every call (cache stats, index sizes), shared by all
+ the meters that read it: a scrape reads them within milliseconds, so they get one snapshot between them
+ instead of one each. Taken again once it is older than a second.
+*/
+final class ScrapeSnapshot<T> {
+
+    private static final long MAX_AGE_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final Supplier<T> source;
+    private T value;        // guarded by this
+    private long takenAt;
+
+    ScrapeSnapshot(Supplier<T> source) {
+        this.source = source;
+    }
+
+    synchronized T get() {
+        long now = System.nanoTime();
+        if (value == null || now - takenAt > MAX_AGE_NANOS) {
+            value = source.get();
+            takenAt = now;
+        }
+        return value;
+    }
+
+}
@@ -0,0 +1,25 @@
+package com.kristian.inventory.config;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+// spring.threads.virtual.enabled is silently ignored before Java 21, say so at startup instead
+@Component
+class VirtualThreadsCheck {
+
+    private static final Logger log = LoggerFactory.getLogger(VirtualThreadsCheck.class);
+
+    VirtualThreadsCheck(Environment environment) {
+        boolean requested = environment.getProperty("spring.threads.virtual.enabled", Boolean.class, false);
+        int javaVersion = Runtime.version().feature();
+        if (requested && javaVersion < 21) {
+            log.warn("spring.threads.virtual.enabled=true needs Java 21 or newer, this is Java {}: requests run on platform threads",
+                    javaVersion);
+        } else if (requested) {
+            log.info("Requests run on virtual threads");
+        }
+    }
+
+}
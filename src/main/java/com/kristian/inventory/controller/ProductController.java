@@ -1,28 +1,219 @@
 package com.kristian.inventory.controller;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.kristian.inventory.config.InventoryProperties;
+import com.kristian.inventory.dto.CacheStats;
+import com.kristian.inventory.dto.ExplainedPage;
+import com.kristian.inventory.dto.ImportProgress;
 import com.kristian.inventory.dto.InventoryMetrics;
+import com.kristian.inventory.dto.ProductChangeSet;
+import com.kristian.inventory.dto.ProductPage;
+import com.kristian.inventory.dto.QueryPlan;
+import com.kristian.inventory.dto.StockAdjustmentResult;
+import com.kristian.inventory.dto.StockDelta;
+import com.kristian.inventory.dto.StockEvent;
+import com.kristian.inventory.dto.StockEventStats;
 import com.kristian.inventory.model.Product;
+import com.kristian.inventory.repository.ProductVersionConflictException;
+import com.kristian.inventory.repository.StockAdjustment;
+import com.kristian.inventory.service.ProductChangeFeed;
+import com.kristian.inventory.service.ProductChangeIndex;
+import com.kristian.inventory.service.ProductExportService;
+import com.kristian.inventory.service.ProductImportService;
 import com.kristian.inventory.service.ProductService;
+import com.kristian.inventory.service.StockEventPipeline;
+import com.kristian.inventory.service.StockEventQueueFullException;
+import jakarta.annotation.PreDestroy;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.thread.Threading;
+import org.springframework.core.env.Environment;
+import org.springframework.http.CacheControl;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ProblemDetail;
 import org.springframework.http.ResponseEntity;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.context.request.async.WebAsyncTask;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
 import java.util.List;
+import java.util.Map;
+import java.util.Locale;
 import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
-@CrossOrigin(origins = "http://localhost:8080")
+@CrossOrigin(origins = "http://localhost:8080",
+        exposedHeaders = {ProductController.NEXT_CURSOR_HEADER, ProductController.ACCEPTED_EVENTS_HEADER,
+                HttpHeaders.ETAG, HttpHeaders.LAST_MODIFIED})
 @RestController
 @RequestMapping("/products")
 public class ProductController {
+    // Cursor for the next page of GET /products, send it back as ?cursor=
+    public static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+    // How many of the posted stock events were queued, in order from the first one
+    public static final String ACCEPTED_EVENTS_HEADER = "X-Accepted-Events";
+    // X-Explain: true on GET /products adds the stages of the query as Server-Timing
+    public static final String EXPLAIN_HEADER = "X-Explain";
+    private static final String SERVER_TIMING = "Server-Timing";
+
+    private static final String NDJSON = "application/x-ndjson";
+    private static final int MAX_CHANGES = 10_000;
+    private static final Pattern WITHIN_DAYS = Pattern.compile("(\\d{1,5})d?");
+
     private final ProductService productService;
+    private final ProductImportService productImportService;
+    private final ProductExportService productExportService;
+    private final StockEventPipeline stockEventPipeline;
+    private final ProductChangeFeed productChangeFeed;
+    private final ProductChangeIndex productChangeIndex;
+    private final ObjectMapper objectMapper;
+    private final Duration importTimeout;
+    private final Duration exportTimeout;
+    // null with virtual threads, see asyncExecutor
+    private final ThreadPoolTaskExecutor asyncExecutor;
 
     @Autowired
-    public ProductController(ProductService productService){
+    public ProductController(ProductService productService, ProductImportService productImportService,
+                             ProductExportService productExportService, StockEventPipeline stockEventPipeline,
+                             ProductChangeFeed productChangeFeed, ProductChangeIndex productChangeIndex,
+                             ObjectMapper objectMapper, InventoryProperties properties, Environment environment){
         this.productService = productService;
+        this.productImportService = productImportService;
+        this.productExportService = productExportService;
+        this.stockEventPipeline = stockEventPipeline;
+        this.productChangeFeed = productChangeFeed;
+        this.productChangeIndex = productChangeIndex;
+        this.objectMapper = objectMapper;
+        this.importTimeout = properties.getImport().getTimeout();
+        this.exportTimeout = properties.getExport().getTimeout();
+        this.asyncExecutor = asyncExecutor(properties.getAsync(), environment);
+    }
+
+    /*
+     Runs the work of the /async endpoints. With virtual threads the application task executor already gives
+     each request a virtual thread (null here); otherwise a pool of its own, so that the executor shared with
+     @Async and the streaming import and export keeps Boot's size.
+    */
+    private static ThreadPoolTaskExecutor asyncExecutor(InventoryProperties.Async settings, Environment environment) {
+        if (Threading.VIRTUAL.isActive(environment)) {
+            return null;
+        }
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setThreadNamePrefix("async-endpoint-");
+        executor.setCorePoolSize(settings.getPoolSize());
+        executor.setAllowCoreThreadTimeOut(true);
+        executor.initialize();
+        return executor;
     }
 
+    @PreDestroy
+    public void close() {
+        if (asyncExecutor != null) {
+            asyncExecutor.shutdown();
+        }
+    }
+
+    private <T> WebAsyncTask<T> async(Callable<T> work) {
+        return asyncExecutor == null ? new WebAsyncTask<>(work) : new WebAsyncTask<>(null, asyncExecutor, work);
+    }
+
+    // With ?cursor= the page continues after the cursor (sort comes from the cursor, page is ignored).
+    // The listings and metrics are tagged with the catalog version: a poll with a matching If-None-Match gets a
+    // 304 before any query runs. A write during the query only makes the tag older than the body, never newer.
     @GetMapping
-    public List<Product> getAllProducts(
+    public ResponseEntity<List<Product>> getAllProducts(
+            @RequestParam(defaultValue = "0") int page,
+            @RequestParam(defaultValue = "10") int size,
+            @RequestParam(defaultValue = "name") String sortBy,
+            @RequestParam(defaultValue = "asc") String sortDir,
+            @RequestParam(required = false) String secondarySortBy,
+            @RequestParam(defaultValue = "asc") String secondarySortDir,
+            @RequestParam(required = false) String name,
+            @RequestParam(required = false) String category,
+            @RequestParam(required = false) Boolean availability,
+            @RequestParam(required = false) String cursor,
+            WebRequest request
+    ) {
+        String etag = productService.getCatalogTag();
+        if (request.checkNotModified(etag)) {
+            return notModified(etag);
+        }
+        return listProducts(etag, page, size, sortBy, sortDir, secondarySortBy, secondarySortDir,
+                name, category, availability, cursor);
+    }
+
+    private ResponseEntity<List<Product>> listProducts(
+            String etag, int page, int size, String sortBy, String sortDir,
+            String secondarySortBy, String secondarySortDir,
+            String name, String category, Boolean availability, String cursor
+    ) {
+        if (cursor != null) {
+            ProductPage result = productService.getProductsAfterCursor(cursor, size, name, category, availability, false);
+            return withNextCursor(result.getNextCursor()).eTag(etag).body(result.getItems());
+        }
+
+        List<Product> products = productService.getFilteredSortedPaginatedProducts(
+                page, size, sortBy, sortDir,
+                secondarySortBy, secondarySortDir,
+                name, category, availability
+        );
+        return withNextCursor(productService.nextCursor(products, size, sortBy, sortDir, secondarySortBy))
+                .eTag(etag)
+                .body(products);
+    }
+
+    /*
+     Query plan of a listing (not for cursors): which index or scan found the candidates, what the filters,
+     the sort and the slice did with them, with times and allocations per stage. The page is computed even if
+     it is cached, and the answer is never cached. ?explain=true puts the plan next to the items in the body,
+     the X-Explain header leaves the body as it is and sends the stages as Server-Timing (shown by the
+     browser's dev tools). With both, ?explain=true wins (the Server-Timing header comes along anyway).
+    */
+    @GetMapping(params = "explain=true")
+    public ResponseEntity<ExplainedPage> explainProducts(
+            @RequestParam(defaultValue = "0") int page,
+            @RequestParam(defaultValue = "10") int size,
+            @RequestParam(defaultValue = "name") String sortBy,
+            @RequestParam(defaultValue = "asc") String sortDir,
+            @RequestParam(required = false) String secondarySortBy,
+            @RequestParam(defaultValue = "asc") String secondarySortDir,
+            @RequestParam(required = false) String name,
+            @RequestParam(required = false) String category,
+            @RequestParam(required = false) Boolean availability,
+            @RequestParam(required = false) String cursor
+    ) {
+        if (cursor != null) {
+            return ResponseEntity.badRequest().build();
+        }
+        ExplainedPage result = productService.explainFilteredSortedPaginatedProducts(
+                page, size, sortBy, sortDir,
+                secondarySortBy, secondarySortDir,
+                name, category, availability
+        );
+        return explained(result.getPlan()).body(result);
+    }
+
+    @GetMapping(headers = EXPLAIN_HEADER + "=true", params = "explain!=true")
+    public ResponseEntity<List<Product>> getAllProductsExplained(
             @RequestParam(defaultValue = "0") int page,
             @RequestParam(defaultValue = "10") int size,
             @RequestParam(defaultValue = "name") String sortBy,
@@ -31,13 +222,112 @@ public class ProductController {
             @RequestParam(defaultValue = "asc") String secondarySortDir,
             @RequestParam(required = false) String name,
             @RequestParam(required = false) String category,
-            @RequestParam(required = false) Boolean availability
+            @RequestParam(required = false) Boolean availability,
+            @RequestParam(required = false) String cursor
     ) {
-        return productService.getFilteredSortedPaginatedProducts(
+        if (cursor != null) {
+            return ResponseEntity.badRequest().build();
+        }
+        ExplainedPage result = productService.explainFilteredSortedPaginatedProducts(
                 page, size, sortBy, sortDir,
                 secondarySortBy, secondarySortDir,
                 name, category, availability
         );
+        return explained(result.getPlan()).body(result.getItems());
+    }
+
+    // One Server-Timing metric per stage, e.g. candidates;dur=1.250;desc="category index 100000->2500"
+    private static ResponseEntity.BodyBuilder explained(QueryPlan plan) {
+        StringBuilder timing = new StringBuilder();
+        for (QueryPlan.Stage stage : plan.getStages()) {
+            timing.append(String.format(Locale.ROOT, "%s;dur=%.3f;desc=\"%s %d->%d\", ",
+                    stage.getName(), stage.getNanos() / 1e6, stage.getPath(), stage.getInput(), stage.getOutput()));
+        }
+        timing.append(String.format(Locale.ROOT, "total;dur=%.3f", plan.getNanos() / 1e6));
+        return ResponseEntity.ok()
+                .cacheControl(CacheControl.noStore())
+                .header(SERVER_TIMING, timing.toString());
+    }
+
+    /*
+     Async variants of the slow endpoints (large listings, metrics, bulk create): the servlet thread is given
+     back right away and the work runs on the application task executor, on virtual threads with the
+     virtual-threads profile. Same parameters and answers as the plain endpoints. The If-None-Match check stays
+     on the servlet thread (it writes the ETag and the 304 into the response), only the body is computed on the
+     executor.
+    */
+    @GetMapping("/async")
+    public WebAsyncTask<ResponseEntity<List<Product>>> getAllProductsAsync(
+            @RequestParam(defaultValue = "0") int page,
+            @RequestParam(defaultValue = "10") int size,
+            @RequestParam(defaultValue = "name") String sortBy,
+            @RequestParam(defaultValue = "asc") String sortDir,
+            @RequestParam(required = false) String secondarySortBy,
+            @RequestParam(defaultValue = "asc") String secondarySortDir,
+            @RequestParam(required = false) String name,
+            @RequestParam(required = false) String category,
+            @RequestParam(required = false) Boolean availability,
+            @RequestParam(required = false) String cursor,
+            WebRequest request
+    ) {
+        String etag = productService.getCatalogTag();
+        if (request.checkNotModified(etag)) {
+            ResponseEntity<List<Product>> notModified = notModified(etag);
+            return async(() -> notModified);
+        }
+        return async(() -> listProducts(etag, page, size, sortBy, sortDir, secondarySortBy, secondarySortDir,
+                name, category, availability, cursor));
+    }
+
+    // One page plus the total number of matches, saves the UI a second call to /count with the same filters
+    @GetMapping("/page")
+    public ResponseEntity<ProductPage> getProductPage(
+            @RequestParam(defaultValue = "0") int page,
+            @RequestParam(defaultValue = "10") int size,
+            @RequestParam(defaultValue = "name") String sortBy,
+            @RequestParam(defaultValue = "asc") String sortDir,
+            @RequestParam(required = false) String secondarySortBy,
+            @RequestParam(defaultValue = "asc") String secondarySortDir,
+            @RequestParam(required = false) String name,
+            @RequestParam(required = false) String category,
+            @RequestParam(required = false) Boolean availability,
+            @RequestParam(required = false) String cursor,
+            WebRequest request
+    ) {
+        String etag = productService.getCatalogTag();
+        if (request.checkNotModified(etag)) {
+            return notModified(etag);
+        }
+
+        ProductPage result = cursor != null
+                ? productService.getProductsAfterCursor(cursor, size, name, category, availability, true)
+                : productService.getProductPage(
+                        page, size, sortBy, sortDir,
+                        secondarySortBy, secondarySortDir,
+                        name, category, availability
+                );
+        return tagged(etag).body(result);
+    }
+
+    private static ResponseEntity.BodyBuilder withNextCursor(String nextCursor) {
+        ResponseEntity.BodyBuilder response = tagged(null);
+        if (nextCursor != null) {
+            response.header(NEXT_CURSOR_HEADER, nextCursor);
+        }
+        return response;
+    }
+
+    // no-cache: clients may keep the response but have to revalidate it (If-None-Match) before using it
+    private static ResponseEntity.BodyBuilder tagged(String etag) {
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok().cacheControl(CacheControl.noCache());
+        if (etag != null) {
+            response.eTag(etag);
+        }
+        return response;
+    }
+
+    private static <T> ResponseEntity<T> notModified(String etag) {
+        return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).build();
     }
 
 
@@ -47,21 +337,78 @@ public class ProductController {
         return productService.createProduct(product);
     }
 
+    // With If-Match the product is only replaced if it is still the version the client has, otherwise 412
     @PutMapping("/{id}")
     public ResponseEntity<Product> updateProduct(
             @PathVariable Long id,
-            @RequestBody Product updatedProduct) {
+            @RequestBody Product updatedProduct,
+            @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
+
+        if (ifMatch == null) {
+            return saved(productService.updateProduct(id, updatedProduct));
+        }
 
-        return productService.updateProduct(id, updatedProduct)
-                .map(ResponseEntity::ok)
+        Optional<Product> productOpt = productService.getProductById(id);
+        if (productOpt.isEmpty()) {
+            return ResponseEntity.notFound().build();
+        }
+        Product current = productOpt.get();
+        String etag = productService.getProductTag(current);
+        if (!matches(ifMatch, etag)) {
+            return preconditionFailed(etag);
+        }
+
+        try {
+            return saved(productService.updateProduct(id, updatedProduct, current.getVersion()));
+        } catch (ProductVersionConflictException e) {
+            // Saved by someone else after the check above
+            return ResponseEntity.status(HttpStatus.PRECONDITION_FAILED).build();
+        }
+    }
+
+    // The new version's tag comes along, so the client can send it as If-Match next time
+    private ResponseEntity<Product> saved(Optional<Product> product) {
+        return product
+                .map(p -> ResponseEntity.ok().eTag(productService.getProductTag(p)).body(p))
                 .orElseGet(() -> ResponseEntity.notFound().build());
+    }
+
+    // If-Match is "*" or a list of tags, compared strongly (weak W/ tags never match)
+    private static boolean matches(String ifMatch, String etag) {
+        String quoted = "\"" + etag + "\"";
+        for (String candidate : ifMatch.split(",")) {
+            String tag = candidate.trim();
+            if (tag.equals("*") || tag.equals(quoted)) {
+                return true;
+            }
         }
+        return false;
+    }
+
+    private static ResponseEntity<Product> preconditionFailed(String etag) {
+        return ResponseEntity.status(HttpStatus.PRECONDITION_FAILED).eTag(etag).build();
+    }
 
+    // Tagged with the product's own version, so it stays cacheable while other products change
     @GetMapping("/{id}")
-    public ResponseEntity<Product> getProductById(@PathVariable Long id) {
-        return productService.getProductById(id)
-                .map(ResponseEntity::ok)
-                .orElseGet(() -> ResponseEntity.notFound().build());
+    public ResponseEntity<Product> getProductById(@PathVariable Long id, WebRequest request) {
+        Optional<Product> productOpt = productService.getProductById(id);
+        if (productOpt.isEmpty()) {
+            return ResponseEntity.notFound().build();
+        }
+
+        Product product = productOpt.get();
+        String etag = productService.getProductTag(product);
+        long lastModified = product.getUpdatedAt() == null
+                ? -1 : product.getUpdatedAt().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        if (request.checkNotModified(etag, lastModified)) {
+            return notModified(etag);
+        }
+        ResponseEntity.BodyBuilder response = tagged(etag);
+        if (lastModified >= 0) {
+            response.lastModified(lastModified);
+        }
+        return response.body(product);
     }
 
     @DeleteMapping("/{id}")
@@ -89,32 +436,47 @@ public class ProductController {
 
     @PutMapping("/{id}/outofstock")
     public ResponseEntity<Product> markOutOfStock(@PathVariable Long id) {
-        Optional<Product> productOpt = productService.getProductById(id);
-
-        if (productOpt.isEmpty()) {
-            return ResponseEntity.notFound().build();
-        }
-
-        Product product = productOpt.get();
-        product.setQuantityInStock(0);
-        productService.updateProduct(id, product);
-
-        return ResponseEntity.ok(product);
+        return saved(productService.setQuantityInStock(id, 0));
     }
 
     @PutMapping("/{id}/instock")
     public ResponseEntity<Product> markInStock(@PathVariable Long id) {
-        Optional<Product> productOpt = productService.getProductById(id);
+        return saved(productService.setQuantityInStock(id, 10));
+    }
 
-        if (productOpt.isEmpty()) {
-            return ResponseEntity.notFound().build();
-        }
+    // Adds {"delta": n} to the stock in one atomic step, 409 if the stock would go below 0 or past Integer.MAX_VALUE
+    @PatchMapping("/{id}/stock")
+    public ResponseEntity<Product> adjustStock(@PathVariable Long id, @RequestBody StockDelta stockDelta) {
+        return saved(productService.adjustStock(id, stockDelta.getDelta()));
+    }
 
-        Product product = productOpt.get();
-        product.setQuantityInStock(10);
-        productService.updateProduct(id, product);
+    // [{"id": 1, "delta": -1}, ...]: each adjustment is applied on its own, the answer says which ones were
+    @PatchMapping("/stock")
+    public List<StockAdjustmentResult> adjustStock(@RequestBody List<StockAdjustment> adjustments) {
+        return productService.adjustStock(adjustments);
+    }
+
+    // High-rate stock/price events: queued and applied in merged batches, 202 once they are queued
+    @PostMapping("/stock/events")
+    public ResponseEntity<Void> submitStockEvents(@RequestBody List<StockEvent> events) {
+        stockEventPipeline.submit(events);
+        return ResponseEntity.accepted().header(ACCEPTED_EVENTS_HEADER, Integer.toString(events.size())).build();
+    }
+
+    // The deltas are not idempotent: the events that were queued will be applied, only the rest may be sent again
+    @ExceptionHandler(StockEventQueueFullException.class)
+    public ResponseEntity<ProblemDetail> stockEventQueueFull(StockEventQueueFullException e) {
+        ProblemDetail problem = ProblemDetail.forStatusAndDetail(HttpStatus.SERVICE_UNAVAILABLE, e.getMessage());
+        problem.setProperty("accepted", e.getAccepted());
+        problem.setProperty("total", e.getTotal());
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(ACCEPTED_EVENTS_HEADER, Integer.toString(e.getAccepted()))
+                .body(problem);
+    }
 
-        return ResponseEntity.ok(product);
+    @GetMapping("/stock/events/stats")
+    public StockEventStats getStockEventStats() {
+        return stockEventPipeline.getStats();
     }
 
     @GetMapping("/outofstock")
@@ -122,30 +484,195 @@ public class ProductController {
         return productService.getOutOfStockProducts();
     }
 
+    // Change feed
+
+    /*
+     Server-Sent Events, one per change: id is <run>-<sequence number>, the event name the type (created, updated,
+     stock, deleted, expired), the data a ProductChangeEvent. Starts with the changes after Last-Event-ID (or ?after=),
+     without either only new changes are sent. 410 if the feed no longer has the changes to resume from, or the id is
+     from before a restart.
+    */
+    @GetMapping(value = "/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter streamChanges(
+            @RequestHeader(value = "Last-Event-ID", required = false) String lastEventId,
+            @RequestParam(required = false) String after
+    ) {
+        return productChangeFeed.subscribe(lastEventId != null ? lastEventId : after);
+    }
+
+    /*
+     Incremental sync: what was created, changed or deleted after `since`, which is the `next` of the previous
+     answer (0 or missing: everything) or a time like 2025-05-01T10:00:00. Keep asking while `more` is true.
+     410 if deletes after `since` are no longer known, the client then starts over from 0.
+    */
+    @GetMapping("/changes")
+    public ResponseEntity<ProductChangeSet> getChanges(
+            @RequestParam(defaultValue = "0") String since,
+            @RequestParam(defaultValue = "1000") int limit
+    ) {
+        long stamp;
+        try {
+            stamp = since.chars().allMatch(Character::isDigit)
+                    ? Long.parseLong(since)
+                    : ProductChangeIndex.stampOf(LocalDateTime.parse(since));
+        } catch (NumberFormatException | DateTimeParseException e) {
+            return ResponseEntity.badRequest().build();
+        }
+        if (limit < 1 || limit > MAX_CHANGES) {
+            return ResponseEntity.badRequest().build();
+        }
+        return ResponseEntity.ok(productChangeIndex.changesSince(stamp, limit));
+    }
+
+    // Expiration
+
+    // Products expiring from today through today + within (e.g. 7d, or just 7), soonest first.
+    // expired=true also lists the ones whose date has already passed.
+    @GetMapping("/expiring")
+    public ResponseEntity<List<Product>> getExpiringProducts(
+            @RequestParam String within,
+            @RequestParam(defaultValue = "false") boolean expired
+    ) {
+        Matcher days = WITHIN_DAYS.matcher(within.trim());
+        if (!days.matches()) {
+            return ResponseEntity.badRequest().build();
+        }
+        LocalDate today = LocalDate.now();
+        LocalDate to = today.plusDays(Integer.parseInt(days.group(1)));
+        return ResponseEntity.ok(productService.getProductsExpiringBetween(expired ? null : today, to));
+    }
+
 
     /// ///////////////////
 
     @PostMapping("/bulk")
     public List<Product> createProducts(@RequestBody List<Product> products) {
-        return products.stream()
-                .map(productService::createProduct)
-                .toList();
+        return productService.createProducts(products);
+    }
+
+    @PostMapping("/bulk/async")
+    public WebAsyncTask<List<Product>> createProductsAsync(@RequestBody List<Product> products) {
+        return async(() -> productService.createProducts(products));
+    }
+
+    /*
+     Streaming import for big feeds: NDJSON or a JSON array, answered with one NDJSON progress line per batch
+     and a summary line. Runs up to inventory.import.timeout, not the global async timeout.
+
+     The progress lines are written while the feed is still being read. A client has to read the response
+     while it uploads (or send ?progress=false, then only the summary comes, after the whole feed): one that
+     only reads after its upload is done can fill the connection with progress lines, and then neither side
+     moves on.
+    */
+    @PostMapping(value = "/import", consumes = {NDJSON, MediaType.APPLICATION_JSON_VALUE}, produces = NDJSON)
+    public WebAsyncTask<Void> importProducts(
+            @RequestParam(defaultValue = "true") boolean progress,
+            HttpServletRequest request, HttpServletResponse response) throws IOException {
+        InputStream input = request.getInputStream();
+        response.setContentType(NDJSON);
+
+        return streaming(importTimeout, () -> {
+            OutputStream output = response.getOutputStream();
+            ImportProgress summary = productImportService.importProducts(input,
+                    progress ? batch -> writeLine(output, batch) : batch -> { });
+            writeLine(output, summary);
+        });
+    }
+
+    /*
+     Whole catalog, or what matches the same filters as GET /products, as NDJSON (default) or CSV. Written
+     while the catalog is walked, so memory stays the same whatever the size; no paging and no sorting.
+     Runs up to inventory.export.timeout, not the global async timeout.
+    */
+    @GetMapping("/export")
+    public WebAsyncTask<Void> exportProducts(
+            @RequestParam(defaultValue = "ndjson") String format,
+            @RequestParam(required = false) String name,
+            @RequestParam(required = false) String category,
+            @RequestParam(required = false) Boolean availability,
+            HttpServletResponse response
+    ) {
+        ProductExportService.Format exportFormat;
+        try {
+            exportFormat = ProductExportService.Format.valueOf(format.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Unknown export format " + format);
+        }
+
+        boolean csv = exportFormat == ProductExportService.Format.CSV;
+        response.setContentType(csv ? new MediaType("text", "csv", StandardCharsets.UTF_8).toString() : NDJSON);
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION, ContentDisposition.attachment()
+                .filename(csv ? "products.csv" : "products.ndjson").build().toString());
+
+        return streaming(exportTimeout, () ->
+                productExportService.export(exportFormat, name, category, availability, response.getOutputStream()));
+    }
+
+    @FunctionalInterface
+    private interface ResponseWriter {
+        void write() throws IOException;
+    }
+
+    /*
+     Writes the response body on the application task executor with a timeout of its own (0: none). Headers
+     have to be set before: the body is written straight to the servlet response, which commits it.
+    */
+    private static WebAsyncTask<Void> streaming(Duration timeout, ResponseWriter writer) {
+        return new WebAsyncTask<>(timeout.toMillis(), () -> {
+            writer.write();
+            return null;
+        });
+    }
+
+    private void writeLine(OutputStream output, Object value) {
+        try {
+            output.write(objectMapper.writeValueAsBytes(value));
+            output.write('\n');
+            output.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
     }
 
     // DTO
     @GetMapping("/metrics")
-    public InventoryMetrics getInventoryMetrics() {
-        return productService.getInventoryMetrics();
+    public ResponseEntity<InventoryMetrics> getInventoryMetrics(WebRequest request) {
+        String etag = productService.getCatalogTag();
+        if (request.checkNotModified(etag)) {
+            return notModified(etag);
+        }
+        return tagged(etag).body(productService.getInventoryMetrics());
+    }
+
+    @GetMapping("/metrics/async")
+    public WebAsyncTask<ResponseEntity<InventoryMetrics>> getInventoryMetricsAsync(WebRequest request) {
+        String etag = productService.getCatalogTag();
+        if (request.checkNotModified(etag)) {
+            ResponseEntity<InventoryMetrics> notModified = notModified(etag);
+            return async(() -> notModified);
+        }
+        return async(() -> tagged(etag).body(productService.getInventoryMetrics()));
+    }
+
+    // Hit/miss/eviction counters of the listing caches
+    @GetMapping("/cache/stats")
+    public Map<String, CacheStats> getCacheStats() {
+        return productService.getCacheStats();
     }
 
     // -------------- testingggggg
     @GetMapping("/count")
-    public long countFilteredProducts(
+    public ResponseEntity<Long> countFilteredProducts(
             @RequestParam(required = false) String name,
             @RequestParam(required = false) String category,
-            @RequestParam(required = false) Boolean availability
+            @RequestParam(required = false) Boolean availability,
+            WebRequest request
     ) {
-        return productService.countFilteredProducts(name, category, availability);
+        String etag = productService.getCatalogTag();
+        if (request.checkNotModified(etag)) {
+            return notModified(etag);
+        }
+        return tagged(etag).body(productService.countFilteredProducts(name, category, availability));
     }
 
 }
@@ -0,0 +1,55 @@
+package com.kristian.inventory.dto;
+
+// Counters of one cache, for GET /products/cache/stats
+public class CacheStats {
+
+    private long hits;
+    private long misses;
+    // Dropped to make room (least recently used)
+    private long evictions;
+    // Dropped because they were older than the time to live
+    private long expirations;
+    // Dropped because the catalog changed after they were computed
+    private long invalidations;
+    private int size;
+    private int maxEntries;
+
+    public CacheStats(long hits, long misses, long evictions, long expirations, long invalidations, int size, int maxEntries) {
+        this.hits = hits;
+        this.misses = misses;
+        this.evictions = evictions;
+        this.expirations = expirations;
+        this.invalidations = invalidations;
+        this.size = size;
+        this.maxEntries = maxEntries;
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    public long getMisses() {
+        return misses;
+    }
+
+    public long getEvictions() {
+        return evictions;
+    }
+
+    public long getExpirations() {
+        return expirations;
+    }
+
+    public long getInvalidations() {
+        return invalidations;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+}
@@ -0,0 +1,26 @@
+package com.kristian.inventory.dto;
+
+import com.kristian.inventory.model.Product;
+
+import java.util.List;
+
+// Answer of GET /products?explain=true: the page and how it was computed
+public class ExplainedPage {
+
+    private List<Product> items;
+    private QueryPlan plan;
+
+    public ExplainedPage(List<Product> items, QueryPlan plan) {
+        this.items = items;
+        this.plan = plan;
+    }
+
+    public List<Product> getItems() {
+        return items;
+    }
+
+    public QueryPlan getPlan() {
+        return plan;
+    }
+
+}
@@ -0,0 +1,40 @@
+package com.kristian.inventory.dto;
+
+// One line of the progress stream of POST /products/import
+public class ImportProgress {
+
+    private int batch;
+    private int batchSize;
+    private long totalImported;
+    private boolean done;
+    private String error;
+
+    public ImportProgress(int batch, int batchSize, long totalImported, boolean done, String error) {
+        this.batch = batch;
+        this.batchSize = batchSize;
+        this.totalImported = totalImported;
+        this.done = done;
+        this.error = error;
+    }
+
+    public int getBatch() {
+        return batch;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public long getTotalImported() {
+        return totalImported;
+    }
+
+    public boolean isDone() {
+        return done;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+}
@@ -0,0 +1,50 @@
+package com.kristian.inventory.dto;
+
+import com.kristian.inventory.model.Product;
+
+// One entry of the change feed (GET /products/events). product is the new state, null for deletes.
+public class ProductChangeEvent {
+
+    private String run;
+    private long sequence;
+    private String type;
+    private Long id;
+    private Product product;
+
+    public ProductChangeEvent(String run, long sequence, String type, Long id, Product product) {
+        this.run = run;
+        this.sequence = sequence;
+        this.type = type;
+        this.id = id;
+        this.product = product;
+    }
+
+    // Goes up by one per change, in the order the changes were applied. Starts over when the application restarts.
+    public long getSequence() {
+        return sequence;
+    }
+
+    // The SSE event id, <run>-<sequence>: resume with it (Last-Event-ID or ?after=)
+    public String getEventId() {
+        return eventId(run, sequence);
+    }
+
+    public static String eventId(String run, long sequence) {
+        return run + "-" + sequence;
+    }
+
+    // created, updated, stock (only the quantity changed), deleted, or expired (its expiration date ended, the
+    // product itself did not change)
+    public String getType() {
+        return type;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public Product getProduct() {
+        return product;
+    }
+
+}
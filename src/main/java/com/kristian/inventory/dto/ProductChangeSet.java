@@ -0,0 +1,41 @@
+package com.kristian.inventory.dto;
+
+import com.kristian.inventory.model.Product;
+
+import java.util.List;
+
+// Answer of GET /products/changes: what changed after `since`, each product once in its current state
+public class ProductChangeSet {
+
+    private List<Product> updated;
+    private List<Long> deleted;
+    private long next;
+    private boolean more;
+
+    public ProductChangeSet(List<Product> updated, List<Long> deleted, long next, boolean more) {
+        this.updated = updated;
+        this.deleted = deleted;
+        this.next = next;
+        this.more = more;
+    }
+
+    // Created or changed
+    public List<Product> getUpdated() {
+        return updated;
+    }
+
+    public List<Long> getDeleted() {
+        return deleted;
+    }
+
+    // Send it back as ?since= for the changes after these
+    public long getNext() {
+        return next;
+    }
+
+    // The limit was reached, ask again with next right away
+    public boolean isMore() {
+        return more;
+    }
+
+}
@@ -0,0 +1,45 @@
+package com.kristian.inventory.dto;
+
+import com.kristian.inventory.model.Product;
+
+import java.util.List;
+
+public class ProductPage {
+
+    private List<Product> items;
+    // Pass it back as ?cursor= to get the next page, null when there are no more products
+    private String nextCursor;
+    // All products matching the filters, not only this page (-1 where it wasn't counted)
+    private long totalCount;
+
+    public ProductPage(List<Product> items, String nextCursor, long totalCount) {
+        this.items = items;
+        this.nextCursor = nextCursor;
+        this.totalCount = totalCount;
+    }
+
+    public List<Product> getItems() {
+        return items;
+    }
+
+    public void setItems(List<Product> items) {
+        this.items = items;
+    }
+
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
+    public void setNextCursor(String nextCursor) {
+        this.nextCursor = nextCursor;
+    }
+
+    public long getTotalCount() {
+        return totalCount;
+    }
+
+    public void setTotalCount(long totalCount) {
+        this.totalCount = totalCount;
+    }
+
+}
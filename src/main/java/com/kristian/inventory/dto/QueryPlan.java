@@ -0,0 +1,107 @@
+package com.kristian.inventory.dto;
+
+import java.util.List;
+import java.util.Locale;
+
+/*
+ How a listing was computed (GET /products?explain=true): the stages in the order they ran, each with the
+ path it took, how many products went in and came out, its time and what the request thread allocated.
+*/
+public class QueryPlan {
+
+    private long catalogSize;
+    private boolean pageCached;
+    private long nanos;
+    private Long allocatedBytes;
+    private List<Stage> stages;
+
+    public QueryPlan(long catalogSize, boolean pageCached, long nanos, Long allocatedBytes, List<Stage> stages) {
+        this.catalogSize = catalogSize;
+        this.pageCached = pageCached;
+        this.nanos = nanos;
+        this.allocatedBytes = allocatedBytes;
+        this.stages = stages;
+    }
+
+    public long getCatalogSize() {
+        return catalogSize;
+    }
+
+    // A finished page was in the page cache; an explained listing is computed anyway, so the stages are there
+    public boolean isPageCached() {
+        return pageCached;
+    }
+
+    public long getNanos() {
+        return nanos;
+    }
+
+    // Bytes allocated by the request thread, null where the JVM can't tell (parallel scans allocate on the
+    // fork-join pool as well, that is not counted)
+    public Long getAllocatedBytes() {
+        return allocatedBytes;
+    }
+
+    public List<Stage> getStages() {
+        return stages;
+    }
+
+    @Override
+    public String toString() {
+        return stages.toString();
+    }
+
+    public static class Stage {
+
+        private String name;
+        private String path;
+        private long input;
+        private long output;
+        private long nanos;
+        private Long allocatedBytes;
+
+        public Stage(String name, String path, long input, long output, long nanos, Long allocatedBytes) {
+            this.name = name;
+            this.path = path;
+            this.input = input;
+            this.output = output;
+            this.nanos = nanos;
+            this.allocatedBytes = allocatedBytes;
+        }
+
+        // sorted-view, match-cache, candidates, filter, sort or paginate
+        public String getName() {
+            return name;
+        }
+
+        // The index, algorithm or predicates the stage used
+        public String getPath() {
+            return path;
+        }
+
+        // Products the stage read
+        public long getInput() {
+            return input;
+        }
+
+        // Products the stage passed on
+        public long getOutput() {
+            return output;
+        }
+
+        public long getNanos() {
+            return nanos;
+        }
+
+        public Long getAllocatedBytes() {
+            return allocatedBytes;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "%s(%s) %d -> %d in %.3f ms", name, path, input, output, nanos / 1e6);
+        }
+
+    }
+
+}
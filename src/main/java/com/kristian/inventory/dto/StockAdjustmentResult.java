@@ -0,0 +1,30 @@
+package com.kristian.inventory.dto;
+
+// One entry of the answer to PATCH /products/stock, in the order of the request
+public class StockAdjustmentResult {
+
+    private Long id;
+    private String status;
+    private Integer quantityInStock;
+
+    public StockAdjustmentResult(Long id, String status, Integer quantityInStock) {
+        this.id = id;
+        this.status = status;
+        this.quantityInStock = quantityInStock;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    // APPLIED, NOT_FOUND, INSUFFICIENT_STOCK or STOCK_OVERFLOW (the stock would go past Integer.MAX_VALUE)
+    public String getStatus() {
+        return status;
+    }
+
+    // Stock after the adjustment (unchanged stock if it was not applied), null if there is no such product
+    public Integer getQuantityInStock() {
+        return quantityInStock;
+    }
+
+}
@@ -0,0 +1,16 @@
+package com.kristian.inventory.dto;
+
+// Body of PATCH /products/{id}/stock: how much to add to the stock (negative to take out)
+public class StockDelta {
+
+    private int delta;
+
+    public int getDelta() {
+        return delta;
+    }
+
+    public void setDelta(int delta) {
+        this.delta = delta;
+    }
+
+}
@@ -0,0 +1,46 @@
+package com.kristian.inventory.dto;
+
+import java.math.BigDecimal;
+
+// One event of POST /products/stock/events: a stock change (delta) and/or a new unit price for a product
+public class StockEvent {
+
+    private Long id;
+    private int delta;
+    private BigDecimal unitPrice;
+
+    public StockEvent() {
+    }
+
+    public StockEvent(Long id, int delta, BigDecimal unitPrice) {
+        this.id = id;
+        this.delta = delta;
+        this.unitPrice = unitPrice;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public int getDelta() {
+        return delta;
+    }
+
+    public void setDelta(int delta) {
+        this.delta = delta;
+    }
+
+    // null keeps the current price
+    public BigDecimal getUnitPrice() {
+        return unitPrice;
+    }
+
+    public void setUnitPrice(BigDecimal unitPrice) {
+        this.unitPrice = unitPrice;
+    }
+
+}
@@ -0,0 +1,48 @@
+package com.kristian.inventory.dto;
+
+// Counters of the stock event pipeline since startup (GET /products/stock/events/stats)
+public class StockEventStats {
+
+    private long accepted;
+    private long applied;
+    private long rejected;
+    private long batches;
+    private long productWrites;
+    private int queued;
+
+    public StockEventStats(long accepted, long applied, long rejected, long batches, long productWrites, int queued) {
+        this.accepted = accepted;
+        this.applied = applied;
+        this.rejected = rejected;
+        this.batches = batches;
+        this.productWrites = productWrites;
+        this.queued = queued;
+    }
+
+    public long getAccepted() {
+        return accepted;
+    }
+
+    public long getApplied() {
+        return applied;
+    }
+
+    // Unknown product, or the event would have taken the stock below 0 or past Integer.MAX_VALUE
+    public long getRejected() {
+        return rejected;
+    }
+
+    public long getBatches() {
+        return batches;
+    }
+
+    // Writes to the repository after merging the events of a batch per product
+    public long getProductWrites() {
+        return productWrites;
+    }
+
+    public int getQueued() {
+        return queued;
+    }
+
+}
@@ -19,6 +19,8 @@ package com.kristian.inventory.model;
 */
 
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
 import java.math.BigDecimal;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
@@ -35,6 +37,14 @@ public class Product {
     private LocalDateTime createdAt;
     private LocalDateTime updatedAt;
 
+    // Set by the repository: 1 when the product is created, +1 on every save. Sent as the ETag, not in the body.
+    private long version;
+
+    // Lower-cased name and category, computed once in the setters so sorting and filtering
+    // don't have to call toLowerCase() (and allocate a new String) on every comparison
+    private String normalizedName;
+    private String normalizedCategory;
+
     // Default Constructor
     public Product(){
 
@@ -43,7 +53,9 @@ public class Product {
     public Product(Long id, String name, String category, BigDecimal unitPrice, int quantityInStock, LocalDate expirationDate, LocalDateTime createdAt, LocalDateTime updatedAt) {
         this.id = id;
         this.name = name;
+        this.normalizedName = normalize(name);
         this.category = category;
+        this.normalizedCategory = normalize(category);
         this.unitPrice = unitPrice;
         this.quantityInStock = quantityInStock;
         this.expirationDate = expirationDate;
@@ -51,6 +63,21 @@ public class Product {
         this.updatedAt = updatedAt;
     }
 
+    // Copy constructor, the repository keeps its own copy of every saved product
+    public Product(Product other) {
+        this.id = other.id;
+        this.name = other.name;
+        this.category = other.category;
+        this.unitPrice = other.unitPrice;
+        this.quantityInStock = other.quantityInStock;
+        this.expirationDate = other.expirationDate;
+        this.createdAt = other.createdAt;
+        this.updatedAt = other.updatedAt;
+        this.version = other.version;
+        this.normalizedName = other.normalizedName;
+        this.normalizedCategory = other.normalizedCategory;
+    }
+
     // Getter
     public Long getId() {
         return id;
@@ -84,6 +111,21 @@ public class Product {
         return updatedAt;
     }
 
+    @JsonIgnore
+    public long getVersion() {
+        return version;
+    }
+
+    @JsonIgnore
+    public String getNormalizedName() {
+        return normalizedName;
+    }
+
+    @JsonIgnore
+    public String getNormalizedCategory() {
+        return normalizedCategory;
+    }
+
     // Setter
 
     public void setId(Long id) {
@@ -92,10 +134,16 @@ public class Product {
 
     public void setName(String name) {
         this.name = name;
+        this.normalizedName = normalize(name);
     }
 
     public void setCategory(String category) {
         this.category = category;
+        this.normalizedCategory = normalize(category);
+    }
+
+    private static String normalize(String value) {
+        return value == null ? null : value.toLowerCase();
     }
 
     public void setUnitPrice(BigDecimal unitPrice) {
@@ -118,6 +166,11 @@ public class Product {
         this.updatedAt = updatedAt;
     }
 
+    @JsonIgnore
+    public void setVersion(long version) {
+        this.version = version;
+    }
+
     // toString
     @Override
     public String toString() {
@@ -130,6 +183,7 @@ public class Product {
                 ", expirationDate=" + expirationDate +
                 ", createdAt=" + createdAt +
                 ", updatedAt=" + updatedAt +
+                ", version=" + version +
                 '}';
     }
 }
@@ -0,0 +1,141 @@
+package com.kristian.inventory.repository;
+
+import com.kristian.inventory.model.Product;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.*;
+
+/*
+ Running inventory totals of one category. Instances are immutable, the repository swaps them
+ with plus/minus every time a product is created, changed or deleted.
+
+ BigDecimal keeps the scale of a sum, so after removing a 2.25 product a 1.5 + 2.25 total would stay
+ at 1.50 while a fresh sum of the remaining prices gives 1.5. To give exactly the same numbers as a
+ full recomputation the totals also count how many products use each price scale.
+*/
+public final class CategoryTotals {
+
+    public static final CategoryTotals EMPTY = new CategoryTotals(0, 0, BigDecimal.ZERO, BigDecimal.ZERO, 0, Map.of());
+
+    private final int productCount;
+    private final int totalStock;
+    private final BigDecimal totalValue;
+    private final BigDecimal inStockPriceSum;
+    private final int inStockCount;
+    private final Map<Integer, Integer> priceScaleCounts;
+
+    private CategoryTotals(int productCount, int totalStock, BigDecimal totalValue,
+                           BigDecimal inStockPriceSum, int inStockCount, Map<Integer, Integer> priceScaleCounts) {
+        this.productCount = productCount;
+        this.totalStock = totalStock;
+        this.totalValue = totalValue;
+        this.inStockPriceSum = inStockPriceSum;
+        this.inStockCount = inStockCount;
+        this.priceScaleCounts = priceScaleCounts;
+    }
+
+    // What a single product adds to the totals of its category
+    public static CategoryTotals of(Product product) {
+        int qty = product.getQuantityInStock();
+        BigDecimal price = product.getUnitPrice();
+        boolean inStock = qty > 0;
+
+        return new CategoryTotals(
+                1,
+                qty,
+                price.multiply(BigDecimal.valueOf(qty)),
+                inStock ? price : BigDecimal.ZERO,
+                inStock ? 1 : 0,
+                Map.of(price.scale(), 1)
+        );
+    }
+
+    // Same as of(product) for every product, but without creating an object per product
+    public static CategoryTotals sum(Collection<Product> products) {
+        int productCount = 0;
+        int totalStock = 0;
+        BigDecimal totalValue = BigDecimal.ZERO;
+        BigDecimal inStockPriceSum = BigDecimal.ZERO;
+        int inStockCount = 0;
+        Map<Integer, Integer> scales = new HashMap<>();
+
+        for (Product product : products) {
+            int qty = product.getQuantityInStock();
+            BigDecimal price = product.getUnitPrice();
+
+            productCount++;
+            totalStock += qty;
+            totalValue = totalValue.add(price.multiply(BigDecimal.valueOf(qty)));
+            if (qty > 0) {
+                inStockPriceSum = inStockPriceSum.add(price);
+                inStockCount++;
+            }
+            scales.merge(price.scale(), 1, Integer::sum);
+        }
+
+        return new CategoryTotals(productCount, totalStock, totalValue, inStockPriceSum, inStockCount, Map.copyOf(scales));
+    }
+
+    /*
+     For stores that sum the columns themselves. totalValue and inStockPriceSum have to be what
+     adding up the products from BigDecimal.ZERO gives, scale included; priceScaleCounts says how many
+     products have a price of each scale.
+    */
+    public static CategoryTotals fromSums(int productCount, int totalStock, BigDecimal totalValue,
+                                          BigDecimal inStockPriceSum, int inStockCount,
+                                          Map<Integer, Integer> priceScaleCounts) {
+        return new CategoryTotals(productCount, totalStock, totalValue, inStockPriceSum, inStockCount,
+                Map.copyOf(priceScaleCounts));
+    }
+
+    public CategoryTotals plus(CategoryTotals other) {
+        return combine(other, 1);
+    }
+
+    public CategoryTotals minus(CategoryTotals other) {
+        return combine(other, -1);
+    }
+
+    private CategoryTotals combine(CategoryTotals other, int sign) {
+        Map<Integer, Integer> scales = new HashMap<>(priceScaleCounts);
+        other.priceScaleCounts.forEach((scale, count) ->
+                scales.merge(scale, sign * count, (a, b) -> a + b == 0 ? null : a + b));
+
+        return new CategoryTotals(
+                productCount + sign * other.productCount,
+                totalStock + sign * other.totalStock,
+                sign > 0 ? totalValue.add(other.totalValue) : totalValue.subtract(other.totalValue),
+                sign > 0 ? inStockPriceSum.add(other.inStockPriceSum) : inStockPriceSum.subtract(other.inStockPriceSum),
+                inStockCount + sign * other.inStockCount,
+                Map.copyOf(scales)
+        );
+    }
+
+    public boolean isEmpty() {
+        return productCount == 0;
+    }
+
+    public int getProductCount() {
+        return productCount;
+    }
+
+    public int getTotalStock() {
+        return totalStock;
+    }
+
+    // In the scale a fresh sum starting from BigDecimal.ZERO would have
+    public BigDecimal getTotalValue() {
+        int scale = Math.max(0, priceScaleCounts.keySet().stream().max(Integer::compare).orElse(0));
+        return totalValue.setScale(scale, RoundingMode.UNNECESSARY);
+    }
+
+    public BigDecimal getInStockPriceSum() {
+        return inStockPriceSum;
+    }
+
+    public int getInStockCount() {
+        return inStockCount;
+    }
+
+}
@@ -1,25 +1,98 @@
 package com.kristian.inventory.repository;
 
 import com.kristian.inventory.model.Product;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.stereotype.Repository;
 
+import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 @Repository
+@ConditionalOnProperty(prefix = "inventory.storage", name = "backend", havingValue = "memory", matchIfMissing = true)
 public class InMemoryProductRepository implements ProductRepository {
 
-    // This is my HashMap where I will store my data
-    private final Map<Long, Product> productStorage = new HashMap<>();
+    // This is my map where I will store my data.
+    // ConcurrentHashMap gives lock-free reads and locks only the bin of the key being written,
+    // so writers on different products never wait on each other.
+    private final Map<Long, Product> productStorage = new ConcurrentHashMap<>();
 
     // I will set the id automatically so I decided to start with 1000
-    private Long newId = 1000L;
+    private final AtomicLong newId = new AtomicLong(1000L);
+
+    // Bumped after each save/delete has been applied (see VersionedLruCache in the service for why after)
+    private final AtomicLong catalogVersion = new AtomicLong();
+
+    // expectedVersion for writes that don't check the stored version
+    private static final long ANY_VERSION = -1;
+
+    // Numbers the changes under the lock of their id, see ProductChange.sequence()
+    private final AtomicLong changeSequence = new AtomicLong();
+
+    private final List<ProductChangeListener> listeners = new CopyOnWriteArrayList<>();
+    private final List<ProductChangeListener> appliedListeners = new CopyOnWriteArrayList<>();
+
+    // Secondary indexes (value -> ids). They are only written while holding the storage lock of the id,
+    // so the same product is never indexed by two threads at once.
+    private final Map<String, Set<Long>> categoryIndex = new ConcurrentHashMap<>();
+    private final Map<Boolean, Set<Long>> availabilityIndex = new ConcurrentHashMap<>();
+    private final TrigramIndex nameIndex = new TrigramIndex();
+
+    // One sorted view per sortable field, the expiration view also answers the date range queries
+    private final Map<ProductSortField, SortedView> sortedViews = new EnumMap<>(ProductSortField.class);
+
+    {
+        for (ProductSortField field : ProductSortField.values()) {
+            sortedViews.put(field, new SortedView(field));
+        }
+    }
+
+    // Inventory totals per category (exact category name, the same grouping the metrics always used)
+    private final Map<String, CategoryTotals> categoryTotals = new ConcurrentHashMap<>();
+
+    // What each product was indexed under. Products can be changed in place before save is called,
+    // so the old index keys have to be remembered here instead of being read back from the product.
+    private final Map<Long, IndexedFields> indexedFields = new ConcurrentHashMap<>();
+
+    private record IndexedFields(String nameKey, String categoryKey, Boolean available, Object[] sortKeys,
+                                 String category, CategoryTotals totals) {
+
+        static IndexedFields of(Product product) {
+            int qty = product.getQuantityInStock();
+            Boolean available = qty > 0 ? Boolean.TRUE : qty == 0 ? Boolean.FALSE : null;
+            boolean counted = product.getCategory() != null && product.getUnitPrice() != null;
+            Object[] sortKeys = new Object[ProductSortField.values().length];
+            for (ProductSortField field : ProductSortField.values()) {
+                sortKeys[field.ordinal()] = field.keyOf(product);
+            }
+            return new IndexedFields(
+                    product.getNormalizedName(),
+                    InMemoryProductRepository.categoryKey(product.getCategory()),
+                    available,
+                    sortKeys,
+                    product.getCategory(),
+                    counted ? CategoryTotals.of(product) : null
+            );
+        }
+    }
 
     @Override
     public List<Product> findAll(){
         return new ArrayList<>(productStorage.values());
     }
 
+    // ConcurrentHashMap iterators are weakly consistent and never throw ConcurrentModificationException
+    @Override
+    public Stream<Product> streamAll() {
+        return productStorage.values().stream();
+    }
+
     @Override
     public Optional<Product> findById(Long id){
         return Optional.ofNullable(productStorage.get(id));
@@ -31,20 +104,553 @@ public class InMemoryProductRepository implements ProductRepository {
 
         // Create
         if (product.getId() == null){
-          product.setId(newId++);
+          product.setId(newId.getAndIncrement());
           product.setCreatedAt(now);
         }
 
         product.setUpdatedAt(now);
-        productStorage.put(product.getId(), product);
+        storeCopy(product, ANY_VERSION);
+        catalogVersion.incrementAndGet();
+
+        return product;
+
+    }
 
+    @Override
+    public Product compareAndSave(Product product, long expectedVersion) {
+        if (product.getId() == null) {
+            throw new IllegalArgumentException("compareAndSave needs a product id");
+        }
+        product.setUpdatedAt(LocalDateTime.now());
+        storeCopy(product, expectedVersion);
+        catalogVersion.incrementAndGet();
         return product;
+    }
+
+    // One timestamp and one block of ids for the whole batch, and a single catalog version bump at the end
+    @Override
+    public List<Product> saveAll(List<Product> products) {
+        LocalDateTime now = LocalDateTime.now();
+
+        int newProducts = 0;
+        for (Product product : products) {
+            if (product.getId() == null) {
+                newProducts++;
+            }
+        }
+        long nextId = newId.getAndAdd(newProducts);
+
+        for (Product product : products) {
+            if (product.getId() == null) {
+                product.setId(nextId++);
+                product.setCreatedAt(now);
+            }
+            product.setUpdatedAt(now);
+            storeCopy(product, ANY_VERSION);
+        }
+        catalogVersion.incrementAndGet();
 
+        return products;
     }
 
     @Override
     public void deleteById(Long id){
-        productStorage.remove(id);
+        ProductChange[] applied = new ProductChange[1];
+        boolean committed = false;
+        try {
+            productStorage.computeIfPresent(id, (key, previous) -> {
+                IndexedFields indexed = indexedFields.get(key);
+                unindex(key);
+                applied[0] = change(ProductChange.Type.DELETED, key, null);
+                notifyListeners(applied[0], indexed);
+                return null;
+            });
+            committed = true;
+        } finally {
+            notifyAppliedListeners(applied[0], committed);
+        }
+        catalogVersion.incrementAndGet();
+    }
+
+    @Override
+    public Optional<Product> adjustStock(Long id, int delta) {
+        Optional<Product> adjusted = adjustStock(id, delta, LocalDateTime.now());
+        if (adjusted.isPresent() && delta != 0) {
+            catalogVersion.incrementAndGet();
+        }
+        return adjusted;
+    }
+
+    // One timestamp and a single catalog version bump for the whole batch
+    @Override
+    public List<StockAdjustment.Result> adjustStockAll(List<StockAdjustment> adjustments) {
+        LocalDateTime now = LocalDateTime.now();
+        List<StockAdjustment.Result> results = new ArrayList<>(adjustments.size());
+        try {
+            for (StockAdjustment adjustment : adjustments) {
+                Long id = adjustment.id();
+                try {
+                    results.add(adjustStock(id, adjustment.delta(), now)
+                            .map(product -> new StockAdjustment.Result(id, StockAdjustment.Outcome.APPLIED, product))
+                            .orElseGet(() -> new StockAdjustment.Result(id, StockAdjustment.Outcome.NOT_FOUND, null)));
+                } catch (InsufficientStockException e) {
+                    results.add(new StockAdjustment.Result(id, StockAdjustment.Outcome.INSUFFICIENT_STOCK, productStorage.get(id)));
+                } catch (StockOverflowException e) {
+                    results.add(new StockAdjustment.Result(id, StockAdjustment.Outcome.STOCK_OVERFLOW, productStorage.get(id)));
+                }
+            }
+        } finally {
+            // Also when something unexpected stops the batch: the adjustments before it are applied
+            catalogVersion.incrementAndGet();
+        }
+        return results;
+    }
+
+    // The new state is built and indexed under the lock of the id, only what depends on the quantity is reindexed
+    private Optional<Product> adjustStock(Long id, int delta, LocalDateTime now) {
+        ProductChange[] applied = new ProductChange[1];
+        boolean committed = false;
+        try {
+            Product adjusted = productStorage.computeIfPresent(id, (key, previous) -> {
+                if (delta == 0) {
+                    return previous;
+                }
+                int quantity = previous.getQuantityInStock();
+                long newQuantity = quantity + (long) delta;
+                if (newQuantity < 0) {
+                    throw new InsufficientStockException(key, quantity, delta);
+                }
+                if (newQuantity > Integer.MAX_VALUE) {
+                    throw new StockOverflowException(key, quantity, delta);
+                }
+                Product changed = new Product(previous);
+                changed.setQuantityInStock((int) newQuantity);
+                changed.setUpdatedAt(now);
+                changed.setVersion(previous.getVersion() + 1);
+                IndexedFields indexed = indexedFields.get(key);
+                reindex(key, changed);
+                applied[0] = change(ProductChange.Type.STOCK, key, changed);
+                notifyListeners(applied[0], indexed);
+                return changed;
+            });
+            committed = true;
+            return Optional.ofNullable(adjusted);
+        } finally {
+            notifyAppliedListeners(applied[0], committed);
+        }
+    }
+
+    // Puts a product back exactly as it was (id, timestamps and version included), used when loading a saved
+    // catalog. The product is stored as is, not copied. Listeners are told about it like about any other save.
+    public void restore(Product product) {
+        newId.accumulateAndGet(product.getId() + 1, Math::max);
+        store(product, ANY_VERSION, true);
+        catalogVersion.incrementAndGet();
+    }
+
+    /*
+     restore() for a whole saved catalog, into an empty repository. The indexes are built in bulk instead of
+     one product at a time: grouped per key, the sorted views filled in key order, and the independent
+     indexes built in parallel. Meant for startup, before anything listens: listeners are not told.
+    */
+    public void restoreAll(Collection<Product> products) {
+        if (!productStorage.isEmpty()) {
+            throw new IllegalStateException("restoreAll needs an empty repository");
+        }
+
+        Map<Long, Product> byId = new HashMap<>(products.size() * 4 / 3 + 1);
+        Map<Long, IndexedFields> fields = new HashMap<>(products.size() * 4 / 3 + 1);
+        long maxId = -1;
+        for (Product product : products) {
+            byId.put(product.getId(), product);
+            fields.put(product.getId(), IndexedFields.of(product));
+            maxId = Math.max(maxId, product.getId());
+        }
+
+        List<Runnable> builds = new ArrayList<>();
+        builds.add(() -> {
+            Map<Long, String> names = new HashMap<>(fields.size() * 4 / 3 + 1);
+            fields.forEach((id, indexed) -> names.put(id, indexed.nameKey()));
+            nameIndex.addAll(names);
+        });
+        builds.add(() -> {
+            Map<String, List<Long>> byCategory = new HashMap<>();
+            Map<Boolean, List<Long>> byAvailability = new HashMap<>();
+            fields.forEach((id, indexed) -> {
+                if (indexed.categoryKey() != null) {
+                    byCategory.computeIfAbsent(indexed.categoryKey(), key -> new ArrayList<>()).add(id);
+                }
+                if (indexed.available() != null) {
+                    byAvailability.computeIfAbsent(indexed.available(), key -> new ArrayList<>()).add(id);
+                }
+                addTotals(indexed);
+            });
+            addAllToIndex(categoryIndex, byCategory);
+            addAllToIndex(availabilityIndex, byAvailability);
+        });
+        for (ProductSortField field : ProductSortField.values()) {
+            builds.add(() -> {
+                List<SortPosition> positions = new ArrayList<>(fields.size());
+                fields.forEach((id, indexed) -> positions.add(new SortPosition(indexed.sortKeys()[field.ordinal()], id)));
+                sortedViews.get(field).addAll(positions);
+            });
+        }
+        builds.parallelStream().forEach(Runnable::run);
+
+        // ConcurrentHashMap.putAll sizes the table once
+        indexedFields.putAll(fields);
+        productStorage.putAll(byId);
+        newId.accumulateAndGet(maxId + 1, Math::max);
+        catalogVersion.incrementAndGet();
+    }
+
+    // The id the next new product gets. Saved with the catalog, so ids of deleted products are never handed out again.
+    public long getNextId() {
+        return newId.get();
+    }
+
+    public void reserveIdsBelow(long nextId) {
+        newId.accumulateAndGet(nextId, Math::max);
+    }
+
+    // Called under the lock of the product's id
+    public void addChangeListener(ProductChangeListener listener) {
+        listeners.add(listener);
+    }
+
+    // Called once the write is visible to readers, after the lock of the id is released
+    public void addAppliedChangeListener(ProductChangeListener listener) {
+        appliedListeners.add(listener);
+    }
+
+    // Sequence number of the newest change (0 before the first one); the changes up to it may still be on their
+    // way to the applied-listeners
+    public long getLastChangeSequence() {
+        return changeSequence.get();
+    }
+
+    // Readers get the stored copy, the caller keeps its own object (with the new version set)
+    private void storeCopy(Product product, long expectedVersion) {
+        Product copy = new Product(product);
+        store(copy, expectedVersion, false);
+        product.setVersion(copy.getVersion());
+    }
+
+    private void store(Product product, long expectedVersion, boolean keepVersion) {
+        ProductChange[] applied = new ProductChange[1];
+        boolean committed = false;
+        try {
+            productStorage.compute(product.getId(), (id, previous) -> {
+                // Checked under the lock of the id, so no other write can get in between
+                long currentVersion = previous == null ? 0 : previous.getVersion();
+                if (expectedVersion != ANY_VERSION && expectedVersion != currentVersion) {
+                    throw new ProductVersionConflictException(id, expectedVersion, currentVersion);
+                }
+                if (!keepVersion) {
+                    product.setVersion(currentVersion + 1);
+                }
+                IndexedFields indexed = indexedFields.get(id);
+                reindex(id, product);
+                applied[0] = change(previous == null ? ProductChange.Type.CREATED : ProductChange.Type.UPDATED, id, product);
+                notifyListeners(applied[0], indexed);
+                return product;
+            });
+            committed = true;
+        } finally {
+            notifyAppliedListeners(applied[0], committed);
+        }
+    }
+
+    // Only under the lock of the id, so the changes of one product are numbered in the order they are applied
+    private ProductChange change(ProductChange.Type type, Long id, Product product) {
+        return new ProductChange(changeSequence.incrementAndGet(), type, id, product);
+    }
+
+    /*
+     Called once the indexes have the write. If a listener throws, the write is called off: the indexes are put
+     back to what the id was indexed under before (indexed, null if it wasn't) and the exception ends the
+     compute, so the storage keeps the previous product.
+    */
+    private void notifyListeners(ProductChange change, IndexedFields indexed) {
+        try {
+            for (ProductChangeListener listener : listeners) {
+                listener.onChange(change);
+            }
+        } catch (RuntimeException | Error e) {
+            if (indexed == null) {
+                unindex(change.id());
+            } else {
+                reindex(change.id(), indexed);
+            }
+            throw e;
+        }
+    }
+
+    // A write that was numbered and then called off still reaches the applied-listeners, as ABORTED: an
+    // applied-listener may be waiting for every number (the write-ahead log does)
+    private void notifyAppliedListeners(ProductChange change, boolean committed) {
+        if (change == null) {
+            return;
+        }
+        ProductChange applied = committed ? change
+                : new ProductChange(change.sequence(), ProductChange.Type.ABORTED, change.id(), null);
+        for (ProductChangeListener listener : appliedListeners) {
+            listener.onChange(applied);
+        }
+    }
+
+    @Override
+    public long getCatalogVersion() {
+        return catalogVersion.get();
+    }
+
+    // The sorted views are left out, counting the keys of a skip list walks all of them
+    @Override
+    public Map<String, Integer> getIndexSizes() {
+        Map<String, Integer> sizes = new LinkedHashMap<>();
+        sizes.put("category", categoryIndex.size());
+        sizes.put("availability", availabilityIndex.values().stream().mapToInt(Set::size).sum());
+        sizes.put("name-trigram", nameIndex.size());
+        sizes.put("category-totals", categoryTotals.size());
+        return sizes;
+    }
+
+    @Override
+    public long count() {
+        return productStorage.size();
+    }
+
+    // ------------------- Indexed queries -------------------
+
+    @Override
+    public List<Product> findByNameContaining(String name) {
+        String query = nameKey(name);
+        if (query == null) {
+            return new ArrayList<>();
+        }
+
+        // Too short to have a trigram, go through the cached lower-cased names instead of lower-casing every product
+        if (query.length() < TrigramIndex.GRAM_LENGTH) {
+            List<Product> result = new ArrayList<>();
+            indexedFields.forEach((id, fields) -> {
+                if (fields.nameKey() != null && fields.nameKey().contains(query)) {
+                    Product product = productStorage.get(id);
+                    if (product != null && nameContains(product, query)) {
+                        result.add(product);
+                    }
+                }
+            });
+            return result;
+        }
+
+        return resolve(nameIndex.candidates(query), p -> nameContains(p, query));
+    }
+
+    @Override
+    public List<Product> findByCategory(String category) {
+        if (category == null) {
+            return new ArrayList<>();
+        }
+        return resolve(categoryIndex.get(categoryKey(category)),
+                p -> p.getCategory() != null && p.getCategory().equalsIgnoreCase(category));
+    }
+
+    @Override
+    public long countByCategory(String category) {
+        if (category == null) {
+            return 0;
+        }
+        return sizeOf(categoryIndex.get(categoryKey(category)));
+    }
+
+    @Override
+    public List<Product> findByAvailability(boolean inStock) {
+        return resolve(availabilityIndex.get(inStock),
+                p -> inStock ? p.getQuantityInStock() > 0 : p.getQuantityInStock() == 0);
+    }
+
+    @Override
+    public long countByAvailability(boolean inStock) {
+        return sizeOf(availabilityIndex.get(inStock));
+    }
+
+    @Override
+    public List<Product> findByExpirationDateBetween(LocalDate from, LocalDate to) {
+        return resolveInOrder(ProductSortField.EXPIRATION, sortedViews.get(ProductSortField.EXPIRATION).range(from, to))
+                .collect(Collectors.toList());
+    }
+
+    @Override
+    public Stream<Product> streamSorted(ProductSortField field, boolean descending, SortPosition after) {
+        return resolveInOrder(field, sortedViews.get(field).walk(descending, after));
+    }
+
+    // Copy of the running totals, O(number of categories)
+    @Override
+    public Map<String, CategoryTotals> getCategoryTotals() {
+        return new HashMap<>(categoryTotals);
+    }
+
+    @Override
+    public int countCategories() {
+        return categoryTotals.size();
+    }
+
+    // ------------------- Index maintenance -------------------
+
+    // Only touches the indexes whose key actually changed
+    private void reindex(Long id, Product product) {
+        reindex(id, IndexedFields.of(product));
+    }
+
+    private void reindex(Long id, IndexedFields current) {
+        IndexedFields previous = indexedFields.put(id, current);
+
+        if (previous == null) {
+            nameIndex.add(id, current.nameKey());
+            addToIndex(categoryIndex, current.categoryKey(), id);
+            addToIndex(availabilityIndex, current.available(), id);
+            for (ProductSortField field : ProductSortField.values()) {
+                sortedViews.get(field).add(current.sortKeys()[field.ordinal()], id);
+            }
+            addTotals(current);
+            return;
+        }
+
+        if (!Objects.equals(previous.nameKey(), current.nameKey())) {
+            nameIndex.remove(id, previous.nameKey());
+            nameIndex.add(id, current.nameKey());
+        }
+        if (!Objects.equals(previous.categoryKey(), current.categoryKey())) {
+            removeFromIndex(categoryIndex, previous.categoryKey(), id);
+            addToIndex(categoryIndex, current.categoryKey(), id);
+        }
+        if (!Objects.equals(previous.available(), current.available())) {
+            removeFromIndex(availabilityIndex, previous.available(), id);
+            addToIndex(availabilityIndex, current.available(), id);
+        }
+        for (ProductSortField field : ProductSortField.values()) {
+            Object oldKey = previous.sortKeys()[field.ordinal()];
+            Object newKey = current.sortKeys()[field.ordinal()];
+            if (!Objects.equals(oldKey, newKey)) {
+                sortedViews.get(field).remove(oldKey, id);
+                sortedViews.get(field).add(newKey, id);
+            }
+        }
+        removeTotals(previous);
+        addTotals(current);
+    }
+
+    private void unindex(Long id) {
+        IndexedFields previous = indexedFields.remove(id);
+        if (previous == null) {
+            return;
+        }
+        nameIndex.remove(id, previous.nameKey());
+        removeTotals(previous);
+        removeFromIndex(categoryIndex, previous.categoryKey(), id);
+        removeFromIndex(availabilityIndex, previous.available(), id);
+        for (ProductSortField field : ProductSortField.values()) {
+            sortedViews.get(field).remove(previous.sortKeys()[field.ordinal()], id);
+        }
+    }
+
+    private static <K> void addToIndex(Map<K, Set<Long>> index, K key, Long id) {
+        if (key == null) {
+            return;
+        }
+        index.compute(key, (k, ids) -> {
+            if (ids == null) {
+                ids = ConcurrentHashMap.newKeySet();
+            }
+            ids.add(id);
+            return ids;
+        });
+    }
+
+    private static <K> void addAllToIndex(Map<K, Set<Long>> index, Map<K, List<Long>> grouped) {
+        grouped.forEach((key, ids) -> index.compute(key, (k, existing) -> {
+            Set<Long> set = existing != null ? existing : ConcurrentHashMap.newKeySet(ids.size());
+            set.addAll(ids);
+            return set;
+        }));
+    }
+
+    private static <K> void removeFromIndex(Map<K, Set<Long>> index, K key, Long id) {
+        if (key == null) {
+            return;
+        }
+        index.computeIfPresent(key, (k, ids) -> {
+            ids.remove(id);
+            return ids.isEmpty() ? null : ids;
+        });
+    }
+
+    private void addTotals(IndexedFields fields) {
+        if (fields.totals() != null) {
+            categoryTotals.merge(fields.category(), fields.totals(), CategoryTotals::plus);
+        }
+    }
+
+    private void removeTotals(IndexedFields fields) {
+        if (fields.totals() != null) {
+            categoryTotals.computeIfPresent(fields.category(), (category, totals) -> {
+                CategoryTotals remaining = totals.minus(fields.totals());
+                return remaining.isEmpty() ? null : remaining;
+            });
+        }
+    }
+
+    // Looks the ids up and checks the condition again, a product can change between reading the index and reading the product
+    private List<Product> resolve(Collection<Long> ids, Predicate<Product> condition) {
+        if (ids == null) {
+            return new ArrayList<>();
+        }
+        List<Product> result = new ArrayList<>(ids.size());
+        for (Long id : ids) {
+            Product product = productStorage.get(id);
+            if (product != null && condition.test(product)) {
+                result.add(product);
+            }
+        }
+        return result;
+    }
+
+    // Same as resolve but keeps the order of the view. Products whose key changed after the view was read
+    // are skipped here, they show up at their new position instead.
+    private Stream<Product> resolveInOrder(ProductSortField field, Stream<SortPosition> positions) {
+        return positions
+                .map(position -> {
+                    Product product = productStorage.get(position.id());
+                    return product != null && Objects.equals(field.keyOf(product), position.key()) ? product : null;
+                })
+                .filter(Objects::nonNull);
+    }
+
+    private static boolean nameContains(Product product, String query) {
+        return product.getNormalizedName() != null && product.getNormalizedName().contains(query);
+    }
+
+    private static long sizeOf(Set<Long> ids) {
+        return ids == null ? 0 : ids.size();
+    }
+
+    // Same lower-casing Product uses for its normalized name, so contains() gives the same answer as before
+    static String nameKey(String name) {
+        return name == null ? null : name.toLowerCase();
+    }
+
+    // Folds every code point the same way String.equalsIgnoreCase compares them,
+    // so two categories get the same key exactly when equalsIgnoreCase says they are equal
+    static String categoryKey(String category) {
+        if (category == null) {
+            return null;
+        }
+        StringBuilder key = new StringBuilder(category.length());
+        category.codePoints()
+                .map(cp -> Character.toLowerCase(Character.toUpperCase(cp)))
+                .forEach(key::appendCodePoint);
+        return key.toString();
     }
 
 }
@@ -0,0 +1,21 @@
+package com.kristian.inventory.repository;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+// A stock adjustment that would take the quantity below 0, nothing was changed
+@ResponseStatus(HttpStatus.CONFLICT)
+public class InsufficientStockException extends RuntimeException {
+
+    private final int quantityInStock;
+
+    public InsufficientStockException(Long id, int quantityInStock, int delta) {
+        super("Product " + id + " has " + quantityInStock + " in stock, cannot change it by " + delta);
+        this.quantityInStock = quantityInStock;
+    }
+
+    public int getQuantityInStock() {
+        return quantityInStock;
+    }
+
+}
@@ -0,0 +1,131 @@
+package com.kristian.inventory.repository;
+
+import com.kristian.inventory.config.InventoryProperties;
+
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.BinaryOperator;
+import java.util.function.IntPredicate;
+import java.util.function.ObjIntConsumer;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/*
+ Runs a scan over the positions 0..size-1, split over the common fork-join pool once size reaches the
+ configured threshold (inventory.parallel.*), sequentially otherwise.
+
+ Every task fills its own accumulator and the results are merged left to right, so a parallel scan
+ sees the positions in the same order as the sequential one: filtered lists keep their order and
+ merges only have to be associative (BigDecimal sums are exact, so totals come out identical).
+*/
+public final class ParallelScan {
+
+    public static final ParallelScan SEQUENTIAL = new ParallelScan(false, Integer.MAX_VALUE);
+
+    // Smaller chunks cost more in task overhead than they win
+    private static final int MIN_CHUNK = 8192;
+
+    private final boolean enabled;
+    private final int threshold;
+
+    private ParallelScan(boolean enabled, int threshold) {
+        this.enabled = enabled;
+        this.threshold = threshold;
+    }
+
+    public static ParallelScan of(InventoryProperties.Parallel settings) {
+        return settings.isEnabled() ? new ParallelScan(true, settings.getThreshold()) : SEQUENTIAL;
+    }
+
+    public boolean isParallel(int size) {
+        return enabled && size >= threshold;
+    }
+
+    public <A> A reduce(int size, Supplier<A> newAccumulator, ObjIntConsumer<A> add, BinaryOperator<A> merge) {
+        if (!isParallel(size)) {
+            A accumulator = newAccumulator.get();
+            for (int i = 0; i < size; i++) {
+                add.accept(accumulator, i);
+            }
+            return accumulator;
+        }
+        // A few chunks per worker so a slow one does not hold up the whole scan
+        int chunk = Math.max(MIN_CHUNK, size / (ForkJoinPool.getCommonPoolParallelism() * 4));
+        return ForkJoinPool.commonPool().invoke(new Scan<>(0, size, chunk, newAccumulator, add, merge));
+    }
+
+    // The items matching the predicate, in their original order (unmodifiable)
+    public <T> List<T> filter(List<T> items, Predicate<? super T> predicate) {
+        List<T> matches = reduce(items.size(), ArrayList::new, (list, i) -> {
+            T item = items.get(i);
+            if (predicate.test(item)) {
+                list.add(item);
+            }
+        }, (left, right) -> {
+            left.addAll(right);
+            return left;
+        });
+        return Collections.unmodifiableList(matches);
+    }
+
+    public long count(int size, IntPredicate predicate) {
+        return reduce(size, () -> new long[1], (count, i) -> {
+            if (predicate.test(i)) {
+                count[0]++;
+            }
+        }, (left, right) -> {
+            left[0] += right[0];
+            return left;
+        })[0];
+    }
+
+    // A sorted copy. Arrays.parallelSort is a stable merge sort, same result as List.sort.
+    public <T> List<T> sorted(Collection<T> items, Comparator<? super T> comparator) {
+        if (!isParallel(items.size())) {
+            List<T> sorted = new ArrayList<>(items);
+            sorted.sort(comparator);
+            return sorted;
+        }
+        @SuppressWarnings("unchecked")
+        T[] array = (T[]) items.toArray();
+        Arrays.parallelSort(array, comparator);
+        return new ArrayList<>(Arrays.asList(array));
+    }
+
+    private static final class Scan<A> extends RecursiveTask<A> {
+        private final int from;
+        private final int to;
+        private final int chunk;
+        private final Supplier<A> newAccumulator;
+        private final ObjIntConsumer<A> add;
+        private final BinaryOperator<A> merge;
+
+        Scan(int from, int to, int chunk, Supplier<A> newAccumulator, ObjIntConsumer<A> add, BinaryOperator<A> merge) {
+            this.from = from;
+            this.to = to;
+            this.chunk = chunk;
+            this.newAccumulator = newAccumulator;
+            this.add = add;
+            this.merge = merge;
+        }
+
+        @Override
+        protected A compute() {
+            if (to - from <= chunk) {
+                A accumulator = newAccumulator.get();
+                for (int i = from; i < to; i++) {
+                    add.accept(accumulator, i);
+                }
+                return accumulator;
+            }
+            int middle = (from + to) >>> 1;
+            Scan<A> left = new Scan<>(from, middle, chunk, newAccumulator, add, merge);
+            Scan<A> right = new Scan<>(middle, to, chunk, newAccumulator, add, merge);
+            right.fork();
+            A leftResult = left.compute();
+            return merge.apply(leftResult, right.join());
+        }
+    }
+
+}
@@ -0,0 +1,19 @@
+package com.kristian.inventory.repository;
+
+import com.kristian.inventory.model.Product;
+
+// One applied write. product is the stored instance after the write, null for deletes. sequence numbers the
+// writes of the repository in the order they were applied (increasing for the writes of one product).
+public record ProductChange(long sequence, Type type, Long id, Product product) {
+
+    public enum Type {
+        CREATED,
+        UPDATED,
+        // An update through adjustStock: only the quantity (and updatedAt, version) changed
+        STOCK,
+        DELETED,
+        // Only for applied-listeners: the write got its number but an in-lock listener threw, nothing changed
+        ABORTED
+    }
+
+}
@@ -0,0 +1,19 @@
+package com.kristian.inventory.repository;
+
+/*
+ Gets every write of InMemoryProductRepository.
+
+ Added with addChangeListener it is called while the repository still holds the lock of the product's id,
+ so the changes of one product arrive in the order they were applied. Keep it short and don't block: hand
+ slow work to another thread. Added with addAppliedChangeListener it is called once the write can be read,
+ outside the lock: changes can then arrive out of order, ProductChange.sequence() has the order. It must
+ not throw, the write has already been applied. An in-lock listener that throws calls the write off (the
+ caller gets the exception); the applied-listeners still get its number, as ProductChange.Type.ABORTED.
+ The product may be kept: every write stores a new copy, the one passed here is not changed afterwards.
+*/
+@FunctionalInterface
+public interface ProductChangeListener {
+
+    void onChange(ProductChange change);
+
+}
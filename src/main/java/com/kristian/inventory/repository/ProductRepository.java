@@ -2,17 +2,156 @@ package com.kristian.inventory.repository;
 
 import com.kristian.inventory.model.Product;
 
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
+/*
+ save keeps a copy of the product, changing the object afterwards does not change the catalog. Products returned
+ by the queries may be shared with other readers: change a copy (new Product(product)) and save that.
+*/
 public interface ProductRepository {
 
     List<Product> findAll();
 
     Optional<Product> findById(Long id);
 
+    /*
+     Every product once, read while the stream is consumed instead of copied into a list first, so a full
+     export needs the same memory for any catalog size. Weakly consistent: a product saved or deleted during
+     the walk may or may not show up, but none is returned twice. Close the stream when done.
+    */
+    default Stream<Product> streamAll() {
+        return findAll().stream();
+    }
+
     Product save(Product product);
 
+    /*
+     Saves the product only if the stored one is still at expectedVersion (0: no product with this id yet),
+     checked and written atomically. Otherwise throws ProductVersionConflictException and changes nothing.
+     The id must be set; createdAt is taken as given.
+    */
+    Product compareAndSave(Product product, long expectedVersion);
+
     void deleteById(Long id);
 
-}
\ No newline at end of file
+    /*
+     Adds delta to the stock in one atomic step, so concurrent adjustments are never lost. Counts as a save
+     (new version and updatedAt, indexes and totals follow) but only the quantity changes. Empty if there is no
+     such product; InsufficientStockException, and no change, if the stock would go below 0, StockOverflowException
+     if it would go past Integer.MAX_VALUE.
+    */
+    Optional<Product> adjustStock(Long id, int delta);
+
+    // Applies the adjustments in order, each on its own: one that fails does not undo or stop the others
+    default List<StockAdjustment.Result> adjustStockAll(List<StockAdjustment> adjustments) {
+        List<StockAdjustment.Result> results = new ArrayList<>(adjustments.size());
+        for (StockAdjustment adjustment : adjustments) {
+            Long id = adjustment.id();
+            try {
+                results.add(adjustStock(id, adjustment.delta())
+                        .map(product -> new StockAdjustment.Result(id, StockAdjustment.Outcome.APPLIED, product))
+                        .orElseGet(() -> new StockAdjustment.Result(id, StockAdjustment.Outcome.NOT_FOUND, null)));
+            } catch (InsufficientStockException e) {
+                results.add(new StockAdjustment.Result(id, StockAdjustment.Outcome.INSUFFICIENT_STOCK, findById(id).orElse(null)));
+            } catch (StockOverflowException e) {
+                results.add(new StockAdjustment.Result(id, StockAdjustment.Outcome.STOCK_OVERFLOW, findById(id).orElse(null)));
+            }
+        }
+        return results;
+    }
+
+    // Same as calling save for each product, implementations can do it cheaper for a whole batch
+    default List<Product> saveAll(List<Product> products) {
+        return products.stream().map(this::save).collect(Collectors.toList());
+    }
+
+    // Goes up after every change is applied, equal versions mean nothing changed in between
+    long getCatalogVersion();
+
+    default long count() {
+        return findAll().size();
+    }
+
+    // Entries of each index by index name, for monitoring; cheap enough to be read on every metrics scrape
+    default Map<String, Integer> getIndexSizes() {
+        return Map.of();
+    }
+
+    // Queries
+    // The default versions just scan findAll(), implementations with indexes should override them.
+
+    // Case-insensitive substring match on the name
+    default List<Product> findByNameContaining(String name) {
+        return findAll().stream()
+                .filter(p -> p.getNormalizedName() != null && p.getNormalizedName().contains(name.toLowerCase()))
+                .collect(Collectors.toList());
+    }
+
+    // Case-insensitive, same as String.equalsIgnoreCase
+    default List<Product> findByCategory(String category) {
+        return findAll().stream()
+                .filter(p -> p.getCategory() != null && p.getCategory().equalsIgnoreCase(category))
+                .collect(Collectors.toList());
+    }
+
+    default long countByCategory(String category) {
+        return findByCategory(category).size();
+    }
+
+    // true -> quantity > 0, false -> quantity == 0
+    default List<Product> findByAvailability(boolean inStock) {
+        return findAll().stream()
+                .filter(p -> inStock ? p.getQuantityInStock() > 0 : p.getQuantityInStock() == 0)
+                .collect(Collectors.toList());
+    }
+
+    default long countByAvailability(boolean inStock) {
+        return findByAvailability(inStock).size();
+    }
+
+    // Both bounds are inclusive, a null bound means open ended. Products without expiration date are never returned.
+    default List<Product> findByExpirationDateBetween(LocalDate from, LocalDate to) {
+        return findAll().stream()
+                .filter(p -> p.getExpirationDate() != null)
+                .filter(p -> from == null || !p.getExpirationDate().isBefore(from))
+                .filter(p -> to == null || !p.getExpirationDate().isAfter(to))
+                .collect(Collectors.toList());
+    }
+
+    // Products in the order of one sort field, ties by id ascending, starting right after `after` (null = from the start).
+    // Descending only reverses the field, ties are still by ascending id, like the listing endpoint sorts them.
+    default Stream<Product> streamSorted(ProductSortField field, boolean descending, SortPosition after) {
+        Comparator<Object> keys = descending ? field.keyOrder().reversed() : field.keyOrder();
+        Stream<Product> sorted = findAll().stream()
+                .sorted(Comparator.comparing(field::keyOf, keys).thenComparing(Product::getId));
+        if (after == null) {
+            return sorted;
+        }
+        return sorted.filter(p -> {
+            int result = keys.compare(field.keyOf(p), after.key());
+            return result > 0 || (result == 0 && p.getId() > after.id());
+        });
+    }
+
+    // Number of entries getCategoryTotals() would have; implementations keep it up to date on writes, so it
+    // can be read on every metrics scrape
+    default int countCategories() {
+        return getCategoryTotals().size();
+    }
+
+    // Inventory totals grouped by the exact category name, products without category or price are left out
+    default Map<String, CategoryTotals> getCategoryTotals() {
+        return findAll().stream()
+                .filter(p -> p.getCategory() != null && p.getUnitPrice() != null)
+                .collect(Collectors.groupingBy(Product::getCategory,
+                        Collectors.collectingAndThen(Collectors.toList(), CategoryTotals::sum)));
+    }
+
+}
@@ -0,0 +1,105 @@
+package com.kristian.inventory.repository;
+
+import com.kristian.inventory.model.Product;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.Comparator;
+import java.util.function.Function;
+
+/*
+ The fields a product list can be sorted by.
+
+ comparator() is the ordering the listing endpoint has always used. keyOf() gives the value the
+ repository keeps its sorted views on: ordering the keys with keyOrder() and breaking ties by id
+ gives the same order as comparator().thenComparing(Product::getId).
+*/
+public enum ProductSortField {
+
+    // Lower-cased name/category, precomputed on the product
+    NAME(Product::getNormalizedName, Function.identity()) {
+        @Override
+        public Comparator<Product> comparator() {
+            return Comparator.comparing(Product::getNormalizedName);
+        }
+    },
+    CATEGORY(Product::getNormalizedCategory, Function.identity()) {
+        @Override
+        public Comparator<Product> comparator() {
+            return Comparator.comparing(Product::getNormalizedCategory);
+        }
+    },
+    // 1.0 and 1.00 compare as equal, stripping the zeros makes them the same key for equals/hashCode too
+    PRICE(p -> p.getUnitPrice() == null ? null : p.getUnitPrice().stripTrailingZeros(), BigDecimal::new) {
+        @Override
+        public Comparator<Product> comparator() {
+            return Comparator.comparing(Product::getUnitPrice);
+        }
+    },
+    STOCK(Product::getQuantityInStock, Integer::valueOf) {
+        @Override
+        public Comparator<Product> comparator() {
+            return Comparator.comparing(Product::getQuantityInStock);
+        }
+    },
+    EXPIRATION(Product::getExpirationDate, LocalDate::parse) {
+        @Override
+        public Comparator<Product> comparator() {
+            return Comparator.comparing(
+                    Product::getExpirationDate,
+                    Comparator.nullsLast(Comparator.naturalOrder())
+            );
+        }
+    },
+    AVAILABILITY(p -> p.getQuantityInStock() > 0 ? 1 : 0, Integer::valueOf) {
+        @Override
+        public Comparator<Product> comparator() {
+            return Comparator.comparingInt(p -> p.getQuantityInStock() > 0 ? 1 : 0);
+        }
+    },
+    ID(Product::getId, Long::valueOf) {
+        @Override
+        public Comparator<Product> comparator() {
+            return Comparator.comparing(Product::getId);
+        }
+    };
+
+    private final Function<Product, ? extends Comparable<?>> key;
+    private final Function<String, ? extends Comparable<?>> parser;
+
+    ProductSortField(Function<Product, ? extends Comparable<?>> key, Function<String, ? extends Comparable<?>> parser) {
+        this.key = key;
+        this.parser = parser;
+    }
+
+    // Same names getComparator always accepted, anything unknown sorts by id
+    public static ProductSortField from(String field) {
+        return switch (field.toLowerCase()) {
+            case "name" -> NAME;
+            case "category" -> CATEGORY;
+            case "price" -> PRICE;
+            case "stock" -> STOCK;
+            case "expiration" -> EXPIRATION;
+            case "availability" -> AVAILABILITY;
+            default -> ID;
+        };
+    }
+
+    public abstract Comparator<Product> comparator();
+
+    public Object keyOf(Product product) {
+        return key.apply(product);
+    }
+
+    // Keys in ascending order, missing values last (only expiration dates are really optional)
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public Comparator<Object> keyOrder() {
+        return Comparator.nullsLast((a, b) -> ((Comparable) a).compareTo(b));
+    }
+
+    // For cursors: keys are written with toString() and read back with the field's parser
+    public Object parseKey(String value) {
+        return value == null ? null : parser.apply(value);
+    }
+
+}
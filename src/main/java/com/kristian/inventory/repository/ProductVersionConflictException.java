@@ -0,0 +1,27 @@
+package com.kristian.inventory.repository;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+// compareAndSave found another version than the caller read (0 if the product was deleted meanwhile)
+@ResponseStatus(HttpStatus.CONFLICT)
+public class ProductVersionConflictException extends RuntimeException {
+
+    private final long expectedVersion;
+    private final long actualVersion;
+
+    public ProductVersionConflictException(Long id, long expectedVersion, long actualVersion) {
+        super("Product " + id + " is at version " + actualVersion + ", expected " + expectedVersion);
+        this.expectedVersion = expectedVersion;
+        this.actualVersion = actualVersion;
+    }
+
+    public long getExpectedVersion() {
+        return expectedVersion;
+    }
+
+    public long getActualVersion() {
+        return actualVersion;
+    }
+
+}
@@ -0,0 +1,5 @@
+package com.kristian.inventory.repository;
+
+// A place in a sorted product list: the sort key of a product and its id (the tie-break)
+public record SortPosition(Object key, Long id) {
+}
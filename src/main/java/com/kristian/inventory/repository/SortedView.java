@@ -0,0 +1,139 @@
+package com.kristian.inventory.repository;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.stream.Stream;
+
+/*
+ Product ids kept in the order of one sort field: key -> ids with that key (ascending).
+ Products without a key (no expiration date) live in their own bucket that sorts last.
+
+ Reads walk the skip lists without locking. ConcurrentSkipListMap.compute is not atomic, so adding
+ to and removing (empty) buckets is guarded by a lock picked from the key's hash. Writers only wait
+ for each other when they touch the same stripe.
+*/
+class SortedView {
+
+    private static final int STRIPES = 64;
+
+    private final ConcurrentSkipListMap<Object, NavigableSet<Long>> buckets;
+    private final NavigableSet<Long> missingKey = new ConcurrentSkipListSet<>();
+    private final Object[] locks = new Object[STRIPES];
+
+    SortedView(ProductSortField field) {
+        this.buckets = new ConcurrentSkipListMap<>(field.keyOrder());
+        for (int i = 0; i < STRIPES; i++) {
+            locks[i] = new Object();
+        }
+    }
+
+    void add(Object key, Long id) {
+        if (key == null) {
+            missingKey.add(id);
+            return;
+        }
+        synchronized (lockFor(key)) {
+            buckets.computeIfAbsent(key, k -> new ConcurrentSkipListSet<>()).add(id);
+        }
+    }
+
+    /*
+     Bulk add for an empty view (loading a saved catalog). The positions are sorted first and go in in
+     order: appending to the skip lists touches the nodes that were just written, random inserts miss
+     the cache on almost every level.
+    */
+    void addAll(List<SortPosition> positions) {
+        Comparator<Object> keyOrder = buckets.comparator();
+        List<SortPosition> sorted = new ArrayList<>(positions);
+        sorted.sort(Comparator.comparing(SortPosition::key, keyOrder).thenComparing(SortPosition::id));
+
+        int i = 0;
+        while (i < sorted.size() && sorted.get(i).key() != null) {
+            Object key = sorted.get(i).key();
+            NavigableSet<Long> ids = new ConcurrentSkipListSet<>();
+            while (i < sorted.size() && sorted.get(i).key() != null && keyOrder.compare(sorted.get(i).key(), key) == 0) {
+                ids.add(sorted.get(i++).id());
+            }
+            synchronized (lockFor(key)) {
+                buckets.merge(key, ids, (existing, added) -> {
+                    existing.addAll(added);
+                    return existing;
+                });
+            }
+        }
+        // nullsLast: the rest has no key
+        for (; i < sorted.size(); i++) {
+            missingKey.add(sorted.get(i).id());
+        }
+    }
+
+    void remove(Object key, Long id) {
+        if (key == null) {
+            missingKey.remove(id);
+            return;
+        }
+        synchronized (lockFor(key)) {
+            NavigableSet<Long> ids = buckets.get(key);
+            if (ids != null && ids.remove(id) && ids.isEmpty()) {
+                buckets.remove(key);
+            }
+        }
+    }
+
+    // Everything with from <= key <= to (null bounds are open), products without key are not included
+    Stream<SortPosition> range(Object from, Object to) {
+        NavigableMap<Object, NavigableSet<Long>> range = buckets;
+        if (from != null) {
+            range = range.tailMap(from, true);
+        }
+        if (to != null) {
+            range = range.headMap(to, true);
+        }
+        return entries(range);
+    }
+
+    // Positions in sort order, starting right after `after` (or from the beginning when it is null).
+    // Ascending puts the products without key last, descending (reversed) puts them first.
+    Stream<SortPosition> walk(boolean descending, SortPosition after) {
+        NavigableMap<Object, NavigableSet<Long>> keyed = descending ? buckets.descendingMap() : buckets;
+
+        Stream<SortPosition> withKey;
+        Stream<SortPosition> withoutKey;
+
+        if (after == null) {
+            withKey = entries(keyed);
+            withoutKey = bucket(null, missingKey);
+        } else if (after.key() == null) {
+            // Inside the bucket of products without key
+            withKey = descending ? entries(keyed) : Stream.empty();
+            withoutKey = bucket(null, missingKey.tailSet(after.id(), false));
+        } else {
+            NavigableSet<Long> current = buckets.get(after.key());
+            Stream<SortPosition> restOfBucket = current == null
+                    ? Stream.empty()
+                    : bucket(after.key(), current.tailSet(after.id(), false));
+            withKey = Stream.concat(restOfBucket, entries(keyed.tailMap(after.key(), false)));
+            withoutKey = descending ? Stream.empty() : bucket(null, missingKey);
+        }
+
+        return descending ? Stream.concat(withoutKey, withKey) : Stream.concat(withKey, withoutKey);
+    }
+
+    int keyCount() {
+        return buckets.size() + (missingKey.isEmpty() ? 0 : 1);
+    }
+
+    private static Stream<SortPosition> entries(NavigableMap<Object, NavigableSet<Long>> map) {
+        return map.entrySet().stream().flatMap(entry -> bucket(entry.getKey(), entry.getValue()));
+    }
+
+    private static Stream<SortPosition> bucket(Object key, Set<Long> ids) {
+        return ids.stream().map(id -> new SortPosition(key, id));
+    }
+
+    private Object lockFor(Object key) {
+        return locks[(key.hashCode() & 0x7fffffff) % STRIPES];
+    }
+
+}
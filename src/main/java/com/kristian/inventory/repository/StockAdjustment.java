@@ -0,0 +1,19 @@
+package com.kristian.inventory.repository;
+
+import com.kristian.inventory.model.Product;
+
+// Add delta (negative to take out) to the stock of a product
+public record StockAdjustment(Long id, int delta) {
+
+    public enum Outcome {
+        APPLIED,
+        NOT_FOUND,
+        INSUFFICIENT_STOCK,
+        STOCK_OVERFLOW
+    }
+
+    // product is the adjusted product, or the unchanged one for INSUFFICIENT_STOCK and STOCK_OVERFLOW, null for NOT_FOUND
+    public record Result(Long id, Outcome outcome, Product product) {
+    }
+
+}
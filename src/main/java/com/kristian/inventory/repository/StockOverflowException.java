@@ -0,0 +1,14 @@
+package com.kristian.inventory.repository;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+// A stock adjustment that would take the quantity past Integer.MAX_VALUE, nothing was changed
+@ResponseStatus(HttpStatus.CONFLICT)
+public class StockOverflowException extends RuntimeException {
+
+    public StockOverflowException(Long id, int quantityInStock, int delta) {
+        super("Product " + id + " has " + quantityInStock + " in stock, adding " + delta + " would overflow it");
+    }
+
+}
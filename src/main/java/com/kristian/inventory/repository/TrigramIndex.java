@@ -0,0 +1,106 @@
+package com.kristian.inventory.repository;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+ Inverted index from every 3 character window of a (lower-cased) name to the ids that contain it.
+
+ A name can only contain the query if it contains every trigram of the query, so the candidates are
+ the intersection of the query's posting sets. Callers still have to check the real name, this only
+ narrows down which products are worth looking at.
+*/
+class TrigramIndex {
+
+    static final int GRAM_LENGTH = 3;
+
+    private final Map<String, Set<Long>> postings = new ConcurrentHashMap<>();
+
+    // A posting set with its size read once: writers change the sets while the query sorts them, and a
+    // comparator whose answers change can make the sort throw
+    private record Posting(Set<Long> ids, int size) {
+    }
+
+    void add(Long id, String key) {
+        for (String gram : grams(key)) {
+            postings.compute(gram, (g, ids) -> {
+                if (ids == null) {
+                    ids = ConcurrentHashMap.newKeySet();
+                }
+                ids.add(id);
+                return ids;
+            });
+        }
+    }
+
+    // Bulk add (loading a saved catalog): every posting set is created once at its final size
+    void addAll(Map<Long, String> keys) {
+        Map<String, List<Long>> grouped = new HashMap<>();
+        keys.forEach((id, key) -> {
+            for (String gram : grams(key)) {
+                grouped.computeIfAbsent(gram, g -> new ArrayList<>()).add(id);
+            }
+        });
+        grouped.forEach((gram, ids) -> postings.compute(gram, (g, existing) -> {
+            Set<Long> set = existing != null ? existing : ConcurrentHashMap.newKeySet(ids.size());
+            set.addAll(ids);
+            return set;
+        }));
+    }
+
+    void remove(Long id, String key) {
+        for (String gram : grams(key)) {
+            postings.computeIfPresent(gram, (g, ids) -> {
+                ids.remove(id);
+                return ids.isEmpty() ? null : ids;
+            });
+        }
+    }
+
+    // Only valid for queries of at least GRAM_LENGTH characters
+    Collection<Long> candidates(String query) {
+        List<Posting> sets = new ArrayList<>();
+        for (String gram : grams(query)) {
+            Set<Long> ids = postings.get(gram);
+            if (ids == null) {
+                return List.of();
+            }
+            sets.add(new Posting(ids, ids.size()));
+        }
+        sets.sort(Comparator.comparingInt(Posting::size));
+
+        // Walk the smallest set and keep what the other ones also have
+        Set<Long> smallest = sets.get(0).ids();
+        List<Posting> others = sets.subList(1, sets.size());
+        List<Long> result = new ArrayList<>(smallest.size());
+        for (Long id : smallest) {
+            boolean inAll = true;
+            for (Posting other : others) {
+                if (!other.ids().contains(id)) {
+                    inAll = false;
+                    break;
+                }
+            }
+            if (inAll) {
+                result.add(id);
+            }
+        }
+        return result;
+    }
+
+    int size() {
+        return postings.size();
+    }
+
+    private static Set<String> grams(String key) {
+        if (key == null || key.length() < GRAM_LENGTH) {
+            return Set.of();
+        }
+        Set<String> grams = new HashSet<>();
+        for (int i = 0; i + GRAM_LENGTH <= key.length(); i++) {
+            grams.add(key.substring(i, i + GRAM_LENGTH));
+        }
+        return grams;
+    }
+
+}
@@ -0,0 +1,819 @@
+package com.kristian.inventory.repository.columnar;
+
+import com.kristian.inventory.config.InventoryProperties;
+import com.kristian.inventory.model.Product;
+import com.kristian.inventory.repository.CategoryTotals;
+import com.kristian.inventory.repository.InsufficientStockException;
+import com.kristian.inventory.repository.ParallelScan;
+import com.kristian.inventory.repository.ProductRepository;
+import com.kristian.inventory.repository.ProductSortField;
+import com.kristian.inventory.repository.StockOverflowException;
+import com.kristian.inventory.repository.ProductVersionConflictException;
+import com.kristian.inventory.repository.SortPosition;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Repository;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.IntPredicate;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/*
+ Catalog stored column by column in primitive arrays (inventory.storage.backend=columnar), for
+ catalogs too big to keep one Product object (plus its BigDecimal and date objects) per row.
+
+ Every product is a row number; each field is an array indexed by row:
+ - price: unscaled long + scale byte (prices that don't fit are kept aside in widePrices)
+ - quantity: int
+ - category: int code into a dictionary of the distinct category names
+ - expiration date: epoch day; created/updated: epoch nanoseconds (UTC), so timestamps come back exactly
+ - name: the String and its lower-cased form for the substring search
+ Deleted rows go to a free list and are reused.
+
+ Product objects are only created for the rows a query returns. Availability, category, expiration
+ and the inventory metrics are answered by scanning the arrays. Returned products are copies: changing
+ one does nothing until it is saved.
+
+ One read-write lock guards all columns; writes are short (one row), scans run under the read lock.
+*/
+@Repository
+@ConditionalOnProperty(prefix = "inventory.storage", name = "backend", havingValue = "columnar")
+public class ColumnarProductRepository implements ProductRepository {
+
+    private static final long NONE = Long.MIN_VALUE;
+    private static final byte WIDE_PRICE = Byte.MIN_VALUE;
+    private static final int NO_CATEGORY = -1;
+    private static final int STREAM_CHUNK = 1024;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final AtomicLong newId = new AtomicLong(1000L);
+    private final AtomicLong catalogVersion = new AtomicLong();
+
+    // Columns, guarded by lock
+    private int rows;
+    private int liveCount;
+    private boolean[] live = new boolean[0];
+    private long[] ids = new long[0];
+    private String[] names = new String[0];
+    private String[] nameKeys = new String[0];
+    private int[] categories = new int[0];
+    private long[] priceUnscaled = new long[0];
+    private byte[] priceScales = new byte[0];
+    private int[] quantities = new int[0];
+    private long[] expirations = new long[0];
+    private long[] createdAt = new long[0];
+    private long[] updatedAt = new long[0];
+    private long[] versions = new long[0];
+    private final Map<Integer, BigDecimal> widePrices = new HashMap<>();
+
+    private final LongIntHashMap rowById = new LongIntHashMap();
+    private int[] freeRows = new int[0];
+    private int freeCount;
+
+    // Category dictionary, codes are never reused
+    private final List<String> categoryNames = new ArrayList<>();
+    private final List<String> categoryLowerCase = new ArrayList<>();
+    private final Map<String, Integer> categoryCodes = new HashMap<>();
+    // Live products with a price per category code, and the codes where that is not 0 (countCategories)
+    private int[] pricedByCategory = new int[0];
+    private int pricedCategories;
+
+    // Last sorted order per field and direction, valid while the catalog version does not change
+    private final Map<ProductSortField, SortedRows> ascending = Collections.synchronizedMap(new EnumMap<>(ProductSortField.class));
+    private final Map<ProductSortField, SortedRows> descending = Collections.synchronizedMap(new EnumMap<>(ProductSortField.class));
+
+    private record SortedRows(long version, long[] ids, Object[] keys) {
+    }
+
+    // inventory.parallel.*: scans over many rows are split over the fork-join pool
+    private final ParallelScan scan;
+
+    public ColumnarProductRepository() {
+        this(ParallelScan.SEQUENTIAL);
+    }
+
+    @Autowired
+    public ColumnarProductRepository(InventoryProperties properties) {
+        this(ParallelScan.of(properties.getParallel()));
+    }
+
+    private ColumnarProductRepository(ParallelScan scan) {
+        this.scan = scan;
+    }
+
+    @Override
+    public List<Product> findAll() {
+        return select(row -> true);
+    }
+
+    /*
+     Walks the rows in chunks of STREAM_CHUNK live rows, taking the read lock once per chunk, so writers
+     are not held up for the whole walk and only one chunk of products exists at a time. Rows already
+     passed are not looked at again: a product saved into a reused row behind the walk is missed.
+    */
+    @Override
+    public Stream<Product> streamAll() {
+        return streamChunks(0, this::readChunk);
+    }
+
+    // Reads one chunk into the list, starting at `from`, and returns the position to continue at
+    private interface ChunkReader {
+        int read(int from, List<Product> chunk);
+    }
+
+    private static Stream<Product> streamChunks(int start, ChunkReader reader) {
+        Iterator<Product> products = new Iterator<>() {
+            private final List<Product> chunk = new ArrayList<>(STREAM_CHUNK);
+            private int position;
+            private int next = start;
+
+            @Override
+            public boolean hasNext() {
+                if (position == chunk.size()) {
+                    chunk.clear();
+                    position = 0;
+                    next = reader.read(next, chunk);
+                }
+                return position < chunk.size();
+            }
+
+            @Override
+            public Product next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return chunk.get(position++);
+            }
+        };
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(products, Spliterator.NONNULL), false);
+    }
+
+    // Reads live rows from `from` on into chunk until it is full, returns the row to continue at
+    private int readChunk(int from, List<Product> chunk) {
+        lock.readLock().lock();
+        try {
+            int row = from;
+            while (row < rows && chunk.size() < STREAM_CHUNK) {
+                if (live[row]) {
+                    chunk.add(read(row));
+                }
+                row++;
+            }
+            return row;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Optional<Product> findById(Long id) {
+        lock.readLock().lock();
+        try {
+            int row = rowById.get(id);
+            return row < 0 ? Optional.empty() : Optional.of(read(row));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Product save(Product product) {
+        LocalDateTime now = LocalDateTime.now();
+        if (product.getId() == null) {
+            product.setId(newId.getAndIncrement());
+            product.setCreatedAt(now);
+        }
+        product.setUpdatedAt(now);
+
+        lock.writeLock().lock();
+        try {
+            write(product);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        catalogVersion.incrementAndGet();
+        return product;
+    }
+
+    @Override
+    public Product compareAndSave(Product product, long expectedVersion) {
+        if (product.getId() == null) {
+            throw new IllegalArgumentException("compareAndSave needs a product id");
+        }
+        product.setUpdatedAt(LocalDateTime.now());
+
+        lock.writeLock().lock();
+        try {
+            int row = rowById.get(product.getId());
+            long currentVersion = row < 0 ? 0 : versions[row];
+            if (currentVersion != expectedVersion) {
+                throw new ProductVersionConflictException(product.getId(), expectedVersion, currentVersion);
+            }
+            write(product);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        catalogVersion.incrementAndGet();
+        return product;
+    }
+
+    @Override
+    public Optional<Product> adjustStock(Long id, int delta) {
+        LocalDateTime now = LocalDateTime.now();
+        lock.writeLock().lock();
+        try {
+            int row = rowById.get(id);
+            if (row < 0) {
+                return Optional.empty();
+            }
+            if (delta != 0) {
+                long newQuantity = quantities[row] + (long) delta;
+                if (newQuantity < 0) {
+                    throw new InsufficientStockException(id, quantities[row], delta);
+                }
+                if (newQuantity > Integer.MAX_VALUE) {
+                    throw new StockOverflowException(id, quantities[row], delta);
+                }
+                quantities[row] = (int) newQuantity;
+                updatedAt[row] = toNanos(now);
+                versions[row]++;
+                catalogVersion.incrementAndGet();
+            }
+            return Optional.of(read(row));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // One timestamp, one block of ids and one lock for the whole batch
+    @Override
+    public List<Product> saveAll(List<Product> products) {
+        LocalDateTime now = LocalDateTime.now();
+        long nextId = newId.getAndAdd(products.stream().filter(p -> p.getId() == null).count());
+        for (Product product : products) {
+            if (product.getId() == null) {
+                product.setId(nextId++);
+                product.setCreatedAt(now);
+            }
+            product.setUpdatedAt(now);
+        }
+
+        lock.writeLock().lock();
+        try {
+            for (Product product : products) {
+                write(product);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        catalogVersion.incrementAndGet();
+        return products;
+    }
+
+    @Override
+    public void deleteById(Long id) {
+        lock.writeLock().lock();
+        try {
+            int row = rowById.get(id);
+            if (row >= 0) {
+                rowById.remove(id);
+                countPriced(row, -1);
+                live[row] = false;
+                names[row] = null;
+                nameKeys[row] = null;
+                widePrices.remove(row);
+                liveCount--;
+                if (freeCount == freeRows.length) {
+                    freeRows = Arrays.copyOf(freeRows, Math.max(16, freeRows.length * 2));
+                }
+                freeRows[freeCount++] = row;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        catalogVersion.incrementAndGet();
+    }
+
+    @Override
+    public long getCatalogVersion() {
+        return catalogVersion.get();
+    }
+
+    @Override
+    public long count() {
+        lock.readLock().lock();
+        try {
+            return liveCount;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public int countCategories() {
+        lock.readLock().lock();
+        try {
+            return pricedCategories;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Map<String, Integer> getIndexSizes() {
+        lock.readLock().lock();
+        try {
+            return Map.of("category-dictionary", categoryNames.size(), "free-rows", freeCount);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // ------------------- Column scans -------------------
+
+    @Override
+    public List<Product> findByNameContaining(String name) {
+        String query = name.toLowerCase();
+        return select(row -> nameKeys[row] != null && nameKeys[row].contains(query));
+    }
+
+    @Override
+    public List<Product> findByCategory(String category) {
+        BitSet codes = categoryCodesMatching(category);
+        return select(row -> categories[row] != NO_CATEGORY && codes.get(categories[row]));
+    }
+
+    @Override
+    public long countByCategory(String category) {
+        BitSet codes = categoryCodesMatching(category);
+        return countRows(row -> categories[row] != NO_CATEGORY && codes.get(categories[row]));
+    }
+
+    @Override
+    public List<Product> findByAvailability(boolean inStock) {
+        return select(inStock ? row -> quantities[row] > 0 : row -> quantities[row] == 0);
+    }
+
+    @Override
+    public long countByAvailability(boolean inStock) {
+        return countRows(inStock ? row -> quantities[row] > 0 : row -> quantities[row] == 0);
+    }
+
+    @Override
+    public List<Product> findByExpirationDateBetween(LocalDate from, LocalDate to) {
+        long first = from == null ? NONE + 1 : from.toEpochDay();
+        long last = to == null ? Long.MAX_VALUE : to.toEpochDay();
+        return select(row -> expirations[row] != NONE && expirations[row] >= first && expirations[row] <= last);
+    }
+
+    /*
+     Sums price * quantity per category and price scale straight from the columns. A BigDecimal is only
+     made once per category and scale at the end, which gives the same value and scale as adding up the
+     products one by one (CategoryTotals.sum).
+    */
+    @Override
+    public Map<String, CategoryTotals> getCategoryTotals() {
+        lock.readLock().lock();
+        try {
+            int categoryCount = categoryNames.size();
+            TotalsScan scanned = scan.reduce(rows, () -> new TotalsScan(categoryCount), TotalsScan::add, TotalsScan::merge);
+            ScaleSums[][] sums = scanned.sums;
+
+            Map<String, CategoryTotals> totals = new HashMap<>();
+            for (int category = 0; category < sums.length; category++) {
+                if (sums[category] != null) {
+                    totals.put(categoryNames.get(category), ScaleSums.toTotals(sums[category]));
+                }
+            }
+            scanned.wideByCategory.forEach((category, products) ->
+                    totals.merge(categoryNames.get(category), CategoryTotals.sum(products), CategoryTotals::plus));
+            return totals;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // The sums of one part of the rows: [category code][scale + 128], filled in as categories and scales show up
+    private final class TotalsScan {
+        final ScaleSums[][] sums;
+        final Map<Integer, List<Product>> wideByCategory = new HashMap<>();
+
+        TotalsScan(int categoryCount) {
+            sums = new ScaleSums[categoryCount][];
+        }
+
+        void add(int row) {
+            int category = categories[row];
+            if (!live[row] || category == NO_CATEGORY) {
+                return;
+            }
+            if (priceScales[row] == WIDE_PRICE) {
+                if (widePrices.get(row) != null) {
+                    wideByCategory.computeIfAbsent(category, c -> new ArrayList<>()).add(read(row));
+                }
+                return;
+            }
+            if (sums[category] == null) {
+                sums[category] = new ScaleSums[256];
+            }
+            int slot = priceScales[row] + 128;
+            if (sums[category][slot] == null) {
+                sums[category][slot] = new ScaleSums(priceScales[row]);
+            }
+            sums[category][slot].add(priceUnscaled[row], quantities[row]);
+        }
+
+        TotalsScan merge(TotalsScan other) {
+            for (int category = 0; category < sums.length; category++) {
+                if (other.sums[category] == null) {
+                    continue;
+                }
+                if (sums[category] == null) {
+                    sums[category] = other.sums[category];
+                    continue;
+                }
+                for (int slot = 0; slot < 256; slot++) {
+                    ScaleSums theirs = other.sums[category][slot];
+                    if (theirs != null) {
+                        if (sums[category][slot] == null) {
+                            sums[category][slot] = theirs;
+                        } else {
+                            sums[category][slot].merge(theirs);
+                        }
+                    }
+                }
+            }
+            other.wideByCategory.forEach((category, products) ->
+                    wideByCategory.computeIfAbsent(category, c -> new ArrayList<>()).addAll(products));
+            return this;
+        }
+    }
+
+    // Running sums of one category and price scale, in unscaled units of that scale
+    private static final class ScaleSums {
+        final int scale;
+        int count;
+        int stock;
+        int inStockCount;
+        long value;
+        long inStockPrice;
+        // Only used once a long would overflow
+        BigInteger valueOverflow = BigInteger.ZERO;
+        BigInteger inStockPriceOverflow = BigInteger.ZERO;
+
+        ScaleSums(int scale) {
+            this.scale = scale;
+        }
+
+        void add(long unscaledPrice, int qty) {
+            count++;
+            stock += qty;
+            try {
+                value = Math.addExact(value, Math.multiplyExact(unscaledPrice, qty));
+            } catch (ArithmeticException e) {
+                valueOverflow = valueOverflow.add(BigInteger.valueOf(unscaledPrice).multiply(BigInteger.valueOf(qty)));
+            }
+            if (qty > 0) {
+                inStockCount++;
+                try {
+                    inStockPrice = Math.addExact(inStockPrice, unscaledPrice);
+                } catch (ArithmeticException e) {
+                    inStockPriceOverflow = inStockPriceOverflow.add(BigInteger.valueOf(unscaledPrice));
+                }
+            }
+        }
+
+        void merge(ScaleSums other) {
+            count += other.count;
+            stock += other.stock;
+            inStockCount += other.inStockCount;
+            try {
+                value = Math.addExact(value, other.value);
+            } catch (ArithmeticException e) {
+                valueOverflow = valueOverflow.add(BigInteger.valueOf(other.value));
+            }
+            try {
+                inStockPrice = Math.addExact(inStockPrice, other.inStockPrice);
+            } catch (ArithmeticException e) {
+                inStockPriceOverflow = inStockPriceOverflow.add(BigInteger.valueOf(other.inStockPrice));
+            }
+            valueOverflow = valueOverflow.add(other.valueOverflow);
+            inStockPriceOverflow = inStockPriceOverflow.add(other.inStockPriceOverflow);
+        }
+
+        static CategoryTotals toTotals(ScaleSums[] byScale) {
+            int productCount = 0;
+            int totalStock = 0;
+            int inStockCount = 0;
+            BigDecimal totalValue = BigDecimal.ZERO;
+            BigDecimal inStockPriceSum = BigDecimal.ZERO;
+            Map<Integer, Integer> scaleCounts = new HashMap<>();
+
+            for (ScaleSums sums : byScale) {
+                if (sums == null) {
+                    continue;
+                }
+                int scale = sums.scale;
+                productCount += sums.count;
+                totalStock += sums.stock;
+                inStockCount += sums.inStockCount;
+                totalValue = totalValue.add(new BigDecimal(BigInteger.valueOf(sums.value).add(sums.valueOverflow), scale));
+                // Scales without any product in stock never took part in the in-stock sum
+                if (sums.inStockCount > 0) {
+                    inStockPriceSum = inStockPriceSum.add(
+                            new BigDecimal(BigInteger.valueOf(sums.inStockPrice).add(sums.inStockPriceOverflow), scale));
+                }
+                scaleCounts.put(scale, sums.count);
+            }
+            return CategoryTotals.fromSums(productCount, totalStock, totalValue, inStockPriceSum, inStockCount, scaleCounts);
+        }
+    }
+
+    /*
+     The sort order is computed from the columns (only the sort keys are created, not the products) and
+     kept until the next write, so following pages and cursors reuse it. Products are read when the
+     stream gets to them, STREAM_CHUNK at a time under one read lock like streamAll; one deleted in the
+     meantime is skipped.
+    */
+    @Override
+    public Stream<Product> streamSorted(ProductSortField field, boolean descending, SortPosition after) {
+        SortedRows sorted = sortedRows(field, descending);
+        Comparator<Object> keyOrder = descending ? field.keyOrder().reversed() : field.keyOrder();
+
+        int start = 0;
+        if (after != null) {
+            // First position that comes after `after`
+            int low = 0;
+            int high = sorted.ids().length;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                int result = keyOrder.compare(sorted.keys()[middle], after.key());
+                if (result == 0) {
+                    result = Long.compare(sorted.ids()[middle], after.id());
+                }
+                if (result <= 0) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            start = low;
+        }
+
+        return streamChunks(start, (from, chunk) -> readSortedChunk(sorted.ids(), from, chunk));
+    }
+
+    // Reads the products of ids[from..] that still exist into chunk until it is full, returns the index to continue at
+    private int readSortedChunk(long[] ids, int from, List<Product> chunk) {
+        lock.readLock().lock();
+        try {
+            int i = from;
+            while (i < ids.length && chunk.size() < STREAM_CHUNK) {
+                int row = rowById.get(ids[i]);
+                if (row >= 0) {
+                    chunk.add(read(row));
+                }
+                i++;
+            }
+            return i;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private SortedRows sortedRows(ProductSortField field, boolean descendingOrder) {
+        Map<ProductSortField, SortedRows> cache = descendingOrder ? descending : ascending;
+        long version = catalogVersion.get();
+        SortedRows cached = cache.get(field);
+        if (cached != null && cached.version() == version) {
+            return cached;
+        }
+
+        long[] sortedIds;
+        Object[] keys;
+        lock.readLock().lock();
+        try {
+            Integer[] order = new Integer[liveCount];
+            Object[] rowKeys = new Object[rows];
+            int n = 0;
+            for (int row = 0; row < rows; row++) {
+                if (live[row]) {
+                    order[n++] = row;
+                    rowKeys[row] = keyOf(field, row);
+                }
+            }
+
+            Comparator<Object> keyOrder = descendingOrder ? field.keyOrder().reversed() : field.keyOrder();
+            Arrays.sort(order, (a, b) -> {
+                int result = keyOrder.compare(rowKeys[a], rowKeys[b]);
+                return result != 0 ? result : Long.compare(ids[a], ids[b]);
+            });
+
+            sortedIds = new long[order.length];
+            keys = new Object[order.length];
+            for (int i = 0; i < order.length; i++) {
+                sortedIds[i] = ids[order[i]];
+                keys[i] = rowKeys[order[i]];
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        // Written under a version read before the scan, a write in between just makes the next call sort again
+        SortedRows sorted = new SortedRows(version, sortedIds, keys);
+        cache.put(field, sorted);
+        return sorted;
+    }
+
+    // Same value as field.keyOf(product), without creating the product
+    private Object keyOf(ProductSortField field, int row) {
+        return switch (field) {
+            case NAME -> nameKeys[row];
+            case CATEGORY -> categories[row] == NO_CATEGORY ? null : categoryLowerCase.get(categories[row]);
+            case PRICE -> {
+                BigDecimal price = price(row);
+                yield price == null ? null : price.stripTrailingZeros();
+            }
+            case STOCK -> quantities[row];
+            case EXPIRATION -> expirations[row] == NONE ? null : LocalDate.ofEpochDay(expirations[row]);
+            case AVAILABILITY -> quantities[row] > 0 ? 1 : 0;
+            case ID -> ids[row];
+        };
+    }
+
+    // ------------------- Rows -------------------
+
+    // Rows are read by the scan tasks while this thread holds the read lock, so no writer can get in between
+    private List<Product> select(IntPredicate matches) {
+        lock.readLock().lock();
+        try {
+            return scan.reduce(rows, ArrayList::new, (result, row) -> {
+                if (live[row] && matches.test(row)) {
+                    result.add(read(row));
+                }
+            }, (left, right) -> {
+                left.addAll(right);
+                return left;
+            });
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private long countRows(IntPredicate matches) {
+        lock.readLock().lock();
+        try {
+            return scan.count(rows, row -> live[row] && matches.test(row));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Codes of the dictionary entries equal to the category ignoring case, the same match as equalsIgnoreCase
+    private BitSet categoryCodesMatching(String category) {
+        lock.readLock().lock();
+        try {
+            BitSet codes = new BitSet(categoryNames.size());
+            for (int code = 0; code < categoryNames.size(); code++) {
+                if (categoryNames.get(code).equalsIgnoreCase(category)) {
+                    codes.set(code);
+                }
+            }
+            return codes;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private Product read(int row) {
+        Product product = new Product(
+                ids[row],
+                names[row],
+                categories[row] == NO_CATEGORY ? null : categoryNames.get(categories[row]),
+                price(row),
+                quantities[row],
+                expirations[row] == NONE ? null : LocalDate.ofEpochDay(expirations[row]),
+                fromNanos(createdAt[row]),
+                fromNanos(updatedAt[row])
+        );
+        product.setVersion(versions[row]);
+        return product;
+    }
+
+    // Caller holds the write lock
+    private void write(Product product) {
+        int row = rowById.get(product.getId());
+        if (row < 0) {
+            row = freeCount > 0 ? freeRows[--freeCount] : rows++;
+            ensureCapacity(rows);
+            rowById.put(product.getId(), row);
+            live[row] = true;
+            liveCount++;
+            versions[row] = 0;
+        } else {
+            countPriced(row, -1);
+        }
+        product.setVersion(++versions[row]);
+
+        ids[row] = product.getId();
+        names[row] = product.getName();
+        nameKeys[row] = product.getNormalizedName();
+        categories[row] = categoryCode(product.getCategory());
+        quantities[row] = product.getQuantityInStock();
+        expirations[row] = product.getExpirationDate() == null ? NONE : product.getExpirationDate().toEpochDay();
+        createdAt[row] = toNanos(product.getCreatedAt());
+        updatedAt[row] = toNanos(product.getUpdatedAt());
+
+        BigDecimal price = product.getUnitPrice();
+        if (price != null && price.unscaledValue().bitLength() < Long.SIZE
+                && price.scale() > WIDE_PRICE && price.scale() <= Byte.MAX_VALUE) {
+            priceUnscaled[row] = price.unscaledValue().longValue();
+            priceScales[row] = (byte) price.scale();
+            widePrices.remove(row);
+        } else {
+            priceScales[row] = WIDE_PRICE;
+            widePrices.put(row, price);
+        }
+        countPriced(row, 1);
+    }
+
+    // Caller holds the write lock. Counts the row in (1) or out (-1) of its category, if it has a category and a price.
+    private void countPriced(int row, int change) {
+        int category = categories[row];
+        if (category == NO_CATEGORY || (priceScales[row] == WIDE_PRICE && widePrices.get(row) == null)) {
+            return;
+        }
+        if (category >= pricedByCategory.length) {
+            pricedByCategory = Arrays.copyOf(pricedByCategory, Math.max(16, categoryNames.size() * 2));
+        }
+        int before = pricedByCategory[category];
+        pricedByCategory[category] += change;
+        if (before == 0) {
+            pricedCategories++;
+        } else if (pricedByCategory[category] == 0) {
+            pricedCategories--;
+        }
+    }
+
+    private BigDecimal price(int row) {
+        return priceScales[row] == WIDE_PRICE
+                ? widePrices.get(row)
+                : BigDecimal.valueOf(priceUnscaled[row], priceScales[row]);
+    }
+
+    private int categoryCode(String category) {
+        if (category == null) {
+            return NO_CATEGORY;
+        }
+        return categoryCodes.computeIfAbsent(category, c -> {
+            categoryNames.add(c);
+            categoryLowerCase.add(c.toLowerCase());
+            return categoryNames.size() - 1;
+        });
+    }
+
+    private void ensureCapacity(int needed) {
+        if (needed <= ids.length) {
+            return;
+        }
+        int capacity = Math.max(needed, Math.max(16, ids.length + (ids.length >> 1)));
+        live = Arrays.copyOf(live, capacity);
+        ids = Arrays.copyOf(ids, capacity);
+        names = Arrays.copyOf(names, capacity);
+        nameKeys = Arrays.copyOf(nameKeys, capacity);
+        categories = Arrays.copyOf(categories, capacity);
+        priceUnscaled = Arrays.copyOf(priceUnscaled, capacity);
+        priceScales = Arrays.copyOf(priceScales, capacity);
+        quantities = Arrays.copyOf(quantities, capacity);
+        expirations = Arrays.copyOf(expirations, capacity);
+        createdAt = Arrays.copyOf(createdAt, capacity);
+        updatedAt = Arrays.copyOf(updatedAt, capacity);
+        versions = Arrays.copyOf(versions, capacity);
+    }
+
+    // Nanoseconds cover 1677 to 2262, enough for creation and update times
+    private static long toNanos(LocalDateTime value) {
+        if (value == null) {
+            return NONE;
+        }
+        return Math.addExact(Math.multiplyExact(value.toEpochSecond(ZoneOffset.UTC), 1_000_000_000L), value.getNano());
+    }
+
+    private static LocalDateTime fromNanos(long nanos) {
+        if (nanos == NONE) {
+            return null;
+        }
+        return LocalDateTime.ofEpochSecond(Math.floorDiv(nanos, 1_000_000_000L),
+                (int) Math.floorMod(nanos, 1_000_000_000L), ZoneOffset.UTC);
+    }
+
+}
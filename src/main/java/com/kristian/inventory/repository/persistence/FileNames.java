@@ -0,0 +1,33 @@
+package com.kristian.inventory.repository.persistence;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Stream;
+
+// Log segments and snapshots are named <prefix><zero padded number><suffix>
+final class FileNames {
+
+    private FileNames() {
+    }
+
+    static Path numbered(Path directory, String prefix, long number, String suffix) {
+        return directory.resolve(String.format("%s%016d%s", prefix, number, suffix));
+    }
+
+    // Numbers of the matching files in the directory, smallest first
+    static List<Long> numbered(Path directory, String prefix, String suffix) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files
+                    .map(file -> file.getFileName().toString())
+                    .filter(name -> name.startsWith(prefix) && name.endsWith(suffix))
+                    .map(name -> name.substring(prefix.length(), name.length() - suffix.length()))
+                    .filter(number -> !number.isEmpty() && number.chars().allMatch(Character::isDigit))
+                    .map(Long::valueOf)
+                    .sorted()
+                    .toList();
+        }
+    }
+
+}
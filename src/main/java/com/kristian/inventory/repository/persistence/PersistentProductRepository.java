@@ -0,0 +1,320 @@
+package com.kristian.inventory.repository.persistence;
+
+import com.kristian.inventory.config.InventoryProperties;
+import com.kristian.inventory.model.Product;
+import com.kristian.inventory.repository.CategoryTotals;
+import com.kristian.inventory.repository.InMemoryProductRepository;
+import com.kristian.inventory.repository.ProductRepository;
+import com.kristian.inventory.repository.ProductSortField;
+import com.kristian.inventory.repository.SortPosition;
+import com.kristian.inventory.repository.StockAdjustment;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Primary;
+import org.springframework.stereotype.Repository;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/*
+ Keeps the catalog on disk (inventory.persistence.enabled=true).
+
+ The in-memory repository still answers every request. Each write it applies is appended to a
+ write-ahead log and save/deleteById return once the log has it (see FsyncPolicy). Every
+ snapshot-interval the whole catalog is written to a snapshot and the log segments it contains are
+ removed. On startup the newest readable snapshot is loaded and the log written after it is replayed.
+
+ When the log fails (disk full, I/O error) the catalog becomes read-only: every write is refused with
+ WriteAheadLogFailedException (503) before it reaches memory. Only writes that were already being applied
+ when the log failed can be in memory without being on disk, their callers get the exception as well.
+
+ Every ProductRepository method is passed to the in-memory repository, the interface defaults would
+ scan the whole catalog instead of using its indexes.
+*/
+@Repository
+@Primary
+@ConditionalOnProperty(prefix = "inventory.persistence", name = "enabled", havingValue = "true")
+public class PersistentProductRepository implements ProductRepository {
+
+    private static final Logger log = LoggerFactory.getLogger(PersistentProductRepository.class);
+
+    private final InMemoryProductRepository memory;
+    private final Path directory;
+    private final WriteAheadLog writeAheadLog;
+    private final ScheduledExecutorService snapshots;
+    private final long snapshotIntervalMillis;
+
+    public PersistentProductRepository(InMemoryProductRepository memory, InventoryProperties properties) {
+        InventoryProperties.Persistence settings = properties.getPersistence();
+        this.memory = memory;
+        this.directory = Paths.get(settings.getDirectory());
+
+        try {
+            Files.createDirectories(directory);
+            long nextSegment = recover();
+            this.writeAheadLog = new WriteAheadLog(directory, nextSegment, memory.getLastChangeSequence() + 1,
+                    settings.getFsync(), settings.getFsyncInterval());
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not recover the catalog from " + directory.toAbsolutePath(), e);
+        }
+        // Only writes made from now on go to the log, the recovered ones are already on disk. Appended once the
+        // write is visible (see snapshot), and the framing and queueing don't hold the lock of the product.
+        memory.addAppliedChangeListener(writeAheadLog::append);
+
+        this.snapshots = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "product-snapshot");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.snapshotIntervalMillis = settings.getSnapshotInterval().toMillis();
+    }
+
+    // Not in the constructor: the snapshot thread must not see the repository before it is fully constructed
+    @PostConstruct
+    public void scheduleSnapshots() {
+        snapshots.scheduleWithFixedDelay(this::snapshotQuietly, snapshotIntervalMillis, snapshotIntervalMillis,
+                TimeUnit.MILLISECONDS);
+    }
+
+    /*
+     Loads the newest snapshot that can be read, replays the log after it and returns the number for the next
+     segment. Without any snapshot the whole log is replayed. If there are snapshots but none can be read,
+     recovery fails: the log before them is already removed, replaying what is left would lose products.
+    */
+    private long recover() throws IOException {
+        long start = System.nanoTime();
+
+        List<Long> snapshotSegments = SnapshotFile.snapshots(directory);
+        long firstSegment = 0;
+        long nextId = 0;
+        List<Product> loaded = new ArrayList<>();
+        List<Exception> unreadable = new ArrayList<>();
+        for (int i = snapshotSegments.size() - 1; i >= 0; i--) {
+            Path file = SnapshotFile.file(directory, snapshotSegments.get(i));
+            try {
+                nextId = SnapshotFile.read(file, loaded::add);
+                firstSegment = snapshotSegments.get(i);
+                break;
+            } catch (IOException | RuntimeException e) {
+                log.warn("Skipping unreadable snapshot {}", file, e);
+                unreadable.add(e);
+                loaded.clear();
+            }
+        }
+        if (!snapshotSegments.isEmpty() && unreadable.size() == snapshotSegments.size()) {
+            IOException failure = new IOException("None of the " + snapshotSegments.size() + " snapshots in "
+                    + directory.toAbsolutePath() + " can be read, the log alone does not have the whole catalog");
+            unreadable.forEach(failure::addSuppressed);
+            throw failure;
+        }
+        memory.restoreAll(loaded);
+        memory.reserveIdsBelow(nextId);
+
+        // The log has to be replayed in order: the same product can be saved and deleted several times
+        long replayed = 0;
+        long lastSegment = firstSegment - 1;
+        for (long segment : WriteAheadLog.segments(directory)) {
+            if (segment >= firstSegment) {
+                replayed += WriteAheadLog.replay(WriteAheadLog.segmentFile(directory, segment),
+                        memory::restore,
+                        memory::deleteById);
+            }
+            lastSegment = Math.max(lastSegment, segment);
+        }
+
+        log.info("Recovered {} products ({} from the snapshot, {} log records) in {} ms",
+                memory.count(), loaded.size(), replayed, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        return lastSegment + 1;
+    }
+
+    /*
+     Writes a snapshot of the current catalog. The log switches to a new segment once every write numbered
+     up to now is in the old one; those writes were visible before they were logged, so the products read
+     afterwards have all of them. Products saved while the snapshot is written may or may not be in it,
+     either way they are also in the new segment, which is replayed on top of the snapshot.
+    */
+    public synchronized void snapshot() throws IOException {
+        long firstSegment = writeAheadLog.rotate(memory.getLastChangeSequence());
+        List<Product> products = memory.findAll();
+        // Read after the products: every id in them is below it
+        SnapshotFile.write(directory, firstSegment, memory.getNextId(), products);
+
+        // Keep the previous snapshot (and the log after it) in case the new one cannot be read
+        List<Long> snapshotSegments = SnapshotFile.snapshots(directory);
+        if (snapshotSegments.size() < 2) {
+            return;
+        }
+        long keepFrom = snapshotSegments.get(snapshotSegments.size() - 2);
+        for (long segment : snapshotSegments) {
+            if (segment < keepFrom) {
+                Files.deleteIfExists(SnapshotFile.file(directory, segment));
+            }
+        }
+        for (long segment : WriteAheadLog.segments(directory)) {
+            if (segment < keepFrom) {
+                Files.deleteIfExists(WriteAheadLog.segmentFile(directory, segment));
+            }
+        }
+    }
+
+    private void snapshotQuietly() {
+        try {
+            snapshot();
+        } catch (IOException | RuntimeException e) {
+            log.error("Could not write a snapshot of the catalog", e);
+        }
+    }
+
+    // A last snapshot makes the next startup quick, then whatever is still queued is written out
+    @PreDestroy
+    public void close() {
+        snapshots.shutdown();
+        try {
+            snapshots.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        snapshotQuietly();
+        writeAheadLog.close();
+    }
+
+    @Override
+    public List<Product> findAll() {
+        return memory.findAll();
+    }
+
+    @Override
+    public Optional<Product> findById(Long id) {
+        return memory.findById(id);
+    }
+
+    @Override
+    public Stream<Product> streamAll() {
+        return memory.streamAll();
+    }
+
+    @Override
+    public Product save(Product product) {
+        writeAheadLog.checkWritable();
+        Product saved = memory.save(product);
+        writeAheadLog.awaitDurable(memory.getLastChangeSequence());
+        return saved;
+    }
+
+    @Override
+    public Product compareAndSave(Product product, long expectedVersion) {
+        writeAheadLog.checkWritable();
+        Product saved = memory.compareAndSave(product, expectedVersion);
+        writeAheadLog.awaitDurable(memory.getLastChangeSequence());
+        return saved;
+    }
+
+    @Override
+    public void deleteById(Long id) {
+        writeAheadLog.checkWritable();
+        memory.deleteById(id);
+        writeAheadLog.awaitDurable(memory.getLastChangeSequence());
+    }
+
+    @Override
+    public Optional<Product> adjustStock(Long id, int delta) {
+        writeAheadLog.checkWritable();
+        Optional<Product> adjusted = memory.adjustStock(id, delta);
+        writeAheadLog.awaitDurable(memory.getLastChangeSequence());
+        return adjusted;
+    }
+
+    // One wait for the whole batch
+    @Override
+    public List<StockAdjustment.Result> adjustStockAll(List<StockAdjustment> adjustments) {
+        writeAheadLog.checkWritable();
+        List<StockAdjustment.Result> results = memory.adjustStockAll(adjustments);
+        writeAheadLog.awaitDurable(memory.getLastChangeSequence());
+        return results;
+    }
+
+    // One wait for the whole batch
+    @Override
+    public List<Product> saveAll(List<Product> products) {
+        writeAheadLog.checkWritable();
+        List<Product> saved = memory.saveAll(products);
+        writeAheadLog.awaitDurable(memory.getLastChangeSequence());
+        return saved;
+    }
+
+    @Override
+    public long getCatalogVersion() {
+        return memory.getCatalogVersion();
+    }
+
+    @Override
+    public long count() {
+        return memory.count();
+    }
+
+    @Override
+    public Map<String, Integer> getIndexSizes() {
+        return memory.getIndexSizes();
+    }
+
+    @Override
+    public List<Product> findByNameContaining(String name) {
+        return memory.findByNameContaining(name);
+    }
+
+    @Override
+    public List<Product> findByCategory(String category) {
+        return memory.findByCategory(category);
+    }
+
+    @Override
+    public long countByCategory(String category) {
+        return memory.countByCategory(category);
+    }
+
+    @Override
+    public List<Product> findByAvailability(boolean inStock) {
+        return memory.findByAvailability(inStock);
+    }
+
+    @Override
+    public long countByAvailability(boolean inStock) {
+        return memory.countByAvailability(inStock);
+    }
+
+    @Override
+    public List<Product> findByExpirationDateBetween(LocalDate from, LocalDate to) {
+        return memory.findByExpirationDateBetween(from, to);
+    }
+
+    @Override
+    public Stream<Product> streamSorted(ProductSortField field, boolean descending, SortPosition after) {
+        return memory.streamSorted(field, descending, after);
+    }
+
+    @Override
+    public Map<String, CategoryTotals> getCategoryTotals() {
+        return memory.getCategoryTotals();
+    }
+
+    @Override
+    public int countCategories() {
+        return memory.countCategories();
+    }
+
+}
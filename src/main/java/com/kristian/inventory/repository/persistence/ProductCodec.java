@@ -0,0 +1,136 @@
+package com.kristian.inventory.repository.persistence;
+
+import com.kristian.inventory.model.Product;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+
+/*
+ Binary form of a product, shared by the write-ahead log and the snapshots (big-endian, so what
+ DataOutput writes a ByteBuffer reads back as is):
+
+   id            long
+   name          string    (int byte length, -1 for null, then UTF-8)
+   category      string
+   unitPrice     byte flag (0 null, 1 long unscaled value, 2 bytes) + value + int scale
+   quantity      int
+   expiration    long      epoch day, Long.MIN_VALUE for none
+   createdAt     long + int epoch second (UTC) and nano, Long.MIN_VALUE for none
+   updatedAt     long + int
+   version       long      not in format 1 (snapshot format 1, PUT_V1 log records), read as 1 there
+*/
+final class ProductCodec {
+
+    private static final long NONE = Long.MIN_VALUE;
+
+    private ProductCodec() {
+    }
+
+    static void write(DataOutput out, Product product) throws IOException {
+        out.writeLong(product.getId());
+        writeString(out, product.getName());
+        writeString(out, product.getCategory());
+        writePrice(out, product.getUnitPrice());
+        out.writeInt(product.getQuantityInStock());
+        out.writeLong(product.getExpirationDate() == null ? NONE : product.getExpirationDate().toEpochDay());
+        writeDateTime(out, product.getCreatedAt());
+        writeDateTime(out, product.getUpdatedAt());
+        out.writeLong(product.getVersion());
+    }
+
+    // versioned is false for products written in format 1
+    static Product read(ByteBuffer in, boolean versioned) {
+        Long id = in.getLong();
+        String name = readString(in);
+        String category = readString(in);
+        BigDecimal unitPrice = readPrice(in);
+        int quantity = in.getInt();
+        long epochDay = in.getLong();
+        LocalDateTime createdAt = readDateTime(in);
+        LocalDateTime updatedAt = readDateTime(in);
+
+        Product product = new Product(id, name, category, unitPrice, quantity,
+                epochDay == NONE ? null : LocalDate.ofEpochDay(epochDay), createdAt, updatedAt);
+        product.setVersion(versioned ? in.getLong() : 1);
+        return product;
+    }
+
+    private static void writeString(DataOutput out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer in) {
+        int length = in.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // Almost every price fits in a long once the decimal point is taken out
+    private static void writePrice(DataOutput out, BigDecimal price) throws IOException {
+        if (price == null) {
+            out.writeByte(0);
+            return;
+        }
+        BigInteger unscaled = price.unscaledValue();
+        if (unscaled.bitLength() < Long.SIZE) {
+            out.writeByte(1);
+            out.writeLong(unscaled.longValue());
+        } else {
+            byte[] bytes = unscaled.toByteArray();
+            out.writeByte(2);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+        out.writeInt(price.scale());
+    }
+
+    private static BigDecimal readPrice(ByteBuffer in) {
+        byte kind = in.get();
+        if (kind == 0) {
+            return null;
+        }
+        BigInteger unscaled;
+        if (kind == 1) {
+            unscaled = BigInteger.valueOf(in.getLong());
+        } else {
+            byte[] bytes = new byte[in.getInt()];
+            in.get(bytes);
+            unscaled = new BigInteger(bytes);
+        }
+        return new BigDecimal(unscaled, in.getInt());
+    }
+
+    private static void writeDateTime(DataOutput out, LocalDateTime value) throws IOException {
+        if (value == null) {
+            out.writeLong(NONE);
+            out.writeInt(0);
+            return;
+        }
+        out.writeLong(value.toEpochSecond(ZoneOffset.UTC));
+        out.writeInt(value.getNano());
+    }
+
+    private static LocalDateTime readDateTime(ByteBuffer in) {
+        long seconds = in.getLong();
+        int nanos = in.getInt();
+        return seconds == NONE ? null : LocalDateTime.ofEpochSecond(seconds, nanos, ZoneOffset.UTC);
+    }
+
+}
@@ -0,0 +1,123 @@
+package com.kristian.inventory.repository.persistence;
+
+import com.kristian.inventory.model.Product;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/*
+ The whole catalog in one file, snapshot-<segment>.bin, where <segment> is the first log segment
+ that is not contained in it:
+
+   int magic | int format | long first segment | long next id | int product count | products (ProductCodec) | int crc32
+
+ The next id is the one the repository would give the next new product: kept so that the id of a
+ deleted product (whose records are gone with the older log segments) is never handed out again.
+ Format 1 and 2 files have no next id, ids then continue after the highest one in the catalog. Products
+ in format 1 files have no version, they are read with version 1.
+
+ A snapshot is written to a temporary file, synced and then renamed, so a snapshot file either is
+ complete or does not exist. Reading maps the file into memory instead of streaming it.
+*/
+final class SnapshotFile {
+
+    private static final int MAGIC = 0x494E5653; // "INVS"
+    private static final int FORMAT = 3; // 2: products carry their version, 3: next id in the header
+
+    private SnapshotFile() {
+    }
+
+    static Path file(Path directory, long firstSegment) {
+        return FileNames.numbered(directory, "snapshot-", firstSegment, ".bin");
+    }
+
+    // The first segments of the snapshots in the directory, oldest first
+    static List<Long> snapshots(Path directory) throws IOException {
+        return FileNames.numbered(directory, "snapshot-", ".bin");
+    }
+
+    static void write(Path directory, long firstSegment, long nextId, Collection<Product> products) throws IOException {
+        Path target = file(directory, firstSegment);
+        Path temporary = directory.resolve(target.getFileName() + ".tmp");
+
+        try (FileOutputStream file = new FileOutputStream(temporary.toFile())) {
+            CRC32 crc = new CRC32();
+            DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(new CheckedOutputStream(file, crc), 1 << 16));
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT);
+            out.writeLong(firstSegment);
+            out.writeLong(nextId);
+            out.writeInt(products.size());
+            for (Product product : products) {
+                ProductCodec.write(out, product);
+            }
+            out.flush();
+
+            // The checksum itself goes around the CheckedOutputStream
+            new DataOutputStream(file).writeInt((int) crc.getValue());
+            file.getChannel().force(true);
+        }
+
+        Files.move(temporary, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        syncDirectory(directory);
+    }
+
+    /*
+     Hands every product of the snapshot to the consumer and returns the next id (0 if the file doesn't
+     have it). Throws IOException when the file is not a complete snapshot, the caller then falls back to
+     an older one.
+    */
+    static long read(Path file, Consumer<Product> consumer) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < 24 || size > Integer.MAX_VALUE) {
+                throw new IOException("Not a snapshot: " + file);
+            }
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+
+            CRC32 crc = new CRC32();
+            crc.update(buffer.slice(0, (int) size - 4));
+            if (buffer.getInt((int) size - 4) != (int) crc.getValue()) {
+                throw new IOException("Snapshot checksum mismatch: " + file);
+            }
+            if (buffer.getInt() != MAGIC) {
+                throw new IOException("Not a snapshot: " + file);
+            }
+            int format = buffer.getInt();
+            if (format < 1 || format > FORMAT) {
+                throw new IOException("Unknown snapshot format " + format + ": " + file);
+            }
+            buffer.getLong();
+            long nextId = format >= 3 ? buffer.getLong() : 0;
+            int count = buffer.getInt();
+            boolean versioned = format >= 2;
+            for (int i = 0; i < count; i++) {
+                consumer.accept(ProductCodec.read(buffer, versioned));
+            }
+            return nextId;
+        }
+    }
+
+    // Makes the rename itself durable. Not every platform can open a directory, the rename is atomic either way.
+    private static void syncDirectory(Path directory) {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException | UnsupportedOperationException ignored) {
+        }
+    }
+
+}
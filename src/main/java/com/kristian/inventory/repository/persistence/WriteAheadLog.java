@@ -0,0 +1,401 @@
+package com.kristian.inventory.repository.persistence;
+
+import com.kristian.inventory.config.InventoryProperties.FsyncPolicy;
+import com.kristian.inventory.model.Product;
+import com.kristian.inventory.repository.ProductChange;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.DateTimeException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/*
+ Append-only log of product writes, split in numbered segment files (wal-<segment>.log).
+
+ Every record is  int length | int crc32 | byte type | payload  where the payload is a product
+ (ProductCodec) for PUT and the id for DELETE. The type tells the record formats apart: PUT_V1 records
+ were written before products carried their version and are still replayed, with version 1. Replaying all records of a segment in file order
+ gives back the state they describe; a record that was only half written when the process died
+ fails the length or crc check and ends the replay of that segment.
+
+ append() frames the record and queues it. It is called once the write is visible in the repository,
+ outside the lock of the product, so records can be queued out of order; the writer puts them back in
+ the order of their sequence number (ProductChange.sequence(), increasing per product) before writing.
+ The file order is therefore the order the writes were applied in. One writer thread takes everything
+ queued so far, writes it with a single call and (with FsyncPolicy.ALWAYS) syncs it once: concurrent
+ writers share one fsync (group commit).
+
+ An I/O error stops the log for good. From then on checkWritable(), awaitDurable() and rotate() throw
+ WriteAheadLogFailedException right away, and append() no longer queues anything.
+*/
+final class WriteAheadLog implements Closeable {
+
+    static final byte PUT_V1 = 1;
+    static final byte DELETE = 2;
+    static final byte PUT = 3;
+
+    private static final Logger log = LoggerFactory.getLogger(WriteAheadLog.class);
+    private static final int MAX_BATCH = 4096;
+    private static final Object CLOSE = new Object();
+
+    private final Path directory;
+    private final FsyncPolicy fsyncPolicy;
+    private final long fsyncIntervalNanos;
+
+    // A framed write; bytes is null for an aborted write or one that could not be framed, it only fills its place
+    // in the sequence
+    private record Record(long sequence, byte[] bytes) {
+    }
+
+    // Switch to a new segment once every record up to `through` is written
+    private record Rotation(long through, CompletableFuture<Long> done) {
+    }
+
+    private final BlockingQueue<Object> queue = new LinkedBlockingQueue<>();
+    private long written;           // guarded by this: every record up to this sequence is written (and synced, if the policy says so)
+    // Written under this (see rotate), read without it on every write
+    private volatile IOException failure;
+
+    private final Thread writer;
+    private FileChannel channel;    // only touched by the writer thread after the constructor
+    private long segment;
+    private long lastSync = System.nanoTime();
+    private boolean unsynced;
+
+    // firstSequence: the sequence number of the first write to log, every number from there on has to be appended
+    WriteAheadLog(Path directory, long segment, long firstSequence, FsyncPolicy fsyncPolicy, Duration fsyncInterval)
+            throws IOException {
+        this.directory = directory;
+        this.written = firstSequence - 1;
+        this.fsyncPolicy = fsyncPolicy;
+        this.fsyncIntervalNanos = fsyncInterval.toNanos();
+        this.segment = segment;
+        this.channel = open(segment);
+
+        this.writer = new Thread(this::run, "product-wal-writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    static Path segmentFile(Path directory, long segment) {
+        return FileNames.numbered(directory, "wal-", segment, ".log");
+    }
+
+    // Segment numbers of the log files in the directory, oldest first
+    static List<Long> segments(Path directory) throws IOException {
+        return FileNames.numbered(directory, "wal-", ".log");
+    }
+
+    // Called by the repository before it applies a write, so a write the log can't take never reaches memory
+    void checkWritable() {
+        IOException failed = failure;
+        if (failed != null) {
+            throw new WriteAheadLogFailedException(failed);
+        }
+    }
+
+    void append(ProductChange change) {
+        if (failure != null) {
+            return;
+        }
+        byte[] record = null;
+        try {
+            if (change.type() != ProductChange.Type.ABORTED) {
+                record = frame(change);
+            }
+        } finally {
+            // Queued even when framing failed, the records after it wait for its number
+            queue.add(new Record(change.sequence(), record));
+        }
+    }
+
+    // With FsyncPolicy.ALWAYS blocks until every record up to this sequence number is synced to disk,
+    // with the other policies only reports a log that stopped working
+    void awaitDurable(long through) {
+        if (fsyncPolicy != FsyncPolicy.ALWAYS) {
+            checkWritable();
+            return;
+        }
+
+        synchronized (this) {
+            while (written < through && failure == null) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Interrupted while waiting for the write-ahead log", e);
+                }
+            }
+            if (failure != null) {
+                throw new WriteAheadLogFailedException(failure);
+            }
+        }
+    }
+
+    /*
+     Closes the current segment once every record up to `through` is written to it and continues in a new
+     one. Returns the number of the new segment. A record is appended only after its write is visible, so
+     a snapshot read after this call has every write up to `through` (or a later one of the same product),
+     and only segments from the returned number on have to be replayed.
+    */
+    long rotate(long through) {
+        CompletableFuture<Long> rotated = new CompletableFuture<>();
+        // Under the same lock the writer fails under: either the failure is seen here, or the request is
+        // already queued when the writer fails everything that is queued
+        synchronized (this) {
+            checkWritable();
+            queue.add(new Rotation(through, rotated));
+        }
+        try {
+            return rotated.join();
+        } catch (CompletionException e) {
+            throw new WriteAheadLogFailedException(e.getCause());
+        }
+    }
+
+    @Override
+    public void close() {
+        queue.add(CLOSE);
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /*
+     Replays one segment: hands every complete record to the consumers and cuts off a torn tail.
+     Returns the number of records replayed. A record that passes the checksum but can't be decoded is
+     not a torn write, that ends the recovery with an IOException.
+    */
+    static long replay(Path file, Consumer<Product> puts, Consumer<Long> deletes) throws IOException {
+        long records = 0;
+        long validLength;
+        try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = in.map(FileChannel.MapMode.READ_ONLY, 0, in.size());
+            CRC32 crc = new CRC32();
+
+            while (true) {
+                validLength = buffer.position();
+                if (buffer.remaining() < 8) {
+                    break;
+                }
+                int length = buffer.getInt();
+                int checksum = buffer.getInt();
+                if (length <= 0 || length > buffer.remaining()) {
+                    break;
+                }
+                ByteBuffer body = buffer.slice(buffer.position(), length);
+                crc.reset();
+                crc.update(body.duplicate());
+                if ((int) crc.getValue() != checksum) {
+                    break;
+                }
+                buffer.position(buffer.position() + length);
+
+                byte type = body.get();
+                if (type == PUT || type == PUT_V1) {
+                    puts.accept(decode(body, type == PUT, file, validLength));
+                } else if (type == DELETE) {
+                    deletes.accept(body.getLong());
+                } else {
+                    throw new IOException("Unknown record type " + type + " at " + validLength + " in " + file);
+                }
+                records++;
+            }
+
+            if (validLength < in.size()) {
+                log.warn("Dropping {} bytes of an incomplete record at the end of {}", in.size() - validLength, file);
+                in.truncate(validLength);
+            }
+        }
+        return records;
+    }
+
+    private static Product decode(ByteBuffer body, boolean versioned, Path file, long position) throws IOException {
+        try {
+            return ProductCodec.read(body, versioned);
+        } catch (BufferUnderflowException | IllegalArgumentException | DateTimeException e) {
+            throw new IOException("Unreadable record at " + position + " in " + file, e);
+        }
+    }
+
+    private static byte[] frame(ProductChange change) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(0);
+            out.writeInt(0);
+            if (change.type() == ProductChange.Type.DELETED) {
+                out.writeByte(DELETE);
+                out.writeLong(change.id());
+            } else {
+                out.writeByte(PUT);
+                ProductCodec.write(out, change.product());
+            }
+
+            byte[] record = bytes.toByteArray();
+            CRC32 crc = new CRC32();
+            crc.update(record, 8, record.length - 8);
+            ByteBuffer.wrap(record).putInt(record.length - 8).putInt((int) crc.getValue());
+            return record;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private FileChannel open(long segment) throws IOException {
+        return FileChannel.open(segmentFile(directory, segment),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    private void run() {
+        List<Object> batch = new ArrayList<>();
+        List<ByteBuffer> pending = new ArrayList<>();
+        // Records that came before one with a lower number, and rotations whose records are not all in yet
+        PriorityQueue<Record> waiting = new PriorityQueue<>(Comparator.comparingLong(Record::sequence));
+        PriorityQueue<Rotation> rotations = new PriorityQueue<>(Comparator.comparingLong(Rotation::through));
+        long next;
+        synchronized (this) {
+            next = written + 1;
+        }
+        boolean closing = false;
+
+        while (!closing) {
+            try {
+                Object first = queue.poll(10, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    if (unsynced && fsyncPolicy == FsyncPolicy.INTERVAL && syncDue()) {
+                        sync();
+                    }
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, MAX_BATCH - 1);
+                for (Object entry : batch) {
+                    if (entry instanceof Record record) {
+                        waiting.add(record);
+                    } else if (entry instanceof Rotation rotation) {
+                        rotations.add(rotation);
+                    } else if (entry == CLOSE) {
+                        closing = true;
+                    }
+                }
+                batch.clear();
+
+                // Everything without a gap before it, switching segments where a rotation asks for it
+                while (true) {
+                    Rotation rotation = rotations.peek();
+                    if (rotation != null && rotation.through() < next) {
+                        write(pending);
+                        sync();
+                        channel.close();
+                        segment++;
+                        channel = open(segment);
+                        complete(next - 1);
+                        rotations.poll();
+                        rotation.done().complete(segment);
+                        continue;
+                    }
+                    Record record = waiting.peek();
+                    if (record == null || record.sequence() != next) {
+                        break;
+                    }
+                    waiting.poll();
+                    if (record.bytes() != null) {
+                        pending.add(ByteBuffer.wrap(record.bytes()));
+                    }
+                    next++;
+                }
+                write(pending);
+                if (fsyncPolicy == FsyncPolicy.ALWAYS || closing
+                        || (fsyncPolicy == FsyncPolicy.INTERVAL && syncDue())) {
+                    sync();
+                }
+                complete(next - 1);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (IOException e) {
+                log.error("Write-ahead log failed, the catalog is read-only until the application is restarted", e);
+                synchronized (this) {
+                    failure = e;
+                    notifyAll();
+                    // Nothing will take these any more
+                    queue.drainTo(batch);
+                }
+                batch.forEach(entry -> {
+                    if (entry instanceof Rotation rotation) {
+                        rotations.add(rotation);
+                    }
+                });
+                rotations.forEach(rotation -> rotation.done().completeExceptionally(e));
+                return;
+            }
+        }
+
+        if (!waiting.isEmpty()) {
+            log.warn("Closing the write-ahead log with {} records still waiting for record {}", waiting.size(), next);
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            log.warn("Could not close the write-ahead log", e);
+        }
+    }
+
+    private void write(List<ByteBuffer> pending) throws IOException {
+        if (pending.isEmpty()) {
+            return;
+        }
+        ByteBuffer[] buffers = pending.toArray(new ByteBuffer[0]);
+        long remaining = 0;
+        for (ByteBuffer buffer : buffers) {
+            remaining += buffer.remaining();
+        }
+        while (remaining > 0) {
+            remaining -= channel.write(buffers);
+        }
+        pending.clear();
+        unsynced = true;
+    }
+
+    private boolean syncDue() {
+        return System.nanoTime() - lastSync >= fsyncIntervalNanos;
+    }
+
+    private void sync() throws IOException {
+        if (unsynced && fsyncPolicy != FsyncPolicy.NEVER) {
+            channel.force(false);
+        }
+        unsynced = false;
+        lastSync = System.nanoTime();
+    }
+
+    private synchronized void complete(long through) {
+        written = through;
+        notifyAll();
+    }
+
+}
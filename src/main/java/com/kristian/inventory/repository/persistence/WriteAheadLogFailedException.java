@@ -0,0 +1,14 @@
+package com.kristian.inventory.repository.persistence;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+// The write-ahead log could not write (disk full, I/O error): writes are refused until the application is restarted
+@ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+public class WriteAheadLogFailedException extends RuntimeException {
+
+    public WriteAheadLogFailedException(Throwable cause) {
+        super("The write-ahead log failed, the catalog is read-only", cause);
+    }
+
+}
@@ -0,0 +1,14 @@
+package com.kristian.inventory.service;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+// inventory.change-feed.max-subscribers streams are already open
+@ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+public class ChangeFeedBusyException extends RuntimeException {
+
+    public ChangeFeedBusyException(int subscribers) {
+        super("The change feed already has " + subscribers + " subscribers");
+    }
+
+}
@@ -0,0 +1,18 @@
+package com.kristian.inventory.service;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+// The changes after the requested sequence number are no longer kept (or it is from before a restart): reload the catalog
+@ResponseStatus(HttpStatus.GONE)
+public class ChangeFeedGoneException extends RuntimeException {
+
+    public ChangeFeedGoneException(long sequence, long oldest, long last) {
+        super("Cannot resume the change feed after " + sequence + ", it has changes " + oldest + " to " + last);
+    }
+
+    public ChangeFeedGoneException(String eventId) {
+        super("Cannot resume the change feed after " + eventId + ", it is not an event id of this run");
+    }
+
+}
@@ -0,0 +1,14 @@
+package com.kristian.inventory.service;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+// The storage backend does not report its changes (only the memory backend does)
+@ResponseStatus(HttpStatus.NOT_IMPLEMENTED)
+public class ChangeTrackingUnavailableException extends RuntimeException {
+
+    public ChangeTrackingUnavailableException() {
+        super("Change tracking needs inventory.storage.backend=memory");
+    }
+
+}
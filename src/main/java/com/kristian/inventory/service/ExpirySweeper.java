@@ -0,0 +1,112 @@
+package com.kristian.inventory.service;
+
+import com.kristian.inventory.config.InventoryProperties;
+import com.kristian.inventory.model.Product;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/*
+ Publishes a ProductsExpiredEvent for the products whose expiration date has passed; ProductChangeFeed
+ passes it on to its clients as `expired` events.
+
+ A product expires at the end of its expiration date. Each sweep only asks the expiration index for the
+ days that ended since the previous sweep, so a sweep costs O(log n) plus the products it reports, and the
+ hourly sweeps between two midnights find nothing to do. Products are reported once: a product saved later
+ with a date that was already swept is not reported again (GET /products/expiring?expired=true lists it).
+
+ Sweeps start once the application is ready: an event published while the context is still being created
+ would reach no @EventListener, and its days would count as reported all the same.
+
+ The days already swept are not kept across restarts, so the first sweep only looks back look-back days
+ (inventory.expiry.look-back) instead of reporting every product that ever expired again: that could be
+ more than the change feed keeps and drop all of its clients. Products that expired while the application
+ was down for longer than that are not reported.
+*/
+@Service
+public class ExpirySweeper {
+
+    private static final Logger log = LoggerFactory.getLogger(ExpirySweeper.class);
+
+    private final ProductService productService;
+    private final ApplicationEventPublisher events;
+    private final ScheduledExecutorService scheduler;
+    private final long intervalMillis;
+    private final long lookBackDays;
+
+    // Last expiration date that has been reported, null before the first sweep. Guarded by this.
+    private LocalDate sweptThrough;
+
+    public ExpirySweeper(ProductService productService, ApplicationEventPublisher events, InventoryProperties properties) {
+        this.productService = productService;
+        this.events = events;
+
+        InventoryProperties.Expiry settings = properties.getExpiry();
+        this.intervalMillis = settings.getSweepInterval().toMillis();
+        this.lookBackDays = settings.getLookBack().toDays();
+        if (!settings.isSweepEnabled()) {
+            this.scheduler = null;
+            return;
+        }
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "expiry-sweeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    // The first sweep right away, it reports what expired during the look-back days
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (scheduler != null) {
+            scheduler.scheduleWithFixedDelay(this::sweepQuietly, 0, intervalMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    // Reports what expired before today and was not reported yet, returns the published event (null if none)
+    public synchronized ProductsExpiredEvent sweep(LocalDate today) {
+        LocalDate to = today.minusDays(1);
+        if (sweptThrough != null && !to.isAfter(sweptThrough)) {
+            return null;
+        }
+        LocalDate from = sweptThrough == null ? today.minusDays(lookBackDays) : sweptThrough.plusDays(1);
+
+        List<Product> expired = from.isAfter(to) ? List.of() : productService.getProductsExpiringBetween(from, to);
+        sweptThrough = to;
+        if (expired.isEmpty()) {
+            return null;
+        }
+
+        ProductsExpiredEvent event = new ProductsExpiredEvent(from, to, expired);
+        log.info("{} products expired through {}", expired.size(), to);
+        events.publishEvent(event);
+        return event;
+    }
+
+    @PreDestroy
+    public void close() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    // An exception would cancel the schedule
+    private void sweepQuietly() {
+        try {
+            sweep(LocalDate.now());
+        } catch (RuntimeException e) {
+            log.error("Expiry sweep failed", e);
+        }
+    }
+
+}
@@ -0,0 +1,13 @@
+package com.kristian.inventory.service;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@ResponseStatus(HttpStatus.BAD_REQUEST)
+public class InvalidStockEventException extends IllegalArgumentException {
+
+    public InvalidStockEventException(String message) {
+        super(message);
+    }
+
+}
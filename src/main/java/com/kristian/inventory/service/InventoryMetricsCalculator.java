@@ -0,0 +1,180 @@
+package com.kristian.inventory.service;
+
+import com.kristian.inventory.dto.InventoryMetrics;
+import com.kristian.inventory.model.Product;
+import com.kristian.inventory.repository.CategoryTotals;
+import com.kristian.inventory.repository.ParallelScan;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.*;
+
+/*
+ Builds InventoryMetrics in two ways:
+ - fromTotals: from the running per-category totals of the repository, O(number of categories)
+ - compute: full recomputation over a list of products, used to check the running totals
+   (optionally split over several threads, see ParallelScan)
+*/
+public final class InventoryMetricsCalculator {
+
+    private InventoryMetricsCalculator() {
+    }
+
+    public static InventoryMetrics fromTotals(Map<String, CategoryTotals> totalsByCategory) {
+        int totalStock = 0;
+        BigDecimal totalValue = BigDecimal.ZERO;
+        BigDecimal totalPriceSum = BigDecimal.ZERO;
+        int inStockCount = 0;
+
+        Map<String, InventoryMetrics.CategoryMetrics> byCategory = new HashMap<>();
+
+        for (Map.Entry<String, CategoryTotals> entry : totalsByCategory.entrySet()) {
+            CategoryTotals totals = entry.getValue();
+
+            totalStock += totals.getTotalStock();
+            totalValue = totalValue.add(totals.getTotalValue());
+            totalPriceSum = totalPriceSum.add(totals.getInStockPriceSum());
+            inStockCount += totals.getInStockCount();
+
+            byCategory.put(entry.getKey(), new InventoryMetrics.CategoryMetrics(
+                    totals.getTotalStock(),
+                    totals.getTotalValue(),
+                    average(totals.getInStockPriceSum(), totals.getInStockCount())
+            ));
+        }
+
+        return metrics(totalStock, totalValue, average(totalPriceSum, inStockCount), byCategory);
+    }
+
+    public static InventoryMetrics compute(Collection<Product> products) {
+        Totals totals = new Totals();
+        products.forEach(totals::add);
+        return totals.toMetrics();
+    }
+
+    // Same result as compute(products): every task sums its part of the list, the parts are added up after
+    public static InventoryMetrics compute(List<Product> products, ParallelScan scan) {
+        return scan.reduce(products.size(), Totals::new, (totals, i) -> totals.add(products.get(i)), Totals::merge)
+                .toMetrics();
+    }
+
+    // The sums compute() builds up, for one list or one part of it
+    private static final class Totals {
+        int totalStock = 0;
+        BigDecimal totalValue = BigDecimal.ZERO;
+        BigDecimal totalPriceSum = BigDecimal.ZERO;
+        int inStockCount = 0;
+
+        final Map<String, Integer> categoryToStock = new HashMap<>();
+        final Map<String, BigDecimal> categoryToValue = new HashMap<>();
+        final Map<String, BigDecimal> categoryToPriceSum = new HashMap<>();
+        final Map<String, Integer> categoryToInStockCount = new HashMap<>();
+
+        void add(Product product) {
+            int qty = product.getQuantityInStock();
+            BigDecimal price = product.getUnitPrice();
+            BigDecimal value = price.multiply(BigDecimal.valueOf(qty));
+
+            totalStock += qty;
+            totalValue = totalValue.add(value);
+
+            if (qty > 0) {
+                totalPriceSum = totalPriceSum.add(price);
+                inStockCount++;
+            }
+
+            String category = product.getCategory();
+
+            categoryToStock.put(
+                    category,
+                    categoryToStock.getOrDefault(category, 0) + qty
+            );
+
+            categoryToValue.put(
+                    category,
+                    categoryToValue.getOrDefault(category, BigDecimal.ZERO).add(value)
+            );
+
+            if (qty > 0) {
+                categoryToPriceSum.put(
+                        category,
+                        categoryToPriceSum.getOrDefault(category, BigDecimal.ZERO).add(price)
+                );
+
+                categoryToInStockCount.put(
+                        category,
+                        categoryToInStockCount.getOrDefault(category, 0) + 1
+                );
+            }
+        }
+
+        // BigDecimal addition is exact, so the order the parts are added in does not change the result
+        Totals merge(Totals other) {
+            totalStock += other.totalStock;
+            totalValue = totalValue.add(other.totalValue);
+            totalPriceSum = totalPriceSum.add(other.totalPriceSum);
+            inStockCount += other.inStockCount;
+            other.categoryToStock.forEach((category, stock) -> categoryToStock.merge(category, stock, Integer::sum));
+            other.categoryToValue.forEach((category, value) -> categoryToValue.merge(category, value, BigDecimal::add));
+            other.categoryToPriceSum.forEach((category, sum) -> categoryToPriceSum.merge(category, sum, BigDecimal::add));
+            other.categoryToInStockCount.forEach((category, count) -> categoryToInStockCount.merge(category, count, Integer::sum));
+            return this;
+        }
+
+        InventoryMetrics toMetrics() {
+            Map<String, InventoryMetrics.CategoryMetrics> byCategory = new HashMap<>();
+
+            for (String category : categoryToStock.keySet()) {
+                int catStock = categoryToStock.get(category);
+                BigDecimal catValue = categoryToValue.get(category);
+                BigDecimal catAveragePrice = average(
+                        categoryToPriceSum.getOrDefault(category, BigDecimal.ZERO),
+                        categoryToInStockCount.getOrDefault(category, 0)
+                );
+
+                byCategory.put(category, new InventoryMetrics.CategoryMetrics(catStock, catValue, catAveragePrice));
+            }
+
+            return metrics(totalStock, totalValue, average(totalPriceSum, inStockCount), byCategory);
+        }
+    }
+
+    // Field by field, BigDecimal.equals so a different scale also counts as a difference
+    public static boolean same(InventoryMetrics a, InventoryMetrics b) {
+        if (a.getTotalStock() != b.getTotalStock()
+                || !a.getTotalValue().equals(b.getTotalValue())
+                || !a.getAveragePrice().equals(b.getAveragePrice())
+                || !a.getByCategory().keySet().equals(b.getByCategory().keySet())) {
+            return false;
+        }
+
+        for (Map.Entry<String, InventoryMetrics.CategoryMetrics> entry : a.getByCategory().entrySet()) {
+            InventoryMetrics.CategoryMetrics x = entry.getValue();
+            InventoryMetrics.CategoryMetrics y = b.getByCategory().get(entry.getKey());
+            if (x.getTotalStock() != y.getTotalStock()
+                    || !x.getTotalValue().equals(y.getTotalValue())
+                    || !x.getAveragePrice().equals(y.getAveragePrice())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static BigDecimal average(BigDecimal priceSum, int count) {
+        if (count <= 0) {
+            return BigDecimal.ZERO;
+        }
+        return priceSum.divide(BigDecimal.valueOf(count), 2, RoundingMode.HALF_UP);
+    }
+
+    private static InventoryMetrics metrics(int totalStock, BigDecimal totalValue, BigDecimal averagePrice,
+                                            Map<String, InventoryMetrics.CategoryMetrics> byCategory) {
+        InventoryMetrics metrics = new InventoryMetrics();
+        metrics.setTotalStock(totalStock);
+        metrics.setTotalValue(totalValue);
+        metrics.setAveragePrice(averagePrice);
+        metrics.setByCategory(byCategory);
+        return metrics;
+    }
+
+}
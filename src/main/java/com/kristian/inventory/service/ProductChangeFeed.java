@@ -0,0 +1,298 @@
+package com.kristian.inventory.service;
+
+import com.kristian.inventory.config.InventoryProperties;
+import com.kristian.inventory.dto.ProductChangeEvent;
+import com.kristian.inventory.model.Product;
+import com.kristian.inventory.repository.InMemoryProductRepository;
+import com.kristian.inventory.repository.ProductChange;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.context.event.ContextClosedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/*
+ Every write to the catalog (and every product that expired, see ExpirySweeper) as a numbered event,
+ streamed to clients over Server-Sent Events, so they can keep a copy of the catalog up to date instead of
+ polling GET /products.
+
+ The repository tells the feed about each change (ProductChangeListener); the feed numbers it and puts it
+ into a ring buffer of the last `capacity` changes. That is all a write pays: a number from an AtomicLong,
+ a slot write and a compare-and-set, no lock (the repository calls in under the lock of the product, a
+ lock here would line up every write). Writers never wait for clients. Each client has its own sender
+ thread that reads the ring from its position on and writes whatever is new in one go.
+
+ Writers can fill their slots out of order, so the feed publishes a number only when every number before
+ it is in the ring too (`published`): whichever writer fills the gap moves it on. A writer can even be
+ lapped by one a whole ring later; it then leaves the newer event in the slot and its own counts as
+ overwritten. Senders read the numbers they expect and check each slot: one holding anything else means
+ they fell a ring behind, and they are dropped (`overflow`) instead of being sent events out of order.
+ Senders with nothing to send park and are unparked by the next write.
+
+ An event id is the number with a prefix for this run of the application, <run>-<n>. Clients resume
+ with the id of the last event they got (Last-Event-ID, sent by EventSource on reconnect): everything
+ after it that is still in the ring is sent first. An id from an earlier run (numbers start over on
+ restart) or one the ring has wrapped past gets a 410, and so does a client that falls that far behind
+ while streaming (an `overflow` event, then the stream is closed): it has to reload the catalog.
+
+ Needs the memory backend, the columnar one does not report its changes (the feed then stays empty).
+*/
+@Service
+public class ProductChangeFeed {
+
+    private static final Logger log = LoggerFactory.getLogger(ProductChangeFeed.class);
+
+    // Most events sent (and flushed) at once
+    private static final int SEND_BATCH = 256;
+
+    private final String run = Long.toString(System.currentTimeMillis(), 36);
+    private final int maxSubscribers;
+    private final long heartbeatNanos;
+    private final long timeoutMillis;
+    private final ExecutorService senders;
+    private final AtomicInteger subscribers = new AtomicInteger();
+    private final AtomicLong overflows = new AtomicLong();
+    private volatile boolean closed;
+
+    // Event n is at ring[n % capacity]. sequence is the last number handed out, published the last one
+    // that senders may read: events 1..published are all in the ring or overwritten by newer ones.
+    private final AtomicReferenceArray<ProductChangeEvent> ring;
+    private final AtomicLong sequence = new AtomicLong();
+    private final AtomicLong published = new AtomicLong();
+    private final Set<Thread> parkedSenders = ConcurrentHashMap.newKeySet();
+
+    public ProductChangeFeed(ObjectProvider<InMemoryProductRepository> memory, InventoryProperties properties) {
+        InventoryProperties.ChangeFeed settings = properties.getChangeFeed();
+        this.ring = new AtomicReferenceArray<>(Math.max(1, settings.getCapacity()));
+        this.maxSubscribers = settings.getMaxSubscribers();
+        this.heartbeatNanos = settings.getHeartbeat().toNanos();
+        this.timeoutMillis = settings.getTimeout().toMillis();
+
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.senders = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "change-feed-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        InMemoryProductRepository repository = memory.getIfAvailable();
+        if (repository == null) {
+            log.info("The storage backend does not report its changes, the change feed stays empty");
+        } else {
+            repository.addChangeListener(this::onChange);
+        }
+    }
+
+    // Called under the lock of the product's id, so the changes of one product get increasing numbers
+    private void onChange(ProductChange change) {
+        publish(change.type().name().toLowerCase(), change.id(), change.product());
+    }
+
+    // Expiring doesn't change a product, the feed tells its clients anyway (ExpirySweeper)
+    @EventListener
+    public void onProductsExpired(ProductsExpiredEvent event) {
+        for (Product product : event.products()) {
+            publish("expired", product.getId(), product);
+        }
+    }
+
+    private void publish(String type, Long id, Product product) {
+        long next = sequence.incrementAndGet();
+        // Never over a newer event: a writer a ring later may have been faster
+        ring.accumulateAndGet(slot(next), new ProductChangeEvent(run, next, type, id, product),
+                (current, event) -> current != null && current.getSequence() > event.getSequence() ? current : event);
+
+        // Publish as far as the ring has no gaps; a writer still filling an earlier slot publishes this one too
+        boolean moved = false;
+        long last;
+        while (isFilled((last = published.get()) + 1)) {
+            moved |= published.compareAndSet(last, last + 1);
+        }
+        if (moved && !parkedSenders.isEmpty()) {
+            parkedSenders.forEach(LockSupport::unpark);
+        }
+    }
+
+    // Number of the newest event, 0 if nothing has changed since startup
+    public long getLastSequence() {
+        return published.get();
+    }
+
+    // The id of event n as sent to clients (Last-Event-ID)
+    public String eventId(long sequence) {
+        return ProductChangeEvent.eventId(run, sequence);
+    }
+
+    public int getSubscriberCount() {
+        return subscribers.get();
+    }
+
+    // Clients dropped because they fell behind the ring
+    public long getOverflowCount() {
+        return overflows.get();
+    }
+
+    // Up to max events after the given number, oldest first. ChangeFeedGoneException if some of them are no longer kept.
+    public List<ProductChangeEvent> eventsAfter(long sequence, int max) {
+        long last = published.get();
+        checkResumable(sequence, last);
+        long to = Math.min(last, sequence + max);
+        List<ProductChangeEvent> events = new ArrayList<>((int) (to - sequence));
+        for (long next = sequence + 1; next <= to; next++) {
+            ProductChangeEvent event = ring.get(slot(next));
+            // Overwritten by a newer event since the check: the sender goes to the overflow path
+            if (event == null || event.getSequence() != next) {
+                throw new ChangeFeedGoneException(sequence, this.sequence.get() - ring.length() + 1, last);
+            }
+            events.add(event);
+        }
+        return events;
+    }
+
+    /*
+     Stream of the events after the one with id `after` (null: only the ones from now on). Checked before the
+     stream starts: ChangeFeedGoneException if the feed can't resume there, ChangeFeedBusyException if
+     max-subscribers streams are open.
+    */
+    public SseEmitter subscribe(String after) {
+        long start = after == null ? published.get() : sequenceOf(after);
+        checkResumable(start, published.get());
+        if (subscribers.incrementAndGet() > maxSubscribers) {
+            subscribers.decrementAndGet();
+            throw new ChangeFeedBusyException(maxSubscribers);
+        }
+
+        SseEmitter emitter = new SseEmitter(timeoutMillis);
+        AtomicBoolean done = new AtomicBoolean();
+        emitter.onCompletion(() -> done.set(true));
+        emitter.onTimeout(() -> done.set(true));
+        emitter.onError(error -> done.set(true));
+        try {
+            senders.execute(() -> send(emitter, start, done));
+        } catch (RuntimeException e) {
+            subscribers.decrementAndGet();
+            throw e;
+        }
+        return emitter;
+    }
+
+    // Already when the context starts closing: open streams would otherwise keep the graceful shutdown of the web
+    // server waiting until its timeout
+    @EventListener(ContextClosedEvent.class)
+    @PreDestroy
+    public void close() {
+        closed = true;
+        parkedSenders.forEach(LockSupport::unpark);
+        senders.shutdownNow();
+    }
+
+    // Runs on the client's own sender thread until the client goes away, falls behind or the feed is closed
+    private void send(SseEmitter emitter, long after, AtomicBoolean done) {
+        long position = after;
+        try {
+            while (!done.get() && !closed) {
+                List<ProductChangeEvent> events;
+                try {
+                    events = awaitEventsAfter(position);
+                } catch (ChangeFeedGoneException e) {
+                    overflows.incrementAndGet();
+                    log.info("Dropping a change feed client that fell behind at {}", position);
+                    emitter.send(SseEmitter.event().name("overflow").data(e.getMessage()));
+                    break;
+                }
+
+                if (events.isEmpty()) {
+                    emitter.send(SseEmitter.event().comment("heartbeat"));
+                    continue;
+                }
+                Set<SseEmitter.DataWithMediaType> batch = new LinkedHashSet<>();
+                for (ProductChangeEvent event : events) {
+                    batch.addAll(SseEmitter.event()
+                            .id(event.getEventId())
+                            .name(event.getType())
+                            .data(event, MediaType.APPLICATION_JSON)
+                            .build());
+                }
+                emitter.send(batch);
+                position = events.get(events.size() - 1).getSequence();
+            }
+            emitter.complete();
+        } catch (IOException | IllegalStateException e) {
+            // The client went away, or the stream timed out and was completed by the container
+            log.debug("Change feed client gone at {}", position, e);
+        } catch (InterruptedException e) {
+            emitter.complete();
+        } finally {
+            subscribers.decrementAndGet();
+        }
+    }
+
+    // Waits up to one heartbeat for events after position. Parked before the check, so a write in between unparks it.
+    private List<ProductChangeEvent> awaitEventsAfter(long position) throws InterruptedException {
+        if (position == published.get() && !closed) {
+            Thread sender = Thread.currentThread();
+            parkedSenders.add(sender);
+            try {
+                if (position == published.get() && !closed) {
+                    LockSupport.parkNanos(this, heartbeatNanos);
+                }
+            } finally {
+                parkedSenders.remove(sender);
+            }
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+        }
+        return eventsAfter(position, SEND_BATCH);
+    }
+
+    private int slot(long sequence) {
+        return (int) (sequence % ring.length());
+    }
+
+    // Filled, or already overwritten by a newer event (nobody can read this one any more)
+    private boolean isFilled(long sequence) {
+        ProductChangeEvent event = ring.get(slot(sequence));
+        return event != null && event.getSequence() >= sequence;
+    }
+
+    // <run>-<n> of this run; ChangeFeedGoneException for anything else
+    private long sequenceOf(String eventId) {
+        String prefix = run + "-";
+        if (eventId.startsWith(prefix)) {
+            try {
+                return Long.parseLong(eventId.substring(prefix.length()));
+            } catch (NumberFormatException ignored) {
+                // not one of ours
+            }
+        }
+        throw new ChangeFeedGoneException(eventId);
+    }
+
+    // Events sequence + 1 .. last all have to be in the ring
+    private void checkResumable(long sequence, long last) {
+        long oldest = Math.max(1, last - ring.length() + 1);
+        if (sequence > last || sequence < oldest - 1) {
+            throw new ChangeFeedGoneException(sequence, oldest, last);
+        }
+    }
+
+}
@@ -0,0 +1,250 @@
+package com.kristian.inventory.service;
+
+import com.kristian.inventory.config.InventoryProperties;
+import com.kristian.inventory.dto.ProductChangeSet;
+import com.kristian.inventory.model.Product;
+import com.kristian.inventory.repository.InMemoryProductRepository;
+import com.kristian.inventory.repository.ProductChange;
+import com.kristian.inventory.repository.ProductRepository;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.stereotype.Service;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/*
+ Answers "what changed since ..." (GET /products/changes) in time proportional to the changes, not the catalog.
+
+ Every product has one entry, keyed by the time of its last change; a deleted product keeps one too (a
+ tombstone) for tombstone-retention. The key is a stamp: epoch microseconds, but strictly increasing. Writers
+ take stamps from one counter without a lock, so a write with a lower stamp can still be on its way into the
+ index when a higher one is already in. Before taking its stamp a writer registers the lowest stamp it can
+ get (the counter + 1) as in flight, and drops it once its entry is in. A reader only goes up to the
+ watermark: the counter, or just below the oldest stamp in flight. So when a reader sees stamp s as the
+ newest, every change up to s is already in the index. A product changed again while a client reads just
+ moves to a newer stamp and comes with the next sync.
+
+ Writes of one product are ordered by the repository (the listener is called under its lock for that id)
+ and by the compute on stampById, which is also what keeps the walk at startup from overwriting a newer
+ write. Nothing here is locked across products.
+
+ The repository reports the writes (ProductChangeListener), so this needs the memory backend. Products that
+ were loaded before the listener was added are entered when the index starts. The index takes the
+ ProductRepository bean only so that it starts after it: with persistence that is PersistentProductRepository,
+ whose recovery loads the snapshot without telling the listeners.
+ Stamps from before that, or from before the oldest forgotten tombstone, can't be answered completely: the
+ client gets a SyncTooOldException (410) and syncs again from 0. Tombstones are forgotten by a thread of
+ their own, once a minute, so a write never waits for that.
+*/
+@Service
+public class ProductChangeIndex {
+
+    private static final long PURGE_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    // product is null for a tombstone
+    private record Entry(long stamp, Long id, Product product) {
+    }
+
+    // null without the memory backend
+    private final InMemoryProductRepository repository;
+    private final long retentionMicros;
+
+    private final ConcurrentSkipListMap<Long, Entry> byStamp = new ConcurrentSkipListMap<>();
+    private final Map<Long, Long> stampById = new ConcurrentHashMap<>();
+    // Roughly oldest first, entries that were replaced in the meantime are skipped when purging
+    private final Queue<Entry> tombstones = new ConcurrentLinkedQueue<>();
+    private final AtomicLong lastStamp = new AtomicLong();
+    // Lowest stamp each writer in flight can get -> number of writers
+    private final ConcurrentSkipListMap<Long, Integer> inFlight = new ConcurrentSkipListMap<>();
+    // Changes at or before the horizon may be incomplete (forgotten deletes). Only written by purgeTombstones.
+    private volatile long horizon;
+    private final ScheduledExecutorService purger;
+
+    public ProductChangeIndex(ProductRepository recovered, ObjectProvider<InMemoryProductRepository> memory,
+                              InventoryProperties properties) {
+        this.retentionMicros = properties.getChanges().getTombstoneRetention().toNanos() / 1000;
+        this.repository = memory.getIfAvailable();
+        this.purger = repository == null ? null : Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "tombstone-purger");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    // Not in the constructor: writes on other threads must not reach onChange before the index is constructed
+    @PostConstruct
+    public void start() {
+        if (repository == null) {
+            return;
+        }
+
+        horizon = nextStamp();
+        repository.addChangeListener(this::onChange);
+        // A product written after the listener was added is already in, whatever the walk read for it is older
+        try (Stream<Product> products = repository.streamAll()) {
+            products.forEach(product -> {
+                long floor = enter();
+                try {
+                    long stamp = nextStamp();
+                    stampById.computeIfAbsent(product.getId(), id -> {
+                        byStamp.put(stamp, new Entry(stamp, id, product));
+                        return stamp;
+                    });
+                } finally {
+                    leave(floor);
+                }
+            });
+        }
+
+        purger.scheduleWithFixedDelay(this::purgeTombstones, PURGE_INTERVAL_MILLIS, PURGE_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    // Stamp of the first change after this time (times are in the zone the timestamps of the products are in)
+    public static long stampOf(LocalDateTime time) {
+        return micros(time.atZone(ZoneId.systemDefault()).toInstant());
+    }
+
+    /*
+     The products created, changed or deleted after `since` (a stamp from `next`, 0 for everything), at most
+     limit of them, oldest change first. Products are in their current state and come once, however often
+     they changed.
+    */
+    public ProductChangeSet changesSince(long since, int limit) {
+        if (repository == null) {
+            throw new ChangeTrackingUnavailableException();
+        }
+        long watermark = watermark();
+        checkComplete(since);
+        // A since from the future, or a next from just before a writer entered (the watermark goes back then)
+        if (since >= watermark) {
+            return new ProductChangeSet(List.of(), List.of(), since, false);
+        }
+
+        List<Product> updated = new ArrayList<>();
+        List<Long> deleted = new ArrayList<>();
+        long next = since;
+        boolean more = false;
+        for (Entry entry : byStamp.subMap(since, false, watermark, true).values()) {
+            if (updated.size() + deleted.size() == limit) {
+                more = true;
+                break;
+            }
+            if (entry.product() == null) {
+                deleted.add(entry.id());
+            } else {
+                updated.add(entry.product());
+            }
+            next = entry.stamp();
+        }
+        if (!more) {
+            next = Math.max(since, watermark);
+        }
+
+        // A tombstone after since could have been forgotten while reading
+        checkComplete(since);
+        return new ProductChangeSet(updated, deleted, next, more);
+    }
+
+    public int size() {
+        return byStamp.size();
+    }
+
+    /*
+     Forgets the tombstones older than tombstone-retention, measured from the newest stamp; runs on the
+     purger thread. Synchronized only against another purge, writers and readers never take this lock.
+    */
+    public synchronized void purgeTombstones() {
+        long before = Math.max(lastStamp.get(), micros(Instant.now())) - retentionMicros;
+        Entry tombstone;
+        while ((tombstone = tombstones.peek()) != null && tombstone.stamp() < before) {
+            tombstones.poll();
+            Entry forgotten = tombstone;
+            // Unless the id was written again since
+            stampById.computeIfPresent(forgotten.id(), (id, stamp) ->
+                    stamp == forgotten.stamp() && byStamp.remove(stamp, forgotten) ? null : stamp);
+            horizon = Math.max(horizon, forgotten.stamp());
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        if (purger != null) {
+            purger.shutdownNow();
+        }
+    }
+
+    // The stored product is never changed after the write (the repository stores a new copy each time), so it is kept as is
+    private void onChange(ProductChange change) {
+        Product product = change.type() == ProductChange.Type.DELETED ? null : change.product();
+        long floor = enter();
+        try {
+            long stamp = nextStamp();
+            Entry entry = new Entry(stamp, change.id(), product);
+            stampById.compute(change.id(), (id, previous) -> {
+                if (previous != null) {
+                    byStamp.remove(previous);
+                }
+                byStamp.put(stamp, entry);
+                return stamp;
+            });
+            if (product == null) {
+                tombstones.add(entry);
+            }
+        } finally {
+            leave(floor);
+        }
+    }
+
+    // Registers a writer before it takes its stamp, returns the lowest stamp it can get
+    private long enter() {
+        long floor = lastStamp.get() + 1;
+        inFlight.merge(floor, 1, Integer::sum);
+        return floor;
+    }
+
+    private void leave(long floor) {
+        inFlight.computeIfPresent(floor, (stamp, writers) -> writers == 1 ? null : writers - 1);
+    }
+
+    // Newest stamp up to which every change is in the index
+    private long watermark() {
+        // Read the counter first: a stamp at or below it was taken after its writer entered
+        long last = lastStamp.get();
+        Map.Entry<Long, Integer> oldest = inFlight.firstEntry();
+        return oldest == null ? last : Math.min(last, oldest.getKey() - 1);
+    }
+
+    private long nextStamp() {
+        long now = micros(Instant.now());
+        return lastStamp.accumulateAndGet(now, (last, time) -> Math.max(last + 1, time));
+    }
+
+    // Not ChronoUnit.MICROS.between: that goes through nanoseconds and overflows after the year 2262
+    private static long micros(Instant time) {
+        return time.getEpochSecond() * 1_000_000 + time.getNano() / 1000;
+    }
+
+    private void checkComplete(long since) {
+        long current = horizon;
+        if (since > 0 && since < current) {
+            throw new SyncTooOldException(since, current);
+        }
+    }
+
+}
@@ -0,0 +1,52 @@
+package com.kristian.inventory.service;
+
+import com.kristian.inventory.model.Product;
+import com.kristian.inventory.repository.ProductSortField;
+import com.kristian.inventory.repository.SortPosition;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/*
+ Opaque keyset cursor: the sort (field + direction) and the position of the last product of a page.
+
+ Encoded as base64url("field|dir|id|key"), the key goes last because names can contain '|'.
+ A missing key (no expiration date) is written as an empty key with a '-' marker instead of '+'.
+*/
+record ProductCursor(ProductSortField field, boolean descending, SortPosition after) {
+
+    static ProductCursor after(ProductSortField field, boolean descending, Product last) {
+        return new ProductCursor(field, descending, new SortPosition(field.keyOf(last), last.getId()));
+    }
+
+    String encode() {
+        Object key = after.key();
+        String raw = field.name() + "|" + (descending ? "desc" : "asc") + "|" + after.id() + "|"
+                + (key == null ? "-" : "+" + key);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    static ProductCursor decode(String cursor) {
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            String[] parts = raw.split("\\|", 4);
+
+            ProductSortField field = ProductSortField.valueOf(parts[0]);
+            boolean descending = parts[1].equals("desc");
+            Long id = Long.valueOf(parts[2]);
+            Object key;
+            if (parts[3].startsWith("+")) {
+                key = field.parseKey(parts[3].substring(1));
+            } else if (parts[3].equals("-")) {
+                key = null;
+            } else {
+                throw new IllegalArgumentException("Unknown key marker");
+            }
+
+            return new ProductCursor(field, descending, new SortPosition(key, id));
+        } catch (RuntimeException e) {
+            throw new InvalidCursorException("Invalid cursor: " + cursor, e);
+        }
+    }
+
+}
@@ -0,0 +1,125 @@
+package com.kristian.inventory.service;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.kristian.inventory.model.Product;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.stream.Stream;
+
+/*
+ Exports the catalog (or the part matching the listing filters) of any size without holding it in memory.
+
+ Products come one at a time from ProductService.streamFilteredProducts and are written straight into a
+ fixed-size buffer in front of the output stream, which is flushed whenever it fills up. Nothing grows with
+ the catalog: no list of products, no list of lines, no document tree. Products saved during the export may
+ or may not be in it (see ProductRepository.streamAll).
+*/
+@Service
+public class ProductExportService {
+
+    public enum Format {
+        NDJSON, CSV
+    }
+
+    static final int BUFFER_SIZE = 64 * 1024;
+
+    static final String CSV_HEADER = "id,name,category,unitPrice,quantityInStock,expirationDate,createdAt,updatedAt";
+
+    private final ProductService productService;
+    private final ObjectWriter productWriter;
+
+    public ProductExportService(ProductService productService, ObjectMapper objectMapper) {
+        this.productService = productService;
+        // Otherwise every product would flush the buffer through to the client
+        this.productWriter = objectMapper.writerFor(Product.class).without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+    }
+
+    // Writes the matching products to output and returns how many. output is flushed but not closed.
+    public long export(Format format, String name, String category, Boolean availability, OutputStream output) throws IOException {
+        BufferedOutputStream buffered = new BufferedOutputStream(output, BUFFER_SIZE);
+        try (Stream<Product> products = productService.streamFilteredProducts(name, category, availability)) {
+            long written = format == Format.CSV
+                    ? writeCsv(products.iterator(), buffered)
+                    : writeNdjson(products.iterator(), buffered);
+            buffered.flush();
+            return written;
+        }
+    }
+
+    // One generator for the whole export, each product is one root value followed by a line break
+    private long writeNdjson(Iterator<Product> products, OutputStream output) throws IOException {
+        long written = 0;
+        try (JsonGenerator generator = productWriter.getFactory().createGenerator(output)) {
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            generator.setRootValueSeparator(null);
+            while (products.hasNext()) {
+                productWriter.writeValue(generator, products.next());
+                generator.writeRaw('\n');
+                written++;
+            }
+        }
+        return written;
+    }
+
+    private long writeCsv(Iterator<Product> products, OutputStream output) throws IOException {
+        // The writer's own buffer is small, the BufferedOutputStream behind it does the batching
+        Writer writer = new OutputStreamWriter(output, StandardCharsets.UTF_8);
+        writer.write(CSV_HEADER);
+        writer.write("\r\n");
+
+        long written = 0;
+        while (products.hasNext()) {
+            Product product = products.next();
+            writer.write(String.valueOf(product.getId()));
+            writer.write(',');
+            writeCsvField(writer, product.getName());
+            writer.write(',');
+            writeCsvField(writer, product.getCategory());
+            writer.write(',');
+            writeCsvField(writer, product.getUnitPrice() == null ? null : product.getUnitPrice().toPlainString());
+            writer.write(',');
+            writer.write(Integer.toString(product.getQuantityInStock()));
+            writer.write(',');
+            writeCsvField(writer, product.getExpirationDate());
+            writer.write(',');
+            writeCsvField(writer, product.getCreatedAt());
+            writer.write(',');
+            writeCsvField(writer, product.getUpdatedAt());
+            writer.write("\r\n");
+            written++;
+        }
+        writer.flush();
+        return written;
+    }
+
+    // RFC 4180: quoted only if needed, quotes inside doubled; null is an empty field
+    private static void writeCsvField(Writer writer, Object value) throws IOException {
+        if (value == null) {
+            return;
+        }
+        String text = value.toString();
+        boolean quote = false;
+        for (int i = 0; i < text.length() && !quote; i++) {
+            char c = text.charAt(i);
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!quote) {
+            writer.write(text);
+            return;
+        }
+        writer.write('"');
+        writer.write(text.replace("\"", "\"\""));
+        writer.write('"');
+    }
+
+}
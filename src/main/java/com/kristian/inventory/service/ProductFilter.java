@@ -0,0 +1,110 @@
+package com.kristian.inventory.service;
+
+import com.kristian.inventory.model.Product;
+
+import java.util.Objects;
+import java.util.StringJoiner;
+
+/*
+ The name / category / availability filters of the listing endpoints as one predicate.
+
+ The query is lower-cased once when the filter is built and compared with the name the product already
+ keeps lower-cased. Each product is checked in a single pass, instead of one stream (and one list) per filter. Empty strings mean "no filter", like before.
+ Filters that match the same products (name and category compare lower-cased) are equal, so a filter can be
+ used as a cache key.
+*/
+final class ProductFilter {
+
+    private final String name;
+    private final String nameQuery;
+    private final String category;
+    private final String categoryQuery;
+    private final Boolean availability;
+
+    private ProductFilter(String name, String category, Boolean availability) {
+        this.name = name;
+        this.nameQuery = name == null ? null : name.toLowerCase();
+        this.category = category;
+        this.categoryQuery = category == null ? null : category.toLowerCase();
+        this.availability = availability;
+    }
+
+    static ProductFilter of(String name, String category, Boolean availability) {
+        return new ProductFilter(
+                name == null || name.isEmpty() ? null : name,
+                category == null || category.isEmpty() ? null : category,
+                availability
+        );
+    }
+
+    boolean matches(Product product) {
+        if (nameQuery != null
+                && (product.getNormalizedName() == null || !product.getNormalizedName().contains(nameQuery))) {
+            return false;
+        }
+        if (category != null
+                && (product.getCategory() == null || !product.getCategory().equalsIgnoreCase(category))) {
+            return false;
+        }
+        if (availability != null) {
+            int qty = product.getQuantityInStock();
+            return availability ? qty > 0 : qty == 0;
+        }
+        return true;
+    }
+
+    boolean isEmpty() {
+        return name == null && category == null && availability == null;
+    }
+
+    // The filters that are set, like name+category, for query plans
+    String describe() {
+        StringJoiner filters = new StringJoiner("+");
+        if (name != null) {
+            filters.add("name");
+        }
+        if (category != null) {
+            filters.add("category");
+        }
+        if (availability != null) {
+            filters.add("availability");
+        }
+        return filters.toString();
+    }
+
+    String getName() {
+        return name;
+    }
+
+    String getCategory() {
+        return category;
+    }
+
+    Boolean getAvailability() {
+        return availability;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof ProductFilter other)) {
+            return false;
+        }
+        return Objects.equals(nameQuery, other.nameQuery)
+                && Objects.equals(categoryQuery, other.categoryQuery)
+                && Objects.equals(availability, other.availability);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(nameQuery, categoryQuery, availability);
+    }
+
+    @Override
+    public String toString() {
+        return "ProductFilter{name='" + name + "', category='" + category + "', availability=" + availability + '}';
+    }
+
+}
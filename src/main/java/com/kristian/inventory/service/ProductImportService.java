@@ -0,0 +1,65 @@
+package com.kristian.inventory.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.kristian.inventory.config.InventoryProperties;
+import com.kristian.inventory.dto.ImportProgress;
+import com.kristian.inventory.model.Product;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/*
+ Imports a product feed of any size without holding it in memory.
+
+ The input is parsed one product at a time, either NDJSON (one product per line) or a JSON array
+ (Jackson iterates the elements of a root-level array). Products are created in batches through
+ ProductService.createProducts, and after each batch the caller gets an ImportProgress. Only one
+ batch is ever in memory. Batches that were committed before a bad row stay imported.
+*/
+@Service
+public class ProductImportService {
+
+    private final ProductService productService;
+    private final ObjectMapper objectMapper;
+    private final int batchSize;
+
+    public ProductImportService(ProductService productService, ObjectMapper objectMapper, InventoryProperties properties) {
+        this.productService = productService;
+        this.objectMapper = objectMapper;
+        this.batchSize = Math.max(1, properties.getImport().getBatchSize());
+    }
+
+    public ImportProgress importProducts(InputStream input, Consumer<ImportProgress> onBatch) throws IOException {
+        List<Product> batch = new ArrayList<>(batchSize);
+        int batches = 0;
+        long imported = 0;
+
+        try (MappingIterator<Product> products = objectMapper.readerFor(Product.class).readValues(input)) {
+            while (products.hasNextValue()) {
+                batch.add(products.nextValue());
+
+                if (batch.size() == batchSize) {
+                    imported += productService.createProducts(batch).size();
+                    onBatch.accept(new ImportProgress(++batches, batch.size(), imported, false, null));
+                    batch = new ArrayList<>(batchSize);
+                }
+            }
+        } catch (JsonProcessingException e) {
+            return new ImportProgress(batches, 0, imported, true, "Invalid product after " + imported + " imported: " + e.getOriginalMessage());
+        }
+
+        if (!batch.isEmpty()) {
+            imported += productService.createProducts(batch).size();
+            onBatch.accept(new ImportProgress(++batches, batch.size(), imported, false, null));
+        }
+
+        return new ImportProgress(batches, 0, imported, true, null);
+    }
+
+}
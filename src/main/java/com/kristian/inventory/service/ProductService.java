@@ -1,18 +1,47 @@
 package com.kristian.inventory.service;
 
+import com.kristian.inventory.dto.CacheStats;
+import com.kristian.inventory.dto.ExplainedPage;
 import com.kristian.inventory.dto.InventoryMetrics;
+import com.kristian.inventory.dto.ProductPage;
+import com.kristian.inventory.dto.StockAdjustmentResult;
 import com.kristian.inventory.model.Product;
+import com.kristian.inventory.repository.StockAdjustment;
 
+import java.math.BigDecimal;
+import java.time.LocalDate;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.stream.Stream;
 
 
 public interface ProductService {
     // Required
     Product createProduct(Product product);
 
+    // Batch version of createProduct
+    List<Product> createProducts(List<Product> products);
+
+    // Replaces the product, whatever version is stored (last write wins)
     Optional<Product> updateProduct(Long id, Product product);
 
+    // Replaces the product only if it is still at expectedVersion, throws ProductVersionConflictException otherwise
+    Optional<Product> updateProduct(Long id, Product product, long expectedVersion);
+
+    // Sets the stock of the current version of the product, without touching the other fields
+    Optional<Product> setQuantityInStock(Long id, int quantity);
+
+    // Adds delta to the stock atomically, throws InsufficientStockException if it would go below 0
+    // (StockOverflowException past Integer.MAX_VALUE)
+    Optional<Product> adjustStock(Long id, int delta);
+
+    // Many adjustments, each applied (or rejected) on its own
+    List<StockAdjustmentResult> adjustStock(List<StockAdjustment> adjustments);
+
+    // Stock change and new price in one write, same rules for the stock as adjustStock
+    Optional<Product> adjustStockAndPrice(Long id, int delta, BigDecimal unitPrice);
+
     boolean deleteProduct(Long id);
 
     List<Product> searchByName(String name);
@@ -21,6 +50,9 @@ public interface ProductService {
 
     List<Product> getOutOfStockProducts();
 
+    // Products whose expiration date is between from and to (inclusive, null = open), soonest first, ties by id
+    List<Product> getProductsExpiringBetween(LocalDate from, LocalDate to);
+
     boolean isAvailable(Long id);
 
     List<Product> getFilteredSortedPaginatedProducts(
@@ -36,9 +68,47 @@ public interface ProductService {
     );
 
 
+    // Same page as getFilteredSortedPaginatedProducts, computed even if it is cached, with the plan of the computation
+    ExplainedPage explainFilteredSortedPaginatedProducts(
+            int page,
+            int size,
+            String sortBy,
+            String sortDir,
+            String secondarySortBy,
+            String secondarySortDir,
+            String name,
+            String category,
+            Boolean availability
+    );
+
+
+    // Same page as getFilteredSortedPaginatedProducts plus the total number of matches (what /count returns)
+    ProductPage getProductPage(
+            int page,
+            int size,
+            String sortBy,
+            String sortDir,
+            String secondarySortBy,
+            String secondarySortDir,
+            String name,
+            String category,
+            Boolean availability
+    );
+
+    // Keyset pagination: the page after the position stored in the cursor, sorted the way the cursor was.
+    // Counting all matches costs a filtered scan, without withTotalCount the total count is -1.
+    ProductPage getProductsAfterCursor(String cursor, int size, String name, String category, Boolean availability,
+                                       boolean withTotalCount);
+
+    // Cursor pointing after the last product of the page, null if there is no next page or the sort can't use cursors
+    String nextCursor(List<Product> page, int size, String sortBy, String sortDir, String secondarySortBy);
 
     List<Product> getAllProducts();
 
+    // The products matching the listing filters, in no particular order, read as the stream is consumed (see
+    // ProductRepository.streamAll). For exports; close the stream when done.
+    Stream<Product> streamFilteredProducts(String name, String category, Boolean availability);
+
     Optional<Product> getProductById(Long id);
 
     // DTO
@@ -46,6 +116,15 @@ public interface ProductService {
 
     long countFilteredProducts(String name, String category, Boolean availability); // JUST TESTING
 
+    // Hit/miss/eviction counters of the page and filter caches, by cache name
+    Map<String, CacheStats> getCacheStats();
+
+    // Entity tags for conditional GETs: one changes with every write to the catalog, the other with every save of
+    // the product. Both are only valid for this run of the application (versions start over on restart).
+    String getCatalogTag();
+
+    String getProductTag(Product product);
+
 
 
 }
@@ -1,21 +1,104 @@
 package com.kristian.inventory.service;
 
+import com.kristian.inventory.config.InventoryProperties;
+import com.kristian.inventory.dto.CacheStats;
+import com.kristian.inventory.dto.ExplainedPage;
 import com.kristian.inventory.dto.InventoryMetrics;
+import com.kristian.inventory.dto.ProductPage;
+import com.kristian.inventory.dto.StockAdjustmentResult;
 import com.kristian.inventory.model.Product;
+import com.kristian.inventory.repository.InsufficientStockException;
+import com.kristian.inventory.repository.ParallelScan;
 import com.kristian.inventory.repository.ProductRepository;
+import com.kristian.inventory.repository.ProductSortField;
+import com.kristian.inventory.repository.ProductVersionConflictException;
+import com.kristian.inventory.repository.StockAdjustment;
+import com.kristian.inventory.repository.StockOverflowException;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 import java.math.BigDecimal;
+import java.time.LocalDate;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.function.UnaryOperator;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 @Service
 public class ProductServiceImpl implements ProductService {
 
+    private static final Logger log = LoggerFactory.getLogger(ProductServiceImpl.class);
+    private static final Logger slowQueryLog = LoggerFactory.getLogger("inventory.slow-query");
+
+    // Top-k selection is used while the requested rows are at most 1/4 of the matches, deeper pages get a full sort
+    private static final int TOP_K_MAX_FRACTION = 4;
+
     private final ProductRepository productRepository;
 
-    public ProductServiceImpl(ProductRepository productRepository){
+    // inventory.metrics.verify=true checks every metrics response against a full recomputation
+    private final boolean verifyMetrics;
+
+    // Filter -> matching products (unsorted), shared by the list and count queries
+    private final VersionedLruCache<ProductFilter, List<Product>> matchCache;
+    private final int maxCachedMatches;
+
+    // All parameters of a listing -> the finished page
+    private final VersionedLruCache<PageQuery, List<Product>> pageCache;
+    private final int maxCachedPageProducts;
+
+    // Sort parameters as parsed, so sortBy=NAME and sortBy=name (or an unknown field and id) share an entry.
+    // secondarySortBy is null for the id tie-break.
+    private record PageQuery(int page, int size, ProductSortField sortBy, boolean descending,
+                             ProductSortField secondarySortBy, boolean secondaryDescending, ProductFilter filter) {
+
+        static PageQuery of(int page, int size, String sortBy, String sortDir,
+                            String secondarySortBy, String secondarySortDir, ProductFilter filter) {
+            ProductSortField secondary = isDefaultTieBreak(secondarySortBy) ? null : ProductSortField.from(secondarySortBy);
+            if (secondary == ProductSortField.ID) {
+                secondary = null;
+            }
+            return new PageQuery(page, size, ProductSortField.from(sortBy), isDescending(sortDir),
+                    secondary, secondary != null && isDescending(secondarySortDir), filter);
+        }
+    }
+
+    // inventory.parallel.*: big filters, sorts and recomputations are split over the fork-join pool
+    private final ParallelScan scan;
+
+    // Part of every tag, so a tag handed out before a restart never matches a version counted after it
+    private final String instanceTag = Long.toString(System.currentTimeMillis(), 36);
+
+    // Timers and sizes of the listing stages, see QueryMetrics
+    private final QueryMetrics queryMetrics;
+
+    // Indexes the repository has (names from getIndexSizes), for query plans
+    private final Set<String> indexNames;
+
+    // Listings that take at least this long are logged with their plan (inventory.slow-query.threshold), 0: never
+    private final long slowQueryNanos;
+
+    // Without a registry nothing is recorded (an empty composite registry hands out no-op meters)
+    public ProductServiceImpl(ProductRepository productRepository, InventoryProperties properties){
+        this(productRepository, properties, new CompositeMeterRegistry());
+    }
+
+    @Autowired
+    public ProductServiceImpl(ProductRepository productRepository, InventoryProperties properties, MeterRegistry meterRegistry){
         this.productRepository = productRepository;
+        this.queryMetrics = new QueryMetrics(meterRegistry);
+        this.verifyMetrics = properties.getMetrics().isVerify();
+        this.matchCache = new VersionedLruCache<>(properties.getFilterCache().getEntries());
+        this.maxCachedMatches = properties.getFilterCache().getMaxMatches();
+        this.pageCache = new VersionedLruCache<>(properties.getPageCache().getEntries(), properties.getPageCache().getTtl());
+        this.maxCachedPageProducts = properties.getPageCache().getMaxProducts();
+        this.scan = ParallelScan.of(properties.getParallel());
+        this.slowQueryNanos = properties.getSlowQuery().getThreshold().toNanos();
+        this.indexNames = Set.copyOf(productRepository.getIndexSizes().keySet());
     }
 
     @Override
@@ -23,22 +106,95 @@ public class ProductServiceImpl implements ProductService {
         return productRepository.save(product);
     }
 
+    @Override
+    public List<Product> createProducts(List<Product> products) {
+        return productRepository.saveAll(products);
+    }
+
     @Override
     public Optional<Product> updateProduct(Long id, Product updatedProduct) {
+        return modify(id, existingProduct -> replacement(id, existingProduct, updatedProduct));
+    }
+
+    @Override
+    public Optional<Product> updateProduct(Long id, Product updatedProduct, long expectedVersion) {
         Optional<Product> existingProductOpt = productRepository.findById(id);
 
         if (existingProductOpt.isEmpty()) {
             return Optional.empty();
         }
 
-        Product existingProduct = existingProductOpt.get();
+        Product replacement = replacement(id, existingProductOpt.get(), updatedProduct);
+        return Optional.of(productRepository.compareAndSave(replacement, expectedVersion));
+    }
+
+    @Override
+    public Optional<Product> setQuantityInStock(Long id, int quantity) {
+        return modify(id, existingProduct -> {
+            Product changed = new Product(existingProduct);
+            changed.setQuantityInStock(quantity);
+            return changed;
+        });
+    }
+
+    @Override
+    public Optional<Product> adjustStock(Long id, int delta) {
+        return productRepository.adjustStock(id, delta);
+    }
+
+    @Override
+    public List<StockAdjustmentResult> adjustStock(List<StockAdjustment> adjustments) {
+        List<StockAdjustmentResult> results = new ArrayList<>(adjustments.size());
+        for (StockAdjustment.Result result : productRepository.adjustStockAll(adjustments)) {
+            Product product = result.product();
+            results.add(new StockAdjustmentResult(result.id(), result.outcome().name(),
+                    product == null ? null : product.getQuantityInStock()));
+        }
+        return results;
+    }
 
+    @Override
+    public Optional<Product> adjustStockAndPrice(Long id, int delta, BigDecimal unitPrice) {
+        return modify(id, existingProduct -> {
+            int quantity = existingProduct.getQuantityInStock();
+            long newQuantity = quantity + (long) delta;
+            if (newQuantity < 0) {
+                throw new InsufficientStockException(id, quantity, delta);
+            }
+            if (newQuantity > Integer.MAX_VALUE) {
+                throw new StockOverflowException(id, quantity, delta);
+            }
+            Product changed = new Product(existingProduct);
+            changed.setQuantityInStock((int) newQuantity);
+            changed.setUnitPrice(unitPrice);
+            return changed;
+        });
+    }
+
+    // The new state of the product: everything from the request, id and creation date from the stored one
+    private static Product replacement(Long id, Product existingProduct, Product updatedProduct) {
         updatedProduct.setId(id);
         updatedProduct.setCreatedAt(existingProduct.getCreatedAt());
-        updatedProduct.setUpdatedAt(java.time.LocalDateTime.now());
+        return updatedProduct;
+    }
 
-        Product savedProduct = productRepository.save(updatedProduct);
-        return Optional.of(savedProduct);
+    /*
+     Reads the product, builds its new state from the read version and saves it if nobody saved in between.
+     If somebody did, it starts over from their version: no write is lost and nothing is locked while the
+     new state is built. Empty if the product does not exist (anymore).
+    */
+    private Optional<Product> modify(Long id, UnaryOperator<Product> change) {
+        while (true) {
+            Optional<Product> current = productRepository.findById(id);
+            if (current.isEmpty()) {
+                return Optional.empty();
+            }
+            try {
+                return Optional.of(productRepository.compareAndSave(change.apply(current.get()), current.get().getVersion()));
+            } catch (ProductVersionConflictException e) {
+                log.debug("Retrying write to product {}: {}", id, e.getMessage());
+            }
+        }
     }
 
     @Override
@@ -55,16 +211,12 @@ public class ProductServiceImpl implements ProductService {
 
     @Override
     public List<Product> searchByName(String name) {
-        return productRepository.findAll().stream()
-                .filter(p -> p.getName().toLowerCase().contains(name.toLowerCase()))
-                .collect(Collectors.toList());
+        return productRepository.findByNameContaining(name);
     }
 
     @Override
     public List<Product> filterByCategory(String category) {
-        return productRepository.findAll().stream()
-                .filter(p -> p.getCategory().equalsIgnoreCase(category))
-                .collect(Collectors.toList());
+        return productRepository.findByCategory(category);
     }
 
     @Override
@@ -79,6 +231,14 @@ public class ProductServiceImpl implements ProductService {
         return productRepository.findAll();
     }
 
+    // Straight from the repository walk, not through the caches: nothing is collected
+    @Override
+    public Stream<Product> streamFilteredProducts(String name, String category, Boolean availability) {
+        ProductFilter filter = ProductFilter.of(name, category, availability);
+        Stream<Product> products = productRepository.streamAll();
+        return filter.isEmpty() ? products : products.filter(filter::matches);
+    }
+
     @Override
     public Optional<Product> getProductById(Long id){
         return productRepository.findById(id);
@@ -86,95 +246,198 @@ public class ProductServiceImpl implements ProductService {
 
     @Override
     public List<Product> getOutOfStockProducts() {
-        return productRepository.findAll().stream()
-                .filter(p -> p.getQuantityInStock() == 0)
-                .collect(Collectors.toList());
+        return productRepository.findByAvailability(false);
+    }
+
+    // The in-memory repository answers from its expiration index (O(log n) to find the start, then only the
+    // matches) and already in order, the sort is for the columnar scan
+    @Override
+    public List<Product> getProductsExpiringBetween(LocalDate from, LocalDate to) {
+        List<Product> expiring = new ArrayList<>(productRepository.findByExpirationDateBetween(from, to));
+        expiring.sort(Comparator.comparing(Product::getExpirationDate).thenComparing(Product::getId));
+        return expiring;
     }
 
     @Override
     public InventoryMetrics getInventoryMetrics() {
-        List<Product> products = productRepository.findAll();
+        long start = System.nanoTime();
+        try {
+            return computeInventoryMetrics();
+        } finally {
+            queryMetrics.aggregated(start);
+        }
+    }
+
+    private InventoryMetrics computeInventoryMetrics() {
+        InventoryMetrics metrics = InventoryMetricsCalculator.fromTotals(productRepository.getCategoryTotals());
+
+        // Debug mode: compare the running totals with a full recomputation
+        if (verifyMetrics) {
+            InventoryMetrics recomputed = InventoryMetricsCalculator.compute(productRepository.findAll(), scan);
+            if (!InventoryMetricsCalculator.same(metrics, recomputed)) {
+                log.error("Incremental inventory metrics differ from a full recomputation (stock {} vs {}, value {} vs {})",
+                        metrics.getTotalStock(), recomputed.getTotalStock(),
+                        metrics.getTotalValue(), recomputed.getTotalValue());
+                return recomputed;
+            }
+        }
 
-        int totalStock = 0;
-        BigDecimal totalValue = BigDecimal.ZERO;
-        BigDecimal totalPriceSum = BigDecimal.ZERO;
-        int inStockCount = 0;
+        return metrics;
+    }
 
-        Map<String, Integer> categoryToStock = new HashMap<>();
-        Map<String, BigDecimal> categoryToValue = new HashMap<>();
-        Map<String, BigDecimal> categoryToPriceSum = new HashMap<>();
-        Map<String, Integer> categoryToInStockCount = new HashMap<>();
+    @Override
+    public List<Product> getFilteredSortedPaginatedProducts(
+            int page,
+            int size,
+            String sortBy,
+            String sortDir,
+            String secondarySortBy,
+            String secondarySortDir,
+            String name,
+            String category,
+            Boolean availability
+    ) {
+        long start = System.nanoTime();
+        ProductFilter filter = ProductFilter.of(name, category, availability);
+        PageQuery query = PageQuery.of(page, size, sortBy, sortDir, secondarySortBy, secondarySortDir, filter);
+
+        // Version first, see VersionedLruCache
+        long version = productRepository.getCatalogVersion();
+        List<Product> cached = pageCache.get(query, version);
+        if (cached != null) {
+            queryMetrics.returned(cached.size());
+            logIfSlow(query, start, null);
+            return cached;
+        }
 
-        for (Product product : products) {
-            int qty = product.getQuantityInStock();
-            BigDecimal price = product.getUnitPrice();
-            BigDecimal value = price.multiply(BigDecimal.valueOf(qty));
+        // Traced only for the slow query log
+        QueryTrace trace = slowQueryNanos > 0 ? QueryTrace.start(productRepository.count(), false) : QueryTrace.OFF;
+        List<Product> result = computePage(query, trace);
+        cachePage(query, version, result);
+        queryMetrics.returned(result.size());
+        logIfSlow(query, start, trace);
+        return result;
+    }
 
-            totalStock += qty;
-            totalValue = totalValue.add(value);
+    // Computed even if the page is cached, the point is to see the stages
+    @Override
+    public ExplainedPage explainFilteredSortedPaginatedProducts(
+            int page,
+            int size,
+            String sortBy,
+            String sortDir,
+            String secondarySortBy,
+            String secondarySortDir,
+            String name,
+            String category,
+            Boolean availability
+    ) {
+        long start = System.nanoTime();
+        ProductFilter filter = ProductFilter.of(name, category, availability);
+        PageQuery query = PageQuery.of(page, size, sortBy, sortDir, secondarySortBy, secondarySortDir, filter);
+
+        long version = productRepository.getCatalogVersion();
+        boolean pageCached = pageCache.contains(query, version);
+        QueryTrace trace = QueryTrace.start(productRepository.count(), true);
+        List<Product> result = computePage(query, trace);
+        cachePage(query, version, result);
+        queryMetrics.returned(result.size());
+        logIfSlow(query, start, trace);
+        return new ExplainedPage(result, trace.plan(System.nanoTime() - start, pageCached));
+    }
 
-            if (qty > 0) {
-                totalPriceSum = totalPriceSum.add(price);
-                inStockCount++;
-            }
+    // Like the matches, huge pages (size=100000) are not kept: they would pin a good part of the catalog
+    private void cachePage(PageQuery query, long version, List<Product> page) {
+        if (page.size() <= maxCachedPageProducts) {
+            pageCache.put(query, version, page);
+        }
+    }
 
-            String category = product.getCategory();
+    // trace is null for a page from the cache
+    private void logIfSlow(PageQuery query, long start, QueryTrace trace) {
+        long nanos = System.nanoTime() - start;
+        if (slowQueryNanos <= 0 || nanos < slowQueryNanos) {
+            return;
+        }
+        queryMetrics.slow();
+        slowQueryLog.warn("Listing took {} ms: {}, plan {}", TimeUnit.NANOSECONDS.toMillis(nanos), query,
+                trace == null ? "[page cache]" : trace.plan(nanos, false));
+    }
 
-            categoryToStock.put(
-                    category,
-                    categoryToStock.getOrDefault(category, 0) + qty
-            );
+    @Override
+    public Map<String, CacheStats> getCacheStats() {
+        Map<String, CacheStats> stats = new LinkedHashMap<>();
+        stats.put("pages", pageCache.stats());
+        stats.put("matches", matchCache.stats());
+        return stats;
+    }
 
-            categoryToValue.put(
-                    category,
-                    categoryToValue.getOrDefault(category, BigDecimal.ZERO).add(value)
-            );
+    @Override
+    public String getCatalogTag() {
+        return instanceTag + "-" + productRepository.getCatalogVersion();
+    }
 
-            if (qty > 0) {
-                categoryToPriceSum.put(
-                        category,
-                        categoryToPriceSum.getOrDefault(category, BigDecimal.ZERO).add(price)
-                );
+    @Override
+    public String getProductTag(Product product) {
+        return instanceTag + "-" + product.getId() + "-" + product.getVersion();
+    }
 
-                categoryToInStockCount.put(
-                        category,
-                        categoryToInStockCount.getOrDefault(category, 0) + 1
-                );
-            }
+    private List<Product> computePage(PageQuery query, QueryTrace trace) {
+        int page = query.page();
+        int size = query.size();
+        ProductFilter filter = query.filter();
+
+        long filterStart = trace.begin();
+
+        // Unfiltered with the default id tie-break: read the page straight out of the repository's sorted view
+        if (filter.isEmpty() && query.secondarySortBy() == null && page >= 0 && size >= 0) {
+            ProductSortField field = query.sortBy();
+            List<Product> result = productRepository.streamSorted(field, query.descending(), null)
+                    .skip((long) page * size)
+                    .limit(size)
+                    .toList();
+            queryMetrics.readSortedView(filterStart);
+            // Everything up to the end of the page is walked
+            trace.end("sorted-view", field.name().toLowerCase() + (query.descending() ? " desc" : " asc"), filterStart,
+                    Math.min(trace.catalogSize(), (long) page * size + size), result.size());
+            return result;
         }
 
-        BigDecimal averagePrice = BigDecimal.ZERO;
-        if (inStockCount > 0) {
-            averagePrice = totalPriceSum.divide(BigDecimal.valueOf(inStockCount), 2, BigDecimal.ROUND_HALF_UP);
-        }
+        List<Product> products = findMatches(filter, trace);
+        queryMetrics.filtered(filterStart, products.size());
 
-        Map<String, InventoryMetrics.CategoryMetrics> byCategory = new HashMap<>();
+        Comparator<Product> primary = getComparator(query.sortBy(), query.descending());
+        Comparator<Product> secondary = query.secondarySortBy() != null
+                ? getComparator(query.secondarySortBy(), query.secondaryDescending())
+                : Comparator.comparing(Product::getId);
 
-        for (String category : categoryToStock.keySet()) {
-            int catStock = categoryToStock.get(category);
-            BigDecimal catValue = categoryToValue.get(category);
-            BigDecimal catAveragePrice = BigDecimal.ZERO;
+        Comparator<Product> order = primary.thenComparing(secondary);
 
-            if (categoryToInStockCount.containsKey(category) && categoryToInStockCount.get(category) > 0) {
-                BigDecimal priceSum = categoryToPriceSum.get(category);
-                int count = categoryToInStockCount.get(category);
-                catAveragePrice = priceSum.divide(BigDecimal.valueOf(count), 2, BigDecimal.ROUND_HALF_UP);
-            }
+        int start = page * size;
+        int end = Math.min(start + size, products.size());
 
-            byCategory.put(category, new InventoryMetrics.CategoryMetrics(catStock, catValue, catAveragePrice));
+        if (start >= products.size()) {
+            return List.of();
         }
 
-        InventoryMetrics metrics = new InventoryMetrics();
-        metrics.setTotalStock(totalStock);
-        metrics.setTotalValue(totalValue);
-        metrics.setAveragePrice(averagePrice);
-        metrics.setByCategory(byCategory);
-
-        return metrics;
+        // Shallow pages only need the first `end` products, a bounded heap finds them without sorting everything
+        long sortStart = trace.begin();
+        boolean topK = start >= 0 && end <= products.size() / TOP_K_MAX_FRACTION;
+        List<Product> sorted = topK
+                ? TopKSelector.firstK(products, end, order, scan)
+                : scan.sorted(products, order);
+        queryMetrics.sorted(sortStart);
+        trace.end("sort", topK ? "top-" + end : "full sort", sortStart, products.size(), sorted.size());
+
+        long paginateStart = trace.begin();
+        List<Product> result = List.copyOf(sorted.subList(start, end));
+        queryMetrics.paginated(paginateStart);
+        trace.end("paginate", "rows " + start + ".." + end, paginateStart, sorted.size(), result.size());
+        return result;
     }
 
     @Override
-    public List<Product> getFilteredSortedPaginatedProducts(
+    public ProductPage getProductPage(
             int page,
             int size,
             String sortBy,
@@ -185,70 +448,131 @@ public class ProductServiceImpl implements ProductService {
             String category,
             Boolean availability
     ) {
-        List<Product> products = productRepository.findAll();
-
-        if (name != null && !name.isEmpty()) {
-            products = products.stream()
-                    .filter(p -> p.getName().toLowerCase().contains(name.toLowerCase()))
-                    .collect(Collectors.toList());
-        }
+        // Both calls share the cached matches of the filter, so the catalog is scanned at most once
+        List<Product> items = getFilteredSortedPaginatedProducts(
+                page, size, sortBy, sortDir, secondarySortBy, secondarySortDir, name, category, availability);
+        long totalCount = countFilteredProducts(name, category, availability);
 
-        if (category != null && !category.isEmpty()) {
-            products = products.stream()
-                    .filter(p -> p.getCategory().equalsIgnoreCase(category))
-                    .collect(Collectors.toList());
-        }
-
-        if (availability != null) {
-            products = products.stream()
-                    .filter(p -> availability ? p.getQuantityInStock() > 0 : p.getQuantityInStock() == 0)
-                    .collect(Collectors.toList());
-        }
+        return new ProductPage(items, nextCursor(items, size, sortBy, sortDir, secondarySortBy), totalCount);
+    }
 
-        Comparator<Product> primary = getComparator(sortBy, sortDir);
-        Comparator<Product> secondary = (secondarySortBy != null && !secondarySortBy.isEmpty())
-                ? getComparator(secondarySortBy, secondarySortDir)
-                : Comparator.comparing(Product::getId);
+    @Override
+    public ProductPage getProductsAfterCursor(String cursor, int size, String name, String category, Boolean availability,
+                                              boolean withTotalCount) {
+        ProductCursor position = ProductCursor.decode(cursor);
+        ProductFilter filter = ProductFilter.of(name, category, availability);
+
+        List<Product> items = productRepository.streamSorted(position.field(), position.descending(), position.after())
+                .filter(filter::matches)
+                .limit(Math.max(size, 0))
+                .collect(Collectors.toList());
 
-        products.sort(primary.thenComparing(secondary));
+        return new ProductPage(
+                items,
+                cursorAfter(items, size, position.field(), position.descending()),
+                withTotalCount ? countFilteredProducts(name, category, availability) : -1
+        );
+    }
 
-        int start = page * size;
-        int end = Math.min(start + size, products.size());
+    @Override
+    public String nextCursor(List<Product> page, int size, String sortBy, String sortDir, String secondarySortBy) {
+        // Keyset pagination only knows the id tie-break
+        if (!isDefaultTieBreak(secondarySortBy)) {
+            return null;
+        }
+        return cursorAfter(page, size, ProductSortField.from(sortBy), isDescending(sortDir));
+    }
 
-        if (start >= products.size()) {
-            return List.of();
+    // A full page may have more behind it, a shorter one is the end of the list
+    private static String cursorAfter(List<Product> page, int size, ProductSortField field, boolean descending) {
+        if (size <= 0 || page.size() < size) {
+            return null;
         }
+        return ProductCursor.after(field, descending, page.get(page.size() - 1)).encode();
+    }
+
+    private static boolean isDefaultTieBreak(String secondarySortBy) {
+        return secondarySortBy == null || secondarySortBy.isEmpty();
+    }
 
-        return products.subList(start, end);
+    private static boolean isDescending(String dir) {
+        return dir.equalsIgnoreCase("desc");
     }
 
     // ------------------- JUST FOR TESTING -------------------->>
     @Override
     public long countFilteredProducts(String name, String category, Boolean availability) {
-        return productRepository.findAll().stream()
-                .filter(p -> name == null || p.getName().toLowerCase().contains(name.toLowerCase()))
-                .filter(p -> category == null || category.isEmpty() || p.getCategory().equalsIgnoreCase(category))
-                .filter(p -> availability == null || (availability ? p.getQuantityInStock() > 0 : p.getQuantityInStock() == 0))
-                .count();
+        ProductFilter filter = ProductFilter.of(name, category, availability);
+        return filter.isEmpty() ? productRepository.count() : findMatches(filter, QueryTrace.OFF).size();
     }
 
+    // All products that pass the filter, in no particular order. The list is shared through the cache, don't modify it.
+    private List<Product> findMatches(ProductFilter filter, QueryTrace trace) {
+        long version = productRepository.getCatalogVersion();
+
+        long start = trace.begin();
+        List<Product> matches = matchCache.get(filter, version);
+        if (matches != null) {
+            trace.end("match-cache", filter.describe(), start, matches.size(), matches.size());
+            return matches;
+        }
 
-    private Comparator<Product> getComparator(String field, String dir) {
-        Comparator<Product> comparator;
+        List<Product> candidates = findCandidates(filter, trace);
+        long filterStart = trace.begin();
+        matches = scan.filter(candidates, filter::matches);
+        trace.end("filter", filter.describe() + (scan.isParallel(candidates.size()) ? " parallel" : ""),
+                filterStart, candidates.size(), matches.size());
+        if (matches.size() <= maxCachedMatches) {
+            matchCache.put(filter, version, matches);
+        }
+        return matches;
+    }
 
-        switch (field.toLowerCase()) {
-            case "name" -> comparator = Comparator.comparing(p -> p.getName().toLowerCase());
-            case "category" -> comparator = Comparator.comparing(p -> p.getCategory().toLowerCase());
-            case "price" -> comparator = Comparator.comparing(Product::getUnitPrice);
-            case "stock" -> comparator = Comparator.comparing(Product::getQuantityInStock);
-            case "expiration" -> comparator = Comparator.comparing(
-                    Product::getExpirationDate,
-                    Comparator.nullsLast(Comparator.naturalOrder())
-            );
-            case "availability" -> comparator = Comparator.comparingInt(p -> p.getQuantityInStock() > 0 ? 1 : 0);
-            default -> comparator = Comparator.comparing(Product::getId);
+    // Starts from the smallest index that covers one of the filters, the filters still run on the result afterwards
+    private List<Product> findCandidates(ProductFilter filter, QueryTrace trace) {
+        String name = filter.getName();
+        String category = filter.getCategory();
+        Boolean availability = filter.getAvailability();
+
+        boolean byName = name != null;
+        boolean byCategory = category != null;
+        boolean byAvailability = availability != null;
+
+        long start = trace.begin();
+        String path;
+        List<Product> candidates;
+        // Names of 3+ characters go through the trigram index and are usually the most selective filter.
+        // Shorter ones would need a scan, so another index is a better start when there is one.
+        if (byName && (name.length() >= 3 || !(byCategory || byAvailability))) {
+            path = name.length() >= 3 ? lookup("name-trigram") : "name scan";
+            candidates = productRepository.findByNameContaining(name);
+        } else if (byCategory && byAvailability) {
+            boolean categoryFirst = productRepository.countByCategory(category) <= productRepository.countByAvailability(availability);
+            path = lookup(categoryFirst ? "category" : "availability");
+            candidates = categoryFirst
+                    ? productRepository.findByCategory(category)
+                    : productRepository.findByAvailability(availability);
+        } else if (byCategory) {
+            path = lookup("category");
+            candidates = productRepository.findByCategory(category);
+        } else if (byAvailability) {
+            path = lookup("availability");
+            candidates = productRepository.findByAvailability(availability);
+        } else {
+            path = "full scan";
+            candidates = productRepository.findAll();
         }
+        trace.end("candidates", path, start, trace.catalogSize(), candidates.size());
+        return candidates;
+    }
+
+    // For query plans: the columnar backend answers the same lookups with a scan
+    private String lookup(String index) {
+        return index + (indexNames.contains(index) ? " index" : " scan");
+    }
 
-        return dir.equalsIgnoreCase("desc") ? comparator.reversed() : comparator;
+    private static Comparator<Product> getComparator(ProductSortField field, boolean descending) {
+        Comparator<Product> comparator = field.comparator();
+        return descending ? comparator.reversed() : comparator;
     }
 }
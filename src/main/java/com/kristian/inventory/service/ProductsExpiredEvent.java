@@ -0,0 +1,15 @@
+package com.kristian.inventory.service;
+
+import com.kristian.inventory.model.Product;
+
+import java.time.LocalDate;
+import java.util.List;
+
+/*
+ Published by ExpirySweeper (as a Spring application event) for the products whose expiration date is
+ between from and to, both inclusive; the first sweep after startup starts from the look-back window
+ (inventory.expiry.look-back). Listen with @EventListener; ProductChangeFeed sends one `expired` event
+ per product.
+*/
+public record ProductsExpiredEvent(LocalDate from, LocalDate to, List<Product> products) {
+}
@@ -0,0 +1,92 @@
+package com.kristian.inventory.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import java.util.concurrent.TimeUnit;
+
+/*
+ The meters of ProductServiceImpl, looked up once so a query only pays for System.nanoTime and the record.
+
+   inventory.query.stage{stage}     time per stage of a listing: filter, sort, paginate, or sorted-view
+                                    (unfiltered pages read straight from the repository's sort index)
+   inventory.query.matches          products that passed the filters
+   inventory.query.results          products on the page returned (cached pages included)
+   inventory.query.slow             listings over inventory.slow-query.threshold
+   inventory.metrics.aggregation    time to build the inventory metrics
+
+ Histogram buckets are switched on in application.properties (management.metrics.distribution.*).
+*/
+final class QueryMetrics {
+
+    private final Timer filter;
+    private final Timer sort;
+    private final Timer paginate;
+    private final Timer sortedView;
+    private final Timer aggregation;
+    private final DistributionSummary matches;
+    private final DistributionSummary results;
+    private final Counter slow;
+
+    QueryMetrics(MeterRegistry registry) {
+        this.filter = stage(registry, "filter");
+        this.sort = stage(registry, "sort");
+        this.paginate = stage(registry, "paginate");
+        this.sortedView = stage(registry, "sorted-view");
+        this.aggregation = Timer.builder("inventory.metrics.aggregation")
+                .description("Time to build the inventory metrics")
+                .register(registry);
+        this.matches = DistributionSummary.builder("inventory.query.matches")
+                .description("Products that passed the filters of a listing")
+                .baseUnit("products")
+                .register(registry);
+        this.results = DistributionSummary.builder("inventory.query.results")
+                .description("Products on the page returned by a listing")
+                .baseUnit("products")
+                .register(registry);
+        this.slow = Counter.builder("inventory.query.slow")
+                .description("Listings that took longer than the slow query threshold")
+                .register(registry);
+    }
+
+    private static Timer stage(MeterRegistry registry, String stage) {
+        return Timer.builder("inventory.query.stage")
+                .description("Time spent in one stage of a product listing")
+                .tag("stage", stage)
+                .register(registry);
+    }
+
+    // Each takes the System.nanoTime() from the start of the stage
+
+    void filtered(long start, int matchCount) {
+        filter.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        matches.record(matchCount);
+    }
+
+    void sorted(long start) {
+        sort.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+
+    void paginated(long start) {
+        paginate.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+
+    void readSortedView(long start) {
+        sortedView.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+
+    void aggregated(long start) {
+        aggregation.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+
+    void returned(int resultCount) {
+        results.record(resultCount);
+    }
+
+    void slow() {
+        slow.increment();
+    }
+
+}
@@ -0,0 +1,79 @@
+package com.kristian.inventory.service;
+
+import com.kristian.inventory.dto.QueryPlan;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ Collects the stages of one listing for its QueryPlan. A listing that misses the page cache is traced
+ anyway, so a slow one can be logged with its plan; that only costs a few small objects next to the
+ filter and sort. Allocations are only measured for explained listings.
+
+ begin() returns the System.nanoTime() the stage starts at (the same value goes to QueryMetrics), end()
+ records the stage. OFF records nothing.
+*/
+final class QueryTrace {
+
+    static final QueryTrace OFF = new QueryTrace(false, false, 0);
+
+    // HotSpot's ThreadMXBean counts the bytes each thread allocated, null on JVMs without it
+    private static final com.sun.management.ThreadMXBean ALLOCATIONS = allocationCounter();
+
+    private final boolean on;
+    private final boolean measureAllocations;
+    private final long catalogSize;
+    private final List<QueryPlan.Stage> stages = new ArrayList<>(4);
+    private final long allocatedAtStart;
+    private long allocatedAtStage;
+
+    private QueryTrace(boolean on, boolean measureAllocations, long catalogSize) {
+        this.on = on;
+        this.measureAllocations = measureAllocations && ALLOCATIONS != null;
+        this.catalogSize = catalogSize;
+        this.allocatedAtStart = allocatedBytes();
+    }
+
+    static QueryTrace start(long catalogSize, boolean measureAllocations) {
+        return new QueryTrace(true, measureAllocations, catalogSize);
+    }
+
+    long catalogSize() {
+        return catalogSize;
+    }
+
+    long begin() {
+        allocatedAtStage = allocatedBytes();
+        return System.nanoTime();
+    }
+
+    void end(String stage, String path, long start, long input, long output) {
+        if (!on) {
+            return;
+        }
+        long nanos = System.nanoTime() - start;
+        Long allocated = measureAllocations ? allocatedBytes() - allocatedAtStage : null;
+        stages.add(new QueryPlan.Stage(stage, path, input, output, nanos, allocated));
+    }
+
+    QueryPlan plan(long nanos, boolean pageCached) {
+        Long allocated = measureAllocations ? allocatedBytes() - allocatedAtStart : null;
+        return new QueryPlan(catalogSize, pageCached, nanos, allocated, List.copyOf(stages));
+    }
+
+    private long allocatedBytes() {
+        return measureAllocations ? ALLOCATIONS.getCurrentThreadAllocatedBytes() : 0;
+    }
+
+    private static com.sun.management.ThreadMXBean allocationCounter() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean counter
+                && counter.isThreadAllocatedMemorySupported() && counter.isThreadAllocatedMemoryEnabled()) {
+            return counter;
+        }
+        return null;
+    }
+
+}
@@ -0,0 +1,306 @@
+package com.kristian.inventory.service;
+
+import com.kristian.inventory.config.InventoryProperties;
+import com.kristian.inventory.dto.StockAdjustmentResult;
+import com.kristian.inventory.dto.StockEvent;
+import com.kristian.inventory.dto.StockEventStats;
+import com.kristian.inventory.repository.InsufficientStockException;
+import com.kristian.inventory.repository.StockAdjustment;
+import com.kristian.inventory.repository.StockOverflowException;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/*
+ Applies high-rate stock and price events in batches instead of one write per event.
+
+ Events go into a bounded queue and submit returns right away. A single writer thread takes a batch
+ (up to max-batch events, or whatever arrived within window of the first one), merges the events per
+ product (deltas are added up, the last price wins) and applies one write per product: all the
+ stock-only changes in one ProductService.adjustStock batch, price changes one by one. A hot product
+ that got 500 events in the window is written once.
+
+ When the merged write of a product is refused because its net delta would take the stock below 0 or past
+ Integer.MAX_VALUE, that product's events are applied again one by one in the order they arrived, so only
+ the events that really don't fit are rejected (stock 5 with +5, -3, -10: the first two are applied). Each
+ event is then its own write, stock and price together. Rejections only affect that product and are logged
+ as warnings: the clients were answered when the events were queued.
+
+ When the queue is full, submit waits up to offer-timeout and then fails (backpressure). On shutdown
+ new events are refused and everything already queued is applied before the repository is closed.
+*/
+@Service
+public class StockEventPipeline {
+
+    private static final Logger log = LoggerFactory.getLogger(StockEventPipeline.class);
+
+    private final ProductService productService;
+    private final BlockingQueue<StockEvent> queue;
+    private final int maxBatch;
+    private final long windowNanos;
+    private final long offerTimeoutNanos;
+    private final Thread writer;
+
+    // submit holds the read lock while it queues, close takes the write lock, so no event is queued after the writer stopped
+    private final ReadWriteLock closeLock = new ReentrantReadWriteLock();
+    private volatile boolean closed;
+
+    private final AtomicLong accepted = new AtomicLong();
+    private final AtomicLong applied = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong productWrites = new AtomicLong();
+
+    // Events taken out of the queue and applied (or rejected), for flush. Guarded by this.
+    private long processed;
+
+    public StockEventPipeline(ProductService productService, InventoryProperties properties) {
+        InventoryProperties.StockEvents settings = properties.getStockEvents();
+        this.productService = productService;
+        this.queue = new ArrayBlockingQueue<>(settings.getQueueCapacity());
+        this.maxBatch = Math.max(1, settings.getMaxBatch());
+        this.windowNanos = settings.getWindow().toNanos();
+        this.offerTimeoutNanos = settings.getOfferTimeout().toNanos();
+
+        this.writer = new Thread(this::run, "stock-event-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    // Queues the events in order. Throws StockEventQueueFullException if they do not all fit in time.
+    public void submit(List<StockEvent> events) {
+        for (StockEvent event : events) {
+            if (event == null || event.getId() == null) {
+                throw new InvalidStockEventException("Every stock event needs a product id");
+            }
+            if (event.getUnitPrice() != null && event.getUnitPrice().signum() < 0) {
+                throw new InvalidStockEventException("Negative unit price for product " + event.getId());
+            }
+        }
+
+        closeLock.readLock().lock();
+        try {
+            int queued = 0;
+            long deadline = System.nanoTime() + offerTimeoutNanos;
+            for (StockEvent event : events) {
+                if (closed || !queue.offer(event, Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS)) {
+                    throw new StockEventQueueFullException(queued, events.size());
+                }
+                queued++;
+                accepted.incrementAndGet();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while queueing stock events", e);
+        } finally {
+            closeLock.readLock().unlock();
+        }
+    }
+
+    // Waits until every event accepted before the call has been applied (or rejected)
+    public synchronized boolean flush(Duration timeout) throws InterruptedException {
+        long target = accepted.get();
+        long deadline = System.nanoTime() + timeout.toNanos();
+        while (processed < target) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return false;
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+        return true;
+    }
+
+    public StockEventStats getStats() {
+        return new StockEventStats(accepted.get(), applied.get(), rejected.get(),
+                batches.get(), productWrites.get(), queue.size());
+    }
+
+    @PreDestroy
+    public void close() {
+        closeLock.writeLock().lock();
+        try {
+            closed = true;
+        } finally {
+            closeLock.writeLock().unlock();
+        }
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        log.info("Stock event pipeline stopped: {} events applied, {} rejected", applied.get(), rejected.get());
+    }
+
+    private void run() {
+        List<StockEvent> batch = new ArrayList<>(maxBatch);
+        try {
+            while (true) {
+                // Wakes up now and then to notice close
+                StockEvent first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    if (closed && queue.isEmpty()) {
+                        return;
+                    }
+                    continue;
+                }
+
+                batch.add(first);
+                long deadline = System.nanoTime() + windowNanos;
+                while (batch.size() < maxBatch) {
+                    queue.drainTo(batch, maxBatch - batch.size());
+                    long remaining = deadline - System.nanoTime();
+                    if (batch.size() == maxBatch || remaining <= 0) {
+                        break;
+                    }
+                    StockEvent next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+
+                apply(batch);
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            log.warn("Stock event writer interrupted, {} events left in the queue", queue.size());
+        }
+    }
+
+    private void apply(List<StockEvent> batch) {
+        Map<Long, Merged> merged = new LinkedHashMap<>();
+        try {
+            for (StockEvent event : batch) {
+                merged.computeIfAbsent(event.getId(), id -> new Merged()).add(event);
+            }
+
+            List<StockAdjustment> stockOnly = new ArrayList<>();
+            List<Merged> stockOnlyEvents = new ArrayList<>();
+            for (Map.Entry<Long, Merged> entry : merged.entrySet()) {
+                Long id = entry.getKey();
+                Merged events = entry.getValue();
+                if (events.delta != (int) events.delta) {
+                    // No stock fits the added-up deltas, whatever it is now; the events alone may
+                    applyOneByOne(id, events);
+                } else if (events.unitPrice == null) {
+                    stockOnly.add(new StockAdjustment(id, (int) events.delta));
+                    stockOnlyEvents.add(events);
+                } else {
+                    applyWithPrice(id, events);
+                }
+            }
+
+            if (!stockOnly.isEmpty()) {
+                List<StockAdjustmentResult> results = productService.adjustStock(stockOnly);
+                for (int i = 0; i < results.size(); i++) {
+                    StockAdjustmentResult result = results.get(i);
+                    StockAdjustment.Outcome outcome = StockAdjustment.Outcome.valueOf(result.getStatus());
+                    if (doesNotFit(outcome)) {
+                        applyOneByOne(result.getId(), stockOnlyEvents.get(i));
+                    } else {
+                        count(result.getId(), stockOnlyEvents.get(i), outcome);
+                    }
+                }
+                productWrites.addAndGet(stockOnly.size());
+            }
+        } catch (RuntimeException e) {
+            log.error("Could not apply a batch of {} stock events", batch.size(), e);
+            // Whatever was not counted yet did not make it
+            long counted = merged.values().stream().mapToLong(events -> events.counted).sum();
+            rejected.addAndGet(batch.size() - counted);
+        } finally {
+            batches.incrementAndGet();
+            synchronized (this) {
+                processed += batch.size();
+                notifyAll();
+            }
+        }
+    }
+
+    private void applyWithPrice(Long id, Merged events) {
+        try {
+            boolean found = productService.adjustStockAndPrice(id, (int) events.delta, events.unitPrice).isPresent();
+            productWrites.incrementAndGet();
+            count(id, events, found ? StockAdjustment.Outcome.APPLIED : StockAdjustment.Outcome.NOT_FOUND);
+        } catch (InsufficientStockException | StockOverflowException e) {
+            applyOneByOne(id, events);
+        }
+    }
+
+    private static boolean doesNotFit(StockAdjustment.Outcome outcome) {
+        return outcome == StockAdjustment.Outcome.INSUFFICIENT_STOCK || outcome == StockAdjustment.Outcome.STOCK_OVERFLOW;
+    }
+
+    // The merged write did not fit the stock: every event on its own, in arrival order
+    private void applyOneByOne(Long id, Merged events) {
+        int fitted = 0;
+        for (StockEvent event : events.events) {
+            StockAdjustment.Outcome outcome;
+            try {
+                boolean found = event.getUnitPrice() == null
+                        ? productService.adjustStock(id, event.getDelta()).isPresent()
+                        : productService.adjustStockAndPrice(id, event.getDelta(), event.getUnitPrice()).isPresent();
+                outcome = found ? StockAdjustment.Outcome.APPLIED : StockAdjustment.Outcome.NOT_FOUND;
+            } catch (InsufficientStockException e) {
+                outcome = StockAdjustment.Outcome.INSUFFICIENT_STOCK;
+            } catch (StockOverflowException e) {
+                outcome = StockAdjustment.Outcome.STOCK_OVERFLOW;
+            }
+            productWrites.incrementAndGet();
+            events.counted++;
+            if (outcome == StockAdjustment.Outcome.APPLIED) {
+                fitted++;
+                applied.incrementAndGet();
+            } else {
+                rejected.incrementAndGet();
+                log.warn("Rejected a stock event for product {} with a delta of {}: {}", id, event.getDelta(), outcome);
+            }
+        }
+        log.debug("Applied {} of {} stock events for product {} one by one", fitted, events.count, id);
+    }
+
+    // The client got a 202 for these events long ago, a rejection is only seen here and in the stats
+    private void count(Long id, Merged events, StockAdjustment.Outcome outcome) {
+        events.counted = events.count;
+        if (outcome == StockAdjustment.Outcome.APPLIED) {
+            applied.addAndGet(events.count);
+        } else {
+            rejected.addAndGet(events.count);
+            log.warn("Rejected {} stock events for product {} with a net delta of {}: {}", events.count, id, events.delta, outcome);
+        }
+    }
+
+    // The events of one product in a batch
+    private static final class Merged {
+        private final List<StockEvent> events = new ArrayList<>();
+        private long delta;     // can add up past an int, the events are then applied one by one
+        private BigDecimal unitPrice;
+        private int count;
+        private int counted;    // events already counted as applied or rejected
+
+        void add(StockEvent event) {
+            events.add(event);
+            delta += event.getDelta();
+            if (event.getUnitPrice() != null) {
+                unitPrice = event.getUnitPrice();
+            }
+            count++;
+        }
+    }
+
+}
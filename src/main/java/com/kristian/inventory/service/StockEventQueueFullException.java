@@ -0,0 +1,24 @@
+package com.kristian.inventory.service;
+
+// The events before the one that did not fit were accepted, the sender should retry the rest later.
+// Answered with 503 and the number accepted by ProductController.
+public class StockEventQueueFullException extends RuntimeException {
+
+    private final int accepted;
+    private final int total;
+
+    public StockEventQueueFullException(int accepted, int total) {
+        super("Stock event queue is full, accepted " + accepted + " of " + total + " events");
+        this.accepted = accepted;
+        this.total = total;
+    }
+
+    public int getAccepted() {
+        return accepted;
+    }
+
+    public int getTotal() {
+        return total;
+    }
+
+}
@@ -0,0 +1,14 @@
+package com.kristian.inventory.service;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+// Deletes after `since` may have been forgotten (tombstone expired, or from before a restart): sync again from 0
+@ResponseStatus(HttpStatus.GONE)
+public class SyncTooOldException extends RuntimeException {
+
+    public SyncTooOldException(long since, long horizon) {
+        super("Changes after " + since + " are no longer complete, only after " + horizon + "; sync again from 0");
+    }
+
+}
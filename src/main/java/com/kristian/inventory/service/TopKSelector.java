@@ -0,0 +1,63 @@
+package com.kristian.inventory.service;
+
+import com.kristian.inventory.repository.ParallelScan;
+
+import java.util.*;
+
+/*
+ Picks the first k elements of a list in the order of a comparator without sorting the whole list.
+
+ Keeps a max-heap of the k best positions seen so far: O(n log k) time and O(k) memory.
+ Ties are broken by the position in the input, which is exactly what the stable List.sort does,
+ so the result is always the same as sorting everything and taking the first k.
+*/
+final class TopKSelector {
+
+    private TopKSelector() {
+    }
+
+    static <T> List<T> firstK(List<T> items, int k, Comparator<? super T> comparator) {
+        return firstK(items, k, comparator, ParallelScan.SEQUENTIAL);
+    }
+
+    // Each part of the list keeps its own heap, merging them keeps the k best overall.
+    // Positions make the order total, so the k best are the same however the list is split.
+    static <T> List<T> firstK(List<T> items, int k, Comparator<? super T> comparator, ParallelScan scan) {
+        if (k <= 0) {
+            return new ArrayList<>();
+        }
+
+        Comparator<Integer> byPosition = (a, b) -> {
+            int result = comparator.compare(items.get(a), items.get(b));
+            return result != 0 ? result : Integer.compare(a, b);
+        };
+
+        // Head of the queue is the worst of the k kept positions
+        PriorityQueue<Integer> heap = scan.reduce(items.size(),
+                () -> new PriorityQueue<>(k + 1, byPosition.reversed()),
+                (kept, i) -> keep(kept, i, k, byPosition),
+                (left, right) -> {
+                    right.forEach(i -> keep(left, i, k, byPosition));
+                    return left;
+                });
+
+        Integer[] positions = heap.toArray(new Integer[0]);
+        Arrays.sort(positions, byPosition);
+
+        List<T> result = new ArrayList<>(positions.length);
+        for (Integer position : positions) {
+            result.add(items.get(position));
+        }
+        return result;
+    }
+
+    private static void keep(PriorityQueue<Integer> heap, int position, int k, Comparator<Integer> byPosition) {
+        if (heap.size() < k) {
+            heap.add(position);
+        } else if (byPosition.compare(position, heap.peek()) < 0) {
+            heap.poll();
+            heap.add(position);
+        }
+    }
+
+}
@@ -0,0 +1,102 @@
+package com.kristian.inventory.service;
+
+import com.kristian.inventory.dto.CacheStats;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/*
+ Small LRU cache whose entries remember the catalog version they were computed at.
+
+ A lookup with any other version is a miss, so every write to the catalog invalidates all entries
+ without having to know which ones it affected. The caller has to read the version before computing
+ the value: the repository bumps it after a write is applied, so a value computed during a write is
+ stored under the old version and can never be served after the write.
+
+ An optional time to live also drops entries that are still current, so a result nobody asks for
+ again doesn't keep products alive until it is pushed out.
+*/
+class VersionedLruCache<K, V> {
+
+    private final int maxEntries;
+    private final long ttlNanos;
+    // In insertion order: a hit moves its entry to the end itself, so contains can look without doing that
+    private final Map<K, Entry<V>> entries;
+
+    // Guarded by this
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long expirations;
+    private long invalidations;
+
+    private record Entry<V>(long version, long storedAt, V value) {
+    }
+
+    VersionedLruCache(int maxEntries) {
+        this(maxEntries, Duration.ZERO);
+    }
+
+    // A zero or negative ttl means entries only leave when the catalog changes or they are pushed out
+    VersionedLruCache(int maxEntries, Duration ttl) {
+        this.maxEntries = maxEntries;
+        this.ttlNanos = ttl.isNegative() || ttl.isZero() ? 0 : ttl.toNanos();
+        this.entries = new LinkedHashMap<>(16, 0.75f, false) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, Entry<V>> eldest) {
+                if (size() > VersionedLruCache.this.maxEntries) {
+                    evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    synchronized V get(K key, long version) {
+        Entry<V> entry = entries.get(key);
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        if (entry.version() != version) {
+            entries.remove(key);
+            invalidations++;
+            misses++;
+            return null;
+        }
+        if (ttlNanos > 0 && System.nanoTime() - entry.storedAt() > ttlNanos) {
+            entries.remove(key);
+            expirations++;
+            misses++;
+            return null;
+        }
+        entries.remove(key);
+        entries.put(key, entry);
+        hits++;
+        return entry.value();
+    }
+
+    // Whether get would return a value, without counting it as a hit or miss or making the entry recently used
+    synchronized boolean contains(K key, long version) {
+        Entry<V> entry = entries.get(key);
+        return entry != null && entry.version() == version
+                && (ttlNanos <= 0 || System.nanoTime() - entry.storedAt() <= ttlNanos);
+    }
+
+    synchronized void put(K key, long version, V value) {
+        if (maxEntries > 0) {
+            entries.put(key, new Entry<>(version, System.nanoTime(), value));
+        }
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    synchronized CacheStats stats() {
+        return new CacheStats(hits, misses, evictions, expirations, invalidations, entries.size(), maxEntries);
+    }
+
+}
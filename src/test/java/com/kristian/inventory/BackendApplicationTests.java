@@ -1,13 +1,38 @@
 package com.kristian.inventory;
 
 import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.web.servlet.MockMvc;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
 
 @SpringBootTest
+@AutoConfigureMockMvc
 class BackendApplicationTests {
 
+	@Autowired
+	private MockMvc mockMvc;
+
 	@Test
 	void contextLoads() {
 	}
 
+	// With the real change index: a since after the newest change is an empty page, not an error
+	@Test
+	void shouldAnswerChangesSinceTheFutureWithAnEmptyPage() throws Exception {
+		String future = String.valueOf(Long.MAX_VALUE / 2);
+		mockMvc.perform(get("/products/changes").param("since", future))
+				.andExpect(status().isOk())
+				.andExpect(jsonPath("$.updated").isEmpty())
+				.andExpect(jsonPath("$.deleted").isEmpty())
+				.andExpect(jsonPath("$.next").value(Long.MAX_VALUE / 2))
+				.andExpect(jsonPath("$.more").value(false));
+		mockMvc.perform(get("/products/changes").param("since", "2999-01-01T00:00:00"))
+				.andExpect(status().isOk())
+				.andExpect(jsonPath("$.updated").isEmpty());
+	}
+
 }
@@ -0,0 +1,196 @@
+package com.kristian.inventory;
+
+import com.kristian.inventory.model.Product;
+import com.kristian.inventory.repository.InMemoryProductRepository;
+import com.kristian.inventory.repository.InsufficientStockException;
+import com.kristian.inventory.repository.ProductRepository;
+import com.kristian.inventory.repository.ProductSortField;
+import com.kristian.inventory.repository.SortPosition;
+import com.kristian.inventory.repository.StockOverflowException;
+import com.kristian.inventory.repository.columnar.ColumnarProductRepository;
+import com.kristian.inventory.service.InventoryMetricsCalculator;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ColumnarProductRepositoryTest {
+
+    private final ProductRepository columnar = new ColumnarProductRepository();
+    private final ProductRepository reference = new InMemoryProductRepository();
+
+    private static final String[] NAMES = {"Apple", "banana", "Cherry", "apple pie", "Date"};
+    private static final String[] CATEGORIES = {"Food", "food", "Drinks"};
+    private static final String[] PRICES = {"1.5", "1.50", "2.25", "3", "0.99", "123456789012345678901.5"};
+
+    private Product randomProduct(Random random, Long id) {
+        Product product = new Product();
+        product.setId(id);
+        product.setName(NAMES[random.nextInt(NAMES.length)]);
+        product.setCategory(CATEGORIES[random.nextInt(CATEGORIES.length)]);
+        product.setUnitPrice(new BigDecimal(PRICES[random.nextInt(PRICES.length)]));
+        product.setQuantityInStock(random.nextInt(4));
+        if (random.nextBoolean()) {
+            product.setExpirationDate(LocalDate.of(2030, 1, 1 + random.nextInt(5)));
+        }
+        return product;
+    }
+
+    // Everything but the timestamps, those are taken by each repository itself
+    private static String fields(Product p) {
+        return p.getId() + "|" + p.getName() + "|" + p.getCategory() + "|" + p.getUnitPrice()
+                + "|" + p.getQuantityInStock() + "|" + p.getExpirationDate();
+    }
+
+    private static List<String> byId(List<Product> products) {
+        return products.stream().sorted(Comparator.comparing(Product::getId)).map(ColumnarProductRepositoryTest::fields).toList();
+    }
+
+    private static List<Long> ids(ProductRepository repository, ProductSortField field, boolean descending, SortPosition after) {
+        return repository.streamSorted(field, descending, after).map(Product::getId).toList();
+    }
+
+    private static String adjusted(ProductRepository repository, Long id, int delta) {
+        try {
+            return fields(repository.adjustStock(id, delta).orElseThrow());
+        } catch (InsufficientStockException e) {
+            return "insufficient " + e.getQuantityInStock();
+        } catch (StockOverflowException e) {
+            return "overflow";
+        }
+    }
+
+    @Test
+    void shouldCountCategoriesWithPricedProducts() {
+        Product tool = randomProduct(new Random(5), null);
+        tool.setCategory("Tools");
+        Product saved = columnar.save(tool);
+        Product unpriced = randomProduct(new Random(6), null);
+        unpriced.setCategory("Toys");
+        unpriced.setUnitPrice(null);
+        columnar.save(unpriced);
+        assertEquals(1, columnar.countCategories());
+
+        saved.setCategory("Garden");
+        columnar.save(saved);
+        assertEquals(Set.of("Garden"), columnar.getCategoryTotals().keySet());
+        assertEquals(1, columnar.countCategories());
+
+        columnar.deleteById(saved.getId());
+        assertEquals(0, columnar.countCategories());
+    }
+
+    @Test
+    void shouldRejectStockOverflowLikeTheInMemoryRepository() {
+        Product product = randomProduct(new Random(3), null);
+        product.setQuantityInStock(Integer.MAX_VALUE - 1);
+        Long id = columnar.save(new Product(product)).getId();
+        reference.save(new Product(product));
+
+        assertEquals("overflow", adjusted(columnar, id, 2));
+        assertEquals(adjusted(reference, id, 2), adjusted(columnar, id, 2));
+        assertEquals(Integer.MAX_VALUE - 1, columnar.findById(id).orElseThrow().getQuantityInStock());
+        assertEquals(adjusted(reference, id, 1), adjusted(columnar, id, 1));
+    }
+
+    @Test
+    void shouldAnswerLikeTheInMemoryRepository() {
+        Random random = new Random(11);
+        List<Long> ids = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            long seed = random.nextLong();
+            int action = random.nextInt(12);
+            if (action < 6 || ids.isEmpty()) {
+                Product saved = columnar.save(randomProduct(new Random(seed), null));
+                reference.save(randomProduct(new Random(seed), null));
+                ids.add(saved.getId());
+            } else if (action < 9) {
+                Long id = ids.get(random.nextInt(ids.size()));
+                columnar.save(randomProduct(new Random(seed), id));
+                reference.save(randomProduct(new Random(seed), id));
+            } else if (action < 11) {
+                Long id = ids.get(random.nextInt(ids.size()));
+                int delta = random.nextInt(7) - 3;
+                assertEquals(adjusted(reference, id, delta), adjusted(columnar, id, delta));
+            } else {
+                Long id = ids.remove(random.nextInt(ids.size()));
+                columnar.deleteById(id);
+                reference.deleteById(id);
+            }
+        }
+
+        assertEquals(reference.count(), columnar.count());
+        assertEquals(byId(reference.findAll()), byId(columnar.findAll()));
+        assertEquals(byId(reference.findAll()), byId(columnar.streamAll().toList()));
+        assertEquals(byId(reference.findByNameContaining("APP")), byId(columnar.findByNameContaining("APP")));
+        assertEquals(byId(reference.findByCategory("FOOD")), byId(columnar.findByCategory("FOOD")));
+        assertEquals(reference.countByCategory("drinks"), columnar.countByCategory("drinks"));
+        for (boolean inStock : new boolean[]{true, false}) {
+            assertEquals(byId(reference.findByAvailability(inStock)), byId(columnar.findByAvailability(inStock)));
+            assertEquals(reference.countByAvailability(inStock), columnar.countByAvailability(inStock));
+        }
+        assertEquals(byId(reference.findByExpirationDateBetween(LocalDate.of(2030, 1, 2), LocalDate.of(2030, 1, 4))),
+                byId(columnar.findByExpirationDateBetween(LocalDate.of(2030, 1, 2), LocalDate.of(2030, 1, 4))));
+
+        // Same totals, BigDecimal scales included
+        assertTrue(InventoryMetricsCalculator.same(
+                InventoryMetricsCalculator.fromTotals(reference.getCategoryTotals()),
+                InventoryMetricsCalculator.fromTotals(columnar.getCategoryTotals())));
+        assertEquals(reference.getCategoryTotals().size(), reference.countCategories());
+        assertEquals(columnar.getCategoryTotals().size(), columnar.countCategories());
+
+        for (ProductSortField field : ProductSortField.values()) {
+            for (boolean descending : new boolean[]{false, true}) {
+                List<Product> sorted = reference.streamSorted(field, descending, null).toList();
+                assertEquals(ids(reference, field, descending, null), ids(columnar, field, descending, null), field + " " + descending);
+
+                Product middle = sorted.get(sorted.size() / 2);
+                SortPosition after = new SortPosition(field.keyOf(middle), middle.getId());
+                assertEquals(ids(reference, field, descending, after), ids(columnar, field, descending, after), field + " after");
+            }
+        }
+    }
+
+    @Test
+    void shouldStreamSortedOverSeveralChunks() {
+        Random random = new Random(5);
+        for (int i = 0; i < 2500; i++) {
+            long seed = random.nextLong();
+            columnar.save(randomProduct(new Random(seed), null));
+            reference.save(randomProduct(new Random(seed), null));
+        }
+
+        List<Product> sorted = reference.streamSorted(ProductSortField.PRICE, false, null).toList();
+        Product cursor = sorted.get(1500);
+        SortPosition after = new SortPosition(ProductSortField.PRICE.keyOf(cursor), cursor.getId());
+        assertEquals(ids(reference, ProductSortField.PRICE, false, after), ids(columnar, ProductSortField.PRICE, false, after));
+
+        // A product deleted after the first chunk was read is skipped when the stream gets to it
+        Long deleted = sorted.get(2000).getId();
+        Iterator<Product> products = columnar.streamSorted(ProductSortField.PRICE, false, null).iterator();
+        List<Long> seen = new ArrayList<>(List.of(products.next().getId()));
+        columnar.deleteById(deleted);
+        products.forEachRemaining(product -> seen.add(product.getId()));
+
+        List<Long> expected = new ArrayList<>(sorted.stream().map(Product::getId).toList());
+        expected.remove(deleted);
+        assertEquals(expected, seen);
+    }
+
+    @Test
+    void shouldReturnCopiesWithExactTimestamps() {
+        Product saved = columnar.save(randomProduct(new Random(1), null));
+        Product found = columnar.findById(saved.getId()).orElseThrow();
+
+        assertNotSame(saved, found);
+        assertEquals(saved.toString(), found.toString());
+
+        // A change only counts once it is saved
+        found.setQuantityInStock(99);
+        assertNotEquals(99, columnar.findById(saved.getId()).orElseThrow().getQuantityInStock());
+    }
+
+}
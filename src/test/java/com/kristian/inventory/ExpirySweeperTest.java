@@ -0,0 +1,103 @@
+package com.kristian.inventory;
+
+import com.kristian.inventory.config.InventoryProperties;
+import com.kristian.inventory.model.Product;
+import com.kristian.inventory.repository.InMemoryProductRepository;
+import com.kristian.inventory.service.ExpirySweeper;
+import com.kristian.inventory.service.ProductServiceImpl;
+import com.kristian.inventory.service.ProductsExpiredEvent;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ExpirySweeperTest {
+
+    private static final LocalDate TODAY = LocalDate.of(2030, 6, 15);
+
+    private InMemoryProductRepository repository;
+    private final List<Object> published = new ArrayList<>();
+    private ExpirySweeper sweeper;
+
+    @BeforeEach
+    void setUp() {
+        repository = new InMemoryProductRepository();
+        sweeper = sweeper(Duration.ofDays(7));
+    }
+
+    private ExpirySweeper sweeper(Duration lookBack) {
+        InventoryProperties properties = new InventoryProperties();
+        properties.getExpiry().setSweepEnabled(false);
+        properties.getExpiry().setLookBack(lookBack);
+        return new ExpirySweeper(new ProductServiceImpl(repository, properties), published::add, properties);
+    }
+
+    private Long save(String name, LocalDate expirationDate) {
+        Product product = new Product();
+        product.setName(name);
+        product.setCategory("Food");
+        product.setUnitPrice(new BigDecimal("1.00"));
+        product.setQuantityInStock(1);
+        product.setExpirationDate(expirationDate);
+        return repository.save(product).getId();
+    }
+
+    private static List<String> names(ProductsExpiredEvent event) {
+        return event.products().stream().map(Product::getName).toList();
+    }
+
+    @Test
+    void shouldReportEachExpiredProductOnce() {
+        save("Milk", TODAY.minusDays(1));
+        save("Cheese", TODAY.minusDays(30));
+        save("Yogurt", TODAY);
+        save("Salt", null);
+
+        save("Bread", TODAY.minusDays(7));
+
+        // The first sweep looks back seven days: Cheese is older than that
+        ProductsExpiredEvent first = sweeper.sweep(TODAY);
+        assertEquals(TODAY.minusDays(7), first.from());
+        assertEquals(TODAY.minusDays(1), first.to());
+        assertEquals(List.of("Bread", "Milk"), names(first));
+
+        // Later the same day: nothing new
+        assertNull(sweeper.sweep(TODAY));
+
+        // Yogurt expires at the end of today, the product saved into an already swept day is not reported
+        save("Butter", TODAY.minusDays(2));
+        ProductsExpiredEvent next = sweeper.sweep(TODAY.plusDays(1));
+        assertEquals(TODAY, next.from());
+        assertEquals(List.of("Yogurt"), names(next));
+
+        assertEquals(List.of(first, next), published);
+    }
+
+    @Test
+    void shouldOnlyLookBackAfterRestart() {
+        for (int day = 1; day <= 100; day++) {
+            save("Old " + day, TODAY.minusDays(day));
+        }
+        save("Yogurt", TODAY);
+        assertEquals(7, sweeper.sweep(TODAY).products().size());
+
+        // A restarted sweeper does not know what was swept and reports only the look-back days again
+        ExpirySweeper restarted = sweeper(Duration.ofDays(2));
+        ProductsExpiredEvent first = restarted.sweep(TODAY.plusDays(1));
+        assertEquals(TODAY.minusDays(1), first.from());
+        assertEquals(List.of("Old 1", "Yogurt"), names(first));
+
+        // With no look-back nothing is reported again, the next day goes on as usual
+        ExpirySweeper none = sweeper(Duration.ZERO);
+        assertNull(none.sweep(TODAY.plusDays(1)));
+        save("Milk", TODAY.plusDays(1));
+        assertEquals(List.of("Milk"), names(none.sweep(TODAY.plusDays(2))));
+    }
+
+}
@@ -0,0 +1,207 @@
+package com.kristian.inventory;
+
+import com.kristian.inventory.model.Product;
+import com.kristian.inventory.repository.InMemoryProductRepository;
+import com.kristian.inventory.repository.InsufficientStockException;
+import com.kristian.inventory.repository.ProductVersionConflictException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class InMemoryProductRepositoryTest {
+
+    private InMemoryProductRepository repository;
+
+    @BeforeEach
+    void setUp() {
+        repository = new InMemoryProductRepository();
+    }
+
+    private Product newProduct(String name, String category, String price, int stock) {
+        Product product = new Product();
+        product.setName(name);
+        product.setCategory(category);
+        product.setUnitPrice(new BigDecimal(price));
+        product.setQuantityInStock(stock);
+        return product;
+    }
+
+    // The repository keeps copies, so compare what the products contain
+    private static List<String> contents(Product... products) {
+        return Arrays.stream(products).map(Product::toString).toList();
+    }
+
+    private static List<String> contents(List<Product> products) {
+        return products.stream().map(Product::toString).toList();
+    }
+
+    @Test
+    void shouldAssignUniqueIdsUnderConcurrentSaves() throws Exception {
+        int threads = 8;
+        int perThread = 2_000;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<List<Long>>> futures = new ArrayList<>();
+
+        for (int t = 0; t < threads; t++) {
+            futures.add(executor.submit(() -> {
+                start.await();
+                List<Long> ids = new ArrayList<>();
+                for (int i = 0; i < perThread; i++) {
+                    ids.add(repository.save(newProduct("Product " + i, "Food", "1.00", 1)).getId());
+                }
+                return ids;
+            }));
+        }
+        start.countDown();
+
+        Set<Long> ids = new HashSet<>();
+        for (Future<List<Long>> future : futures) {
+            ids.addAll(future.get(30, TimeUnit.SECONDS));
+        }
+        executor.shutdown();
+
+        assertEquals(threads * perThread, ids.size());
+        assertEquals(threads * perThread, repository.findAll().size());
+    }
+
+    @Test
+    void shouldNeitherLoseStockAdjustmentsNorGoNegative() throws Exception {
+        Long id = repository.save(newProduct("Screw", "Hardware", "0.10", 0)).getId();
+        int threads = 4;
+        int perThread = 2_000;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<Integer>> futures = new ArrayList<>();
+
+        // Half the threads put items in, the other half take them out whenever there are any
+        for (int t = 0; t < threads; t++) {
+            int delta = t % 2 == 0 ? 1 : -1;
+            futures.add(executor.submit(() -> {
+                start.await();
+                int taken = 0;
+                for (int i = 0; i < perThread; i++) {
+                    try {
+                        repository.adjustStock(id, delta);
+                        taken += delta < 0 ? 1 : 0;
+                    } catch (InsufficientStockException e) {
+                        assertEquals(0, e.getQuantityInStock());
+                    }
+                }
+                return taken;
+            }));
+        }
+        start.countDown();
+
+        int taken = 0;
+        for (Future<Integer> future : futures) {
+            taken += future.get(30, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+
+        int expected = threads / 2 * perThread - taken;
+        Product product = repository.findById(id).orElseThrow();
+        assertEquals(expected, product.getQuantityInStock());
+        assertEquals(1 + threads / 2 * perThread + taken, product.getVersion());
+        assertEquals(expected > 0 ? 1 : 0, repository.countByAvailability(true));
+        assertEquals(new BigDecimal("0.10").multiply(BigDecimal.valueOf(expected)),
+                repository.getCategoryTotals().get("Hardware").getTotalValue());
+    }
+
+    @Test
+    void shouldKeepSecondaryIndexesInSyncWithSavesAndDeletes() {
+        Product apple = repository.save(newProduct("Apple", "Food", "1.50", 10));
+        Product soap = repository.save(newProduct("Soap", "Hygiene", "3.00", 0));
+        apple.setExpirationDate(LocalDate.of(2030, 1, 10));
+        repository.save(apple);
+
+        assertEquals(contents(apple), contents(repository.findByCategory("fOOd")));
+        assertEquals(contents(soap), contents(repository.findByAvailability(false)));
+        assertEquals(contents(apple), contents(repository.findByExpirationDateBetween(LocalDate.of(2030, 1, 1), null)));
+
+        // Changed in place, the old index entries must still be removed
+        apple.setCategory("Fruit");
+        apple.setQuantityInStock(0);
+        repository.save(apple);
+
+        assertTrue(repository.findByCategory("food").isEmpty());
+        assertEquals(1, repository.countByCategory("FRUIT"));
+        assertEquals(2, repository.countByAvailability(false));
+        assertEquals(0, repository.countByAvailability(true));
+
+        // Every save is a new version, whatever version the saved object carried
+        assertEquals(3, apple.getVersion());
+        assertEquals(1, soap.getVersion());
+
+        repository.deleteById(apple.getId());
+
+        assertTrue(repository.findByCategory("fruit").isEmpty());
+        assertEquals(contents(soap), contents(repository.findByAvailability(false)));
+        assertTrue(repository.findByExpirationDateBetween(null, null).isEmpty());
+
+        Product replacement = newProduct("Soap", "Hygiene", "2.00", 0);
+        replacement.setId(soap.getId());
+        assertEquals(2, repository.save(replacement).getVersion());
+    }
+
+    @Test
+    void compareAndSaveShouldOnlyWriteOverTheExpectedVersion() {
+        Product apple = repository.save(newProduct("Apple", "Food", "1.50", 10));
+        Product stale = new Product(repository.findById(apple.getId()).orElseThrow());
+
+        Product changed = new Product(stale);
+        changed.setQuantityInStock(3);
+        assertEquals(2, repository.compareAndSave(changed, 1).getVersion());
+
+        stale.setQuantityInStock(0);
+        ProductVersionConflictException conflict =
+                assertThrows(ProductVersionConflictException.class, () -> repository.compareAndSave(stale, 1));
+        assertEquals(2, conflict.getActualVersion());
+        assertEquals(3, repository.findById(apple.getId()).orElseThrow().getQuantityInStock());
+        assertEquals(0, repository.countByAvailability(false));
+
+        // The saved object is the caller's, the repository has its own copy
+        changed.setQuantityInStock(0);
+        assertEquals(3, repository.findById(apple.getId()).orElseThrow().getQuantityInStock());
+
+        repository.deleteById(apple.getId());
+        assertEquals(0, assertThrows(ProductVersionConflictException.class,
+                () -> repository.compareAndSave(changed, 2)).getActualVersion());
+    }
+
+    @Test
+    void nameSearchShouldMatchPlainContainsScan() {
+        String[] names = {"Green Apple", "apple pie", "Pineapple", "Grape", "Banana", "Ananas", "PAPAYA", "ap"};
+        List<Product> products = new ArrayList<>();
+        for (String name : names) {
+            products.add(repository.save(newProduct(name, "Food", "1.00", 1)));
+        }
+        // Renamed in place, the trigrams of the old name must be dropped
+        products.get(4).setName("Plantain");
+        repository.save(products.get(4));
+
+        for (String query : new String[]{"", "a", "AP", "app", "APPLE", "ana", "anan", "pap", "plan", "ban", "xyz"}) {
+            Set<Long> expected = new HashSet<>();
+            for (Product product : repository.findAll()) {
+                if (product.getName().toLowerCase().contains(query.toLowerCase())) {
+                    expected.add(product.getId());
+                }
+            }
+            Set<Long> actual = new HashSet<>();
+            repository.findByNameContaining(query).forEach(p -> actual.add(p.getId()));
+
+            assertEquals(expected, actual, "query '" + query + "'");
+        }
+    }
+
+}
@@ -0,0 +1,338 @@
+package com.kristian.inventory;
+
+import com.kristian.inventory.config.InventoryProperties;
+import com.kristian.inventory.model.Product;
+import com.kristian.inventory.repository.InMemoryProductRepository;
+import com.kristian.inventory.repository.persistence.PersistentProductRepository;
+import com.kristian.inventory.repository.persistence.WriteAheadLogFailedException;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PersistentProductRepositoryTest {
+
+    @TempDir
+    Path directory;
+
+    private PersistentProductRepository open() {
+        return open(new InMemoryProductRepository());
+    }
+
+    private PersistentProductRepository open(InMemoryProductRepository memory) {
+        InventoryProperties properties = new InventoryProperties();
+        properties.getPersistence().setDirectory(directory.toString());
+        return new PersistentProductRepository(memory, properties);
+    }
+
+    private Product newProduct(String name, String price, int stock) {
+        Product product = new Product();
+        product.setName(name);
+        product.setCategory("Food");
+        product.setUnitPrice(new BigDecimal(price));
+        product.setQuantityInStock(stock);
+        return product;
+    }
+
+    // toString has every field, timestamps included
+    private List<String> contents(PersistentProductRepository repository) {
+        return repository.findAll().stream()
+                .sorted(Comparator.comparing(Product::getId))
+                .map(Product::toString)
+                .toList();
+    }
+
+    private void writeSomeProducts(PersistentProductRepository repository) {
+        Product apple = repository.save(newProduct("Apple", "1.50", 10));
+        Product melon = repository.save(newProduct("Melon", "2.25", 0));
+        repository.saveAll(List.of(newProduct("Soap", "3.00", 4), newProduct("Große Säge", "123456789012345678901.5", 1)));
+
+        apple.setQuantityInStock(0);
+        apple.setExpirationDate(LocalDate.of(2030, 1, 1));
+        repository.save(apple);
+        repository.deleteById(melon.getId());
+    }
+
+    @Test
+    void shouldRecoverFromSnapshotAndLog() throws IOException {
+        PersistentProductRepository first = open();
+        writeSomeProducts(first);
+        first.snapshot();
+        // Written after the snapshot, so only in the log
+        first.save(newProduct("Pear", "0.99", 3));
+        List<String> expected = contents(first);
+
+        PersistentProductRepository second = open();
+        assertEquals(expected, contents(second));
+        assertEquals(4, second.count());
+        assertEquals(1, second.findByAvailability(false).size());
+
+        // Ids continue after the recovered ones
+        Product next = second.save(newProduct("Kiwi", "1.00", 1));
+        assertTrue(first.findAll().stream().allMatch(p -> p.getId() < next.getId()));
+
+        first.close();
+        second.close();
+    }
+
+    @Test
+    void shouldRecoverWritesMadeWhileSnapshotting() throws Exception {
+        InMemoryProductRepository memory = new InMemoryProductRepository();
+        PersistentProductRepository first = open(memory);
+        Product apple = first.save(newProduct("Apple", "1.50", 10));
+        Product melon = first.save(newProduct("Melon", "2.25", 5));
+
+        // A snapshot runs while the repository is still applying the save and the delete: it may wait for
+        // them, but must not finish without them
+        ExecutorService snapshots = Executors.newSingleThreadExecutor();
+        memory.addChangeListener(change -> {
+            Future<?> snapshot = snapshots.submit(() -> {
+                first.snapshot();
+                return null;
+            });
+            try {
+                snapshot.get(200, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                // Waiting for this write
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        apple.setQuantityInStock(3);
+        first.save(apple);
+        first.deleteById(melon.getId());
+        snapshots.shutdown();
+        assertTrue(snapshots.awaitTermination(10, TimeUnit.SECONDS));
+        List<String> expected = contents(first);
+
+        // Opened before the first one takes its closing snapshot: only the snapshots above and the log count
+        PersistentProductRepository second = open();
+        assertEquals(expected, contents(second));
+        assertEquals(3, second.findById(apple.getId()).orElseThrow().getQuantityInStock());
+        assertTrue(second.findById(melon.getId()).isEmpty());
+
+        first.close();
+        second.close();
+    }
+
+    @Test
+    void shouldNotLogWritesCalledOffByAListener() throws IOException {
+        InMemoryProductRepository memory = new InMemoryProductRepository();
+        PersistentProductRepository first = open(memory);
+        Product apple = first.save(newProduct("Apple", "1.50", 10));
+        Product melon = first.save(newProduct("Melon", "2.25", 5));
+        memory.addChangeListener(change -> {
+            if (change.id().equals(melon.getId()) || "Pear".equals(change.product() == null ? null : change.product().getName())) {
+                throw new IllegalStateException("listener failed");
+            }
+        });
+
+        Product renamed = new Product(melon);
+        renamed.setName("Watermelon");
+        renamed.setCategory("Fruit");
+        assertThrows(IllegalStateException.class, () -> first.save(renamed));
+        // Queries check the stored product anyway, the indexes themselves must not have the Fruit key either
+        assertEquals(1, first.getIndexSizes().get("category"));
+        assertEquals(1, first.getIndexSizes().get("category-totals"));
+        assertThrows(IllegalStateException.class, () -> first.deleteById(melon.getId()));
+        assertThrows(IllegalStateException.class, () -> first.adjustStock(melon.getId(), -5));
+        assertThrows(IllegalStateException.class, () -> first.save(newProduct("Pear", "0.80", 1)));
+        // The log goes on after the numbers of the called-off writes
+        apple.setQuantityInStock(4);
+        first.save(apple);
+
+        // Memory and its indexes still have the product as it was
+        assertEquals("Melon", first.findById(melon.getId()).orElseThrow().getName());
+        assertEquals(List.of(melon.getId()), first.findByNameContaining("melon").stream().map(Product::getId).toList());
+        assertTrue(first.findByNameContaining("watermelon").isEmpty());
+        assertTrue(first.findByNameContaining("pear").isEmpty());
+        assertEquals(2, first.findByCategory("Food").size());
+        assertTrue(first.findByCategory("Fruit").isEmpty());
+        List<String> expected = contents(first);
+
+        // And so does the log
+        PersistentProductRepository second = open();
+        assertEquals(expected, contents(second));
+
+        first.close();
+        second.close();
+    }
+
+    @Test
+    void shouldRefuseToStartWhenNoSnapshotCanBeRead() throws IOException {
+        PersistentProductRepository first = open();
+        writeSomeProducts(first);
+        first.snapshot();
+        first.save(newProduct("Pear", "0.80", 1));
+        // Takes the second snapshot, the log before the first one is removed
+        first.close();
+        List<String> expected = contents(first);
+
+        // The newest one unreadable: the previous one and the log after it
+        List<Path> snapshots = snapshotFiles();
+        assertEquals(2, snapshots.size());
+        Files.write(snapshots.get(1), new byte[]{1, 2, 3});
+        PersistentProductRepository second = open();
+        assertEquals(expected, contents(second));
+        second.close();
+
+        // Both unreadable: the log that is left would give back only part of the catalog
+        snapshots = snapshotFiles();
+        assertEquals(2, snapshots.size());
+        for (Path snapshot : snapshots) {
+            Files.write(snapshot, new byte[]{1, 2, 3});
+        }
+        UncheckedIOException failure = assertThrows(UncheckedIOException.class, this::open);
+        assertTrue(failure.getCause().getMessage().contains("None of the 2 snapshots"), failure.getCause().getMessage());
+    }
+
+    private List<Path> snapshotFiles() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(f -> f.getFileName().toString().startsWith("snapshot-")).sorted().toList();
+        }
+    }
+
+    @Test
+    void shouldIgnoreTornRecordAtEndOfLog() throws IOException {
+        PersistentProductRepository first = open();
+        writeSomeProducts(first);
+        List<String> expected = contents(first);
+
+        // The process died in the middle of appending a record
+        Path lastSegment;
+        try (Stream<Path> files = Files.list(directory)) {
+            lastSegment = files.filter(f -> f.getFileName().toString().startsWith("wal-")).max(Path::compareTo).orElseThrow();
+        }
+        Files.write(lastSegment, new byte[]{0, 0, 0, 40, 1, 2, 3}, StandardOpenOption.APPEND);
+
+        PersistentProductRepository second = open();
+        assertEquals(expected, contents(second));
+
+        first.close();
+        second.close();
+    }
+
+    @Test
+    void shouldNotReuseIdOfDeletedProductAfterRestart() throws IOException {
+        PersistentProductRepository first = open();
+        writeSomeProducts(first);
+        Product last = first.save(newProduct("Pear", "0.99", 3));
+        first.deleteById(last.getId());
+        first.snapshot();
+        first.close();
+
+        // The snapshot doesn't hold the deleted product, the id counter it carries still covers it
+        PersistentProductRepository second = open();
+        assertTrue(second.save(newProduct("Kiwi", "1.00", 1)).getId() > last.getId());
+        second.close();
+    }
+
+    @Test
+    void shouldRejectWritesOnceLogFailed() throws IOException {
+        PersistentProductRepository repository = open();
+        Product apple = repository.save(newProduct("Apple", "1.50", 10));
+
+        // A directory where the next segment goes makes the rotation fail
+        long segment;
+        try (Stream<Path> files = Files.list(directory)) {
+            segment = files.map(f -> f.getFileName().toString())
+                    .filter(name -> name.startsWith("wal-"))
+                    .mapToLong(name -> Long.parseLong(name.substring(4, name.length() - 4)))
+                    .max().orElseThrow();
+        }
+        Files.createDirectory(directory.resolve(String.format("wal-%016d.log", segment + 1)));
+
+        assertTimeoutPreemptively(Duration.ofSeconds(10), () -> {
+            assertThrows(WriteAheadLogFailedException.class, repository::snapshot);
+            assertThrows(WriteAheadLogFailedException.class, () -> repository.save(newProduct("Pear", "0.99", 3)));
+            assertThrows(WriteAheadLogFailedException.class, () -> repository.adjustStock(apple.getId(), -1));
+            // Nothing reached memory
+            assertEquals(1, repository.count());
+            assertEquals(10, repository.findById(apple.getId()).orElseThrow().getQuantityInStock());
+            repository.close();
+        });
+    }
+
+    // A product the way format 1 wrote it: no version after the timestamps
+    private static byte[] formatOneProduct(long id, String name, int stock) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeLong(id);
+        out.writeInt(name.length());
+        out.writeBytes(name);
+        out.writeInt(-1);               // no category
+        out.writeByte(1);
+        out.writeLong(150);
+        out.writeInt(2);                // 1.50
+        out.writeInt(stock);
+        out.writeLong(Long.MIN_VALUE);  // no expiration
+        out.writeLong(1_700_000_000L);
+        out.writeInt(0);
+        out.writeLong(1_700_000_000L);
+        out.writeInt(0);
+        return bytes.toByteArray();
+    }
+
+    @Test
+    void shouldRecoverFormatOneSnapshotAndLog() throws IOException {
+        ByteArrayOutputStream snapshot = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(snapshot);
+        out.writeInt(0x494E5653);
+        out.writeInt(1);
+        out.writeLong(0);
+        out.writeInt(1);
+        out.write(formatOneProduct(1, "Apple", 10));
+        CRC32 crc = new CRC32();
+        crc.update(snapshot.toByteArray());
+        out.writeInt((int) crc.getValue());
+        Files.write(directory.resolve(String.format("snapshot-%016d.bin", 0)), snapshot.toByteArray());
+
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        body.write(1);                  // PUT as format 1 wrote it
+        body.write(formatOneProduct(2, "Melon", 3));
+        ByteArrayOutputStream record = new ByteArrayOutputStream();
+        out = new DataOutputStream(record);
+        crc.reset();
+        crc.update(body.toByteArray());
+        out.writeInt(body.size());
+        out.writeInt((int) crc.getValue());
+        out.write(body.toByteArray());
+        Files.write(directory.resolve(String.format("wal-%016d.log", 0)), record.toByteArray());
+
+        PersistentProductRepository repository = open();
+        assertEquals(List.of("Apple", "Melon"), repository.findAll().stream()
+                .sorted(Comparator.comparing(Product::getId)).map(Product::getName).toList());
+        Product melon = repository.findById(2L).orElseThrow();
+        assertEquals(1, melon.getVersion());
+        assertEquals(new BigDecimal("1.50"), melon.getUnitPrice());
+        assertEquals(2, repository.adjustStock(2L, 1).orElseThrow().getVersion());
+        repository.close();
+
+        // Written again in the current formats
+        PersistentProductRepository reopened = open();
+        assertEquals(2, reopened.findById(2L).orElseThrow().getVersion());
+        assertEquals(10, reopened.findById(1L).orElseThrow().getQuantityInStock());
+        reopened.close();
+    }
+
+}
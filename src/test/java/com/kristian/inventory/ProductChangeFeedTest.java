@@ -0,0 +1,174 @@
+package com.kristian.inventory;
+
+import com.kristian.inventory.config.InventoryProperties;
+import com.kristian.inventory.dto.ProductChangeEvent;
+import com.kristian.inventory.model.Product;
+import com.kristian.inventory.repository.InMemoryProductRepository;
+import com.kristian.inventory.service.ChangeFeedBusyException;
+import com.kristian.inventory.service.ChangeFeedGoneException;
+import com.kristian.inventory.service.ProductChangeFeed;
+import com.kristian.inventory.service.ProductsExpiredEvent;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ProductChangeFeedTest {
+
+    private InMemoryProductRepository repository;
+    private InventoryProperties properties;
+    private ProductChangeFeed feed;
+
+    @BeforeEach
+    void setUp() {
+        repository = new InMemoryProductRepository();
+        properties = new InventoryProperties();
+    }
+
+    @AfterEach
+    void tearDown() {
+        feed.close();
+    }
+
+    private void startFeed() {
+        StaticListableBeanFactory beans = new StaticListableBeanFactory(Map.of("repository", repository));
+        feed = new ProductChangeFeed(beans.getBeanProvider(InMemoryProductRepository.class), properties);
+    }
+
+    private Product save(String name) {
+        Product product = new Product();
+        product.setName(name);
+        product.setCategory("Food");
+        product.setUnitPrice(new BigDecimal("1.00"));
+        product.setQuantityInStock(3);
+        return repository.save(product);
+    }
+
+    @Test
+    void shouldNumberEveryChangeInOrder() {
+        startFeed();
+        Product milk = save("Milk");
+        milk.setName("Whole milk");
+        repository.save(milk);
+        repository.adjustStock(milk.getId(), -1);
+        repository.deleteById(milk.getId());
+
+        List<ProductChangeEvent> events = feed.eventsAfter(0, 10);
+        assertEquals(List.of("created", "updated", "stock", "deleted"), events.stream().map(ProductChangeEvent::getType).toList());
+        assertEquals(List.of(1L, 2L, 3L, 4L), events.stream().map(ProductChangeEvent::getSequence).toList());
+        assertEquals(feed.eventId(2), events.get(1).getEventId());
+        assertEquals("Whole milk", events.get(1).getProduct().getName());
+        assertEquals(2, events.get(2).getProduct().getQuantityInStock());
+        assertNull(events.get(3).getProduct());
+
+        // Resuming after event 2, at most one at a time
+        assertEquals(List.of(3L), feed.eventsAfter(2, 1).stream().map(ProductChangeEvent::getSequence).toList());
+        assertEquals(4, feed.getLastSequence());
+    }
+
+    @Test
+    void shouldNumberConcurrentChangesWithoutGaps() throws InterruptedException {
+        startFeed();
+        Thread[] writers = new Thread[4];
+        for (int w = 0; w < writers.length; w++) {
+            writers[w] = new Thread(() -> {
+                Product product = save("Milk");
+                for (int i = 0; i < 500; i++) {
+                    repository.adjustStock(product.getId(), 1);
+                }
+            });
+            writers[w].start();
+        }
+        for (Thread writer : writers) {
+            writer.join();
+        }
+
+        assertEquals(4 * 501, feed.getLastSequence());
+        List<ProductChangeEvent> events = feed.eventsAfter(0, 4 * 501);
+        for (int i = 0; i < events.size(); i++) {
+            assertEquals(i + 1, events.get(i).getSequence());
+        }
+        // The changes of one product come in the order they were applied
+        Map<Long, Integer> lastQuantity = new HashMap<>();
+        for (ProductChangeEvent event : events) {
+            int quantity = event.getProduct().getQuantityInStock();
+            Integer previous = lastQuantity.put(event.getId(), quantity);
+            assertTrue(previous == null || previous + 1 == quantity);
+        }
+    }
+
+    @Test
+    void shouldKeepPublishingWhenWritersLapTheRing() throws InterruptedException {
+        // A writer that took its number can be overtaken by one a whole ring later, before either filled its slot
+        properties.getChangeFeed().setCapacity(2);
+        startFeed();
+        Thread[] writers = new Thread[8];
+        for (int w = 0; w < writers.length; w++) {
+            writers[w] = new Thread(() -> {
+                Product product = save("Milk");
+                for (int i = 0; i < 5000; i++) {
+                    repository.adjustStock(product.getId(), 1);
+                }
+            });
+            writers[w].start();
+        }
+        for (Thread writer : writers) {
+            writer.join();
+        }
+
+        assertEquals(8 * 5001, feed.getLastSequence());
+        // What is left in the ring is the newest events, in order
+        List<ProductChangeEvent> events = feed.eventsAfter(8 * 5001 - 2, 10);
+        assertEquals(List.of(8 * 5001L - 1, 8 * 5001L), events.stream().map(ProductChangeEvent::getSequence).toList());
+        // A sender one event further back finds a newer event in the slot it expects and is dropped
+        assertThrows(ChangeFeedGoneException.class, () -> feed.eventsAfter(8 * 5001 - 3, 10));
+    }
+
+    @Test
+    void shouldSendExpiredProducts() {
+        startFeed();
+        Product milk = save("Milk");
+        feed.onProductsExpired(new ProductsExpiredEvent(null, LocalDate.of(2030, 6, 14), List.of(milk)));
+
+        List<ProductChangeEvent> events = feed.eventsAfter(1, 10);
+        assertEquals(List.of("expired"), events.stream().map(ProductChangeEvent::getType).toList());
+        assertEquals(milk.getId(), events.get(0).getId());
+        assertEquals(2, feed.getLastSequence());
+    }
+
+    @Test
+    void shouldOnlyResumeWithinTheRing() {
+        properties.getChangeFeed().setCapacity(3);
+        startFeed();
+        for (int i = 0; i < 5; i++) {
+            save("Product " + i);
+        }
+
+        // Events 3 to 5 are kept
+        assertEquals(3, feed.eventsAfter(2, 10).size());
+        assertThrows(ChangeFeedGoneException.class, () -> feed.eventsAfter(1, 10));
+        assertThrows(ChangeFeedGoneException.class, () -> feed.eventsAfter(6, 10));
+        assertThrows(ChangeFeedGoneException.class, () -> feed.subscribe(feed.eventId(1)));
+        // Ids from before a restart, even with a number the feed has
+        assertThrows(ChangeFeedGoneException.class, () -> feed.subscribe("0-4"));
+        assertThrows(ChangeFeedGoneException.class, () -> feed.subscribe("4"));
+    }
+
+    @Test
+    void shouldRefuseSubscribersOverTheLimit() {
+        properties.getChangeFeed().setMaxSubscribers(0);
+        startFeed();
+
+        assertThrows(ChangeFeedBusyException.class, () -> feed.subscribe(null));
+        assertEquals(0, feed.getSubscriberCount());
+    }
+
+}
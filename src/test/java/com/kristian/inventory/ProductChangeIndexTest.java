@@ -0,0 +1,196 @@
+package com.kristian.inventory;
+
+import com.kristian.inventory.config.InventoryProperties;
+import com.kristian.inventory.dto.ProductChangeSet;
+import com.kristian.inventory.model.Product;
+import com.kristian.inventory.repository.InMemoryProductRepository;
+import com.kristian.inventory.repository.persistence.PersistentProductRepository;
+import com.kristian.inventory.service.ProductChangeIndex;
+import com.kristian.inventory.service.SyncTooOldException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.core.env.MapPropertySource;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ProductChangeIndexTest {
+
+    private InMemoryProductRepository repository;
+    private InventoryProperties properties;
+
+    @BeforeEach
+    void setUp() {
+        repository = new InMemoryProductRepository();
+        properties = new InventoryProperties();
+    }
+
+    private ProductChangeIndex startIndex() {
+        StaticListableBeanFactory beans = new StaticListableBeanFactory(Map.of("repository", repository));
+        ProductChangeIndex index = new ProductChangeIndex(repository, beans.getBeanProvider(InMemoryProductRepository.class), properties);
+        index.start();
+        return index;
+    }
+
+    private Product save(String name) {
+        Product product = new Product();
+        product.setName(name);
+        product.setCategory("Food");
+        product.setUnitPrice(new BigDecimal("1.00"));
+        product.setQuantityInStock(5);
+        return repository.save(product);
+    }
+
+    private static List<String> names(ProductChangeSet changes) {
+        return changes.getUpdated().stream().map(Product::getName).sorted().toList();
+    }
+
+    @Test
+    void shouldReturnOnlyWhatChangedSinceTheLastSync() {
+        Product milk = save("Milk");
+        Product bread = save("Bread");
+        ProductChangeIndex index = startIndex();
+        save("Salt");
+
+        ProductChangeSet full = index.changesSince(0, 100);
+        assertEquals(List.of("Bread", "Milk", "Salt"), names(full));
+        assertFalse(full.isMore());
+
+        milk.setName("Whole milk");
+        repository.save(milk);
+        repository.adjustStock(milk.getId(), -1);
+        repository.deleteById(bread.getId());
+        save("Pepper");
+
+        ProductChangeSet changes = index.changesSince(full.getNext(), 100);
+        assertEquals(List.of("Pepper", "Whole milk"), names(changes));
+        assertEquals(4, changes.getUpdated().stream().filter(p -> p.getName().equals("Whole milk")).findFirst().orElseThrow().getQuantityInStock());
+        assertEquals(List.of(bread.getId()), changes.getDeleted());
+
+        // Nothing new
+        ProductChangeSet none = index.changesSince(changes.getNext(), 100);
+        assertTrue(none.getUpdated().isEmpty() && none.getDeleted().isEmpty());
+        assertEquals(changes.getNext(), none.getNext());
+        // Ahead of the newest change
+        ProductChangeSet ahead = index.changesSince(changes.getNext() + 1_000_000, 100);
+        assertTrue(ahead.getUpdated().isEmpty() && ahead.getDeleted().isEmpty());
+        assertEquals(changes.getNext() + 1_000_000, ahead.getNext());
+
+        // In pages of two
+        ProductChangeSet first = index.changesSince(full.getNext(), 2);
+        assertTrue(first.isMore());
+        ProductChangeSet second = index.changesSince(first.getNext(), 2);
+        assertFalse(second.isMore());
+        assertEquals(3, first.getUpdated().size() + first.getDeleted().size() + second.getUpdated().size() + second.getDeleted().size());
+    }
+
+    @Test
+    void shouldReturnProductsRestoredFromDisk(@TempDir Path directory) throws IOException {
+        InventoryProperties persistence = new InventoryProperties();
+        persistence.getPersistence().setDirectory(directory.toString());
+        PersistentProductRepository persistent = new PersistentProductRepository(repository, persistence);
+        save("Milk");
+        save("Bread");
+        // Loaded from the snapshot on startup, without telling the listeners
+        persistent.snapshot();
+        persistent.close();
+
+        // Registered first, so created first unless it depends on the repositories: recovery has to run before the
+        // index looks at the catalog
+        try (AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext()) {
+            context.getEnvironment().getPropertySources().addFirst(
+                    new MapPropertySource("test", Map.of("inventory.persistence.enabled", "true")));
+            context.registerBean(InventoryProperties.class, () -> persistence);
+            context.register(ProductChangeIndex.class, InMemoryProductRepository.class, PersistentProductRepository.class);
+            context.refresh();
+
+            ProductChangeIndex index = context.getBean(ProductChangeIndex.class);
+            assertEquals(List.of("Bread", "Milk"), names(index.changesSince(0, 100)));
+        }
+    }
+
+    @Test
+    void shouldRefuseSyncsOlderThanTheForgottenTombstones() {
+        properties.getChanges().setTombstoneRetention(Duration.ZERO);
+        ProductChangeIndex index = startIndex();
+        Product milk = save("Milk");
+        long afterCreate = index.changesSince(0, 100).getNext();
+
+        repository.deleteById(milk.getId());
+        save("Bread");
+        // What the purger thread does once a minute
+        index.purgeTombstones();
+
+        assertThrows(SyncTooOldException.class, () -> index.changesSince(afterCreate, 100));
+        assertEquals(List.of("Bread"), names(index.changesSince(0, 100)));
+        // From before the index started
+        assertThrows(SyncTooOldException.class, () -> index.changesSince(1, 100));
+    }
+
+    @Test
+    void shouldKeepAReplicaInSyncDuringConcurrentWrites() throws Exception {
+        ProductChangeIndex index = startIndex();
+        List<Long> ids = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            ids.add(save("Product " + i).getId());
+        }
+
+        ExecutorService writers = Executors.newFixedThreadPool(4);
+        List<Future<?>> done = new ArrayList<>();
+        for (int w = 0; w < 4; w++) {
+            Random random = new Random(w);
+            done.add(writers.submit(() -> {
+                for (int i = 0; i < 2000; i++) {
+                    Long id = ids.get(random.nextInt(ids.size()));
+                    switch (random.nextInt(4)) {
+                        case 0 -> repository.deleteById(id);
+                        case 1 -> save("New " + i);
+                        default -> repository.adjustStock(id, 1);
+                    }
+                }
+            }));
+        }
+
+        Map<Long, String> replica = new HashMap<>();
+        long since = 0;
+        while (done.stream().anyMatch(f -> !f.isDone())) {
+            since = sync(index, since, replica);
+        }
+        writers.shutdown();
+        assertTrue(writers.awaitTermination(10, TimeUnit.SECONDS));
+        sync(index, since, replica);
+
+        Map<Long, String> expected = repository.findAll().stream()
+                .collect(Collectors.toMap(Product::getId, p -> p.getName() + "/" + p.getQuantityInStock()));
+        assertEquals(expected, replica);
+    }
+
+    private static long sync(ProductChangeIndex index, long since, Map<Long, String> replica) {
+        ProductChangeSet changes;
+        do {
+            changes = index.changesSince(since, 50);
+            changes.getUpdated().forEach(p -> replica.put(p.getId(), p.getName() + "/" + p.getQuantityInStock()));
+            changes.getDeleted().forEach(replica::remove);
+            since = changes.getNext();
+        } while (changes.isMore());
+        return since;
+    }
+
+}
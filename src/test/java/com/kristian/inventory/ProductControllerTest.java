@@ -1,32 +1,63 @@
 package com.kristian.inventory;
 
+import com.kristian.inventory.config.InventoryProperties;
 import com.kristian.inventory.controller.ProductController;
+import com.kristian.inventory.dto.CacheStats;
+import com.kristian.inventory.dto.ExplainedPage;
+import com.kristian.inventory.dto.InventoryMetrics;
+import com.kristian.inventory.dto.ProductPage;
+import com.kristian.inventory.dto.QueryPlan;
+import com.kristian.inventory.dto.StockAdjustmentResult;
 import com.kristian.inventory.model.Product;
+import com.kristian.inventory.repository.InsufficientStockException;
+import com.kristian.inventory.repository.StockAdjustment;
+import com.kristian.inventory.repository.StockOverflowException;
+import com.kristian.inventory.service.ProductChangeFeed;
+import com.kristian.inventory.service.ProductChangeIndex;
+import com.kristian.inventory.service.ProductExportService;
+import com.kristian.inventory.service.ProductImportService;
 import com.kristian.inventory.service.ProductService;
+import com.kristian.inventory.service.StockEventPipeline;
+import com.kristian.inventory.service.StockEventQueueFullException;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Import;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
 import org.springframework.beans.factory.annotation.Autowired;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.springframework.http.MediaType;
 
 import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.BDDMockito.given;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
 import static org.mockito.ArgumentMatchers.any;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.patch;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 
 
 
 @WebMvcTest(ProductController.class)
+@Import(InventoryProperties.class)
 class ProductControllerTest {
 
     @Autowired
@@ -35,6 +66,21 @@ class ProductControllerTest {
     @MockBean
     private ProductService productService;
 
+    @MockBean
+    private ProductImportService productImportService;
+
+    @MockBean
+    private ProductExportService productExportService;
+
+    @MockBean
+    private StockEventPipeline stockEventPipeline;
+
+    @MockBean
+    private ProductChangeFeed productChangeFeed;
+
+    @MockBean
+    private ProductChangeIndex productChangeIndex;
+
     private Product testProduct;
 
     @BeforeEach
@@ -60,6 +106,212 @@ class ProductControllerTest {
                 .andExpect(jsonPath("$[0].name").value("Test Product"));
     }
 
+    @Test
+    void shouldUseDefaultsForEmptyListingParameters() throws Exception {
+        given(productService.getFilteredSortedPaginatedProducts(
+                0, 10, "name", "asc", null, "asc", null, null, null
+        )).willReturn(List.of(testProduct));
+
+        mockMvc.perform(get("/products").param("page", "").param("size", "").param("sortBy", ""))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].name").value("Test Product"));
+    }
+
+    @Test
+    void shouldExplainListingInBodyOrServerTiming() throws Exception {
+        QueryPlan plan = new QueryPlan(100, false, 2_000_000, 4096L, List.of(
+                new QueryPlan.Stage("candidates", "category index", 100, 20, 1_500_000, 2048L)));
+        given(productService.explainFilteredSortedPaginatedProducts(0, 10, "name", "asc", null, "asc", null, "Food", null))
+                .willReturn(new ExplainedPage(List.of(testProduct), plan));
+
+        mockMvc.perform(get("/products").param("category", "Food").param("explain", "true"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.items[0].name").value("Test Product"))
+                .andExpect(jsonPath("$.plan.stages[0].path").value("category index"))
+                .andExpect(jsonPath("$.plan.stages[0].output").value(20));
+
+        mockMvc.perform(get("/products").param("category", "Food").header(ProductController.EXPLAIN_HEADER, "true"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].name").value("Test Product"))
+                .andExpect(header().string("Server-Timing",
+                        "candidates;dur=1.500;desc=\"category index 100->20\", total;dur=2.000"));
+
+        // Both at once: the plan goes into the body
+        mockMvc.perform(get("/products").param("category", "Food").param("explain", "true")
+                        .header(ProductController.EXPLAIN_HEADER, "true"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.plan.stages[0].path").value("category index"))
+                .andExpect(header().exists("Server-Timing"));
+
+        mockMvc.perform(get("/products").param("cursor", "abc").param("explain", "true"))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    void shouldContinueFromCursor() throws Exception {
+        given(productService.getProductsAfterCursor("abc", 10, null, null, null, false))
+                .willReturn(new ProductPage(List.of(testProduct), "def", 1));
+
+        mockMvc.perform(get("/products").param("cursor", "abc"))
+                .andExpect(status().isOk())
+                .andExpect(header().string(ProductController.NEXT_CURSOR_HEADER, "def"))
+                .andExpect(jsonPath("$[0].name").value("Test Product"));
+    }
+
+    @Test
+    void shouldReturnCacheStats() throws Exception {
+        given(productService.getCacheStats())
+                .willReturn(Map.of("pages", new CacheStats(3, 1, 0, 0, 1, 2, 256)));
+
+        mockMvc.perform(get("/products/cache/stats"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.pages.hits").value(3))
+                .andExpect(jsonPath("$.pages.invalidations").value(1));
+    }
+
+    @Test
+    void shouldAnswerUnchangedCatalogWithNotModified() throws Exception {
+        given(productService.getCatalogTag()).willReturn("abc-7");
+        given(productService.getFilteredSortedPaginatedProducts(0, 10, "name", "asc", null, "asc", null, null, null))
+                .willReturn(List.of(testProduct));
+
+        mockMvc.perform(get("/products"))
+                .andExpect(status().isOk())
+                .andExpect(header().string("ETag", "\"abc-7\""));
+
+        mockMvc.perform(get("/products").header("If-None-Match", "\"abc-7\""))
+                .andExpect(status().isNotModified())
+                .andExpect(content().string(""));
+        mockMvc.perform(get("/products/metrics").header("If-None-Match", "\"abc-7\""))
+                .andExpect(status().isNotModified());
+
+        // The query only ran for the first request
+        verify(productService, times(1))
+                .getFilteredSortedPaginatedProducts(0, 10, "name", "asc", null, "asc", null, null, null);
+        verify(productService, never()).getInventoryMetrics();
+    }
+
+    @Test
+    void shouldTagProductWithItsVersion() throws Exception {
+        testProduct.setVersion(3);
+        testProduct.setUpdatedAt(LocalDateTime.of(2030, 1, 1, 12, 0));
+        given(productService.getProductById(1L)).willReturn(Optional.of(testProduct));
+        given(productService.getProductTag(testProduct)).willReturn("abc-1-3");
+
+        mockMvc.perform(get("/products/1"))
+                .andExpect(status().isOk())
+                .andExpect(header().string("ETag", "\"abc-1-3\""))
+                .andExpect(header().exists("Last-Modified"))
+                .andExpect(jsonPath("$.version").doesNotExist());
+
+        mockMvc.perform(get("/products/1").header("If-None-Match", "\"abc-1-2\""))
+                .andExpect(status().isOk());
+        mockMvc.perform(get("/products/1").header("If-None-Match", "\"abc-1-3\""))
+                .andExpect(status().isNotModified());
+    }
+
+    @Test
+    void shouldRejectUpdateOfAnotherVersion() throws Exception {
+        testProduct.setVersion(4);
+        given(productService.getProductById(1L)).willReturn(Optional.of(testProduct));
+        given(productService.getProductTag(testProduct)).willReturn("abc-1-4");
+        String json = new ObjectMapper().writeValueAsString(testProduct);
+
+        mockMvc.perform(put("/products/1")
+                        .header("If-Match", "\"abc-1-3\"")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(json))
+                .andExpect(status().isPreconditionFailed())
+                .andExpect(header().string("ETag", "\"abc-1-4\""));
+        verify(productService, never()).updateProduct(eq(1L), any(Product.class), anyLong());
+
+        given(productService.updateProduct(eq(1L), any(Product.class), eq(4L))).willReturn(Optional.of(testProduct));
+        mockMvc.perform(put("/products/1")
+                        .header("If-Match", "\"abc-1-4\"")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(json))
+                .andExpect(status().isOk());
+    }
+
+    @Test
+    void shouldAdjustStockByDelta() throws Exception {
+        given(productService.adjustStock(1L, -2)).willReturn(Optional.of(testProduct));
+        given(productService.adjustStock(1L, -9)).willThrow(new InsufficientStockException(1L, 5, -9));
+        given(productService.adjustStock(1L, Integer.MAX_VALUE)).willThrow(new StockOverflowException(1L, 5, Integer.MAX_VALUE));
+
+        mockMvc.perform(patch("/products/1/stock")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"delta\": -2}"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.id").value(1));
+        mockMvc.perform(patch("/products/1/stock")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"delta\": -9}"))
+                .andExpect(status().isConflict());
+        mockMvc.perform(patch("/products/1/stock")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"delta\": " + Integer.MAX_VALUE + "}"))
+                .andExpect(status().isConflict());
+    }
+
+    @Test
+    void shouldAdjustStockOfManyProducts() throws Exception {
+        given(productService.adjustStock(List.of(new StockAdjustment(1L, 3), new StockAdjustment(2L, -1))))
+                .willReturn(List.of(new StockAdjustmentResult(1L, "APPLIED", 8),
+                        new StockAdjustmentResult(2L, "NOT_FOUND", null)));
+
+        mockMvc.perform(patch("/products/stock")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("[{\"id\": 1, \"delta\": 3}, {\"id\": 2, \"delta\": -1}]"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].quantityInStock").value(8))
+                .andExpect(jsonPath("$[1].status").value("NOT_FOUND"));
+    }
+
+    @Test
+    void shouldTellHowManyStockEventsWereQueuedWhenTheQueueIsFull() throws Exception {
+        doThrow(new StockEventQueueFullException(2, 3)).when(stockEventPipeline).submit(any());
+
+        mockMvc.perform(post("/products/stock/events")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("[{\"id\": 1, \"delta\": 1}, {\"id\": 1, \"delta\": 1}, {\"id\": 2, \"delta\": -1}]"))
+                .andExpect(status().isServiceUnavailable())
+                .andExpect(header().string(ProductController.ACCEPTED_EVENTS_HEADER, "2"))
+                .andExpect(jsonPath("$.accepted").value(2))
+                .andExpect(jsonPath("$.total").value(3));
+    }
+
+    @Test
+    void shouldAnswerAsyncVariantLikeThePlainOne() throws Exception {
+        given(productService.getCatalogTag()).willReturn("abc-2");
+        List<String> threads = new ArrayList<>();
+        given(productService.getInventoryMetrics()).willAnswer(invocation -> {
+            threads.add(Thread.currentThread().getName());
+            return new InventoryMetrics();
+        });
+
+        MvcResult started = mockMvc.perform(get("/products/metrics/async"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        mockMvc.perform(asyncDispatch(started))
+                .andExpect(status().isOk())
+                .andExpect(header().string("ETag", "\"abc-2\""));
+
+        // The If-None-Match check is done before the work is handed to the executor
+        for (String path : List.of("/products/metrics/async", "/products/async")) {
+            MvcResult unchanged = mockMvc.perform(get(path).header("If-None-Match", "\"abc-2\""))
+                    .andExpect(request().asyncStarted())
+                    .andExpect(status().isNotModified())
+                    .andExpect(header().string("ETag", "\"abc-2\""))
+                    .andReturn();
+            mockMvc.perform(asyncDispatch(unchanged))
+                    .andExpect(status().isNotModified());
+        }
+        verify(productService, times(1)).getInventoryMetrics();
+        // On the pool of the /async endpoints, not the application task executor
+        assertTrue(threads.get(0).startsWith("async-endpoint-"), threads.get(0));
+    }
+
     // POST
     @Test
     void shouldCreateProduct() throws Exception {
@@ -125,7 +377,27 @@ class ProductControllerTest {
                 .andExpect(jsonPath("$.category").value("Updated Category"));
     }
 
+    // Export
+
+    @Test
+    void shouldRejectUnknownExportFormat() throws Exception {
+        mockMvc.perform(get("/products/export").param("format", "xml"))
+                .andExpect(status().isBadRequest());
+    }
+
+    // Expiration
+
+    @Test
+    void shouldListProductsExpiringWithinDays() throws Exception {
+        LocalDate today = LocalDate.now();
+        given(productService.getProductsExpiringBetween(today, today.plusDays(7))).willReturn(List.of(testProduct));
 
+        mockMvc.perform(get("/products/expiring").param("within", "7d"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].name").value("Test Product"));
 
+        mockMvc.perform(get("/products/expiring").param("within", "a week"))
+                .andExpect(status().isBadRequest());
+    }
 
-}
\ No newline at end of file
+}
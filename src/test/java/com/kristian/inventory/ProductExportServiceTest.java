@@ -0,0 +1,74 @@
+package com.kristian.inventory;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.kristian.inventory.config.InventoryProperties;
+import com.kristian.inventory.model.Product;
+import com.kristian.inventory.repository.InMemoryProductRepository;
+import com.kristian.inventory.service.ProductExportService;
+import com.kristian.inventory.service.ProductServiceImpl;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ProductExportServiceTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper().findAndRegisterModules();
+    private InMemoryProductRepository repository;
+    private ProductExportService exportService;
+
+    @BeforeEach
+    void setUp() {
+        repository = new InMemoryProductRepository();
+        exportService = new ProductExportService(new ProductServiceImpl(repository, new InventoryProperties()), objectMapper);
+    }
+
+    private Product save(String name, String category, String price, int stock) {
+        Product product = new Product();
+        product.setName(name);
+        product.setCategory(category);
+        product.setUnitPrice(new BigDecimal(price));
+        product.setQuantityInStock(stock);
+        product.setExpirationDate(LocalDate.of(2030, 1, 31));
+        return repository.save(product);
+    }
+
+    @Test
+    void shouldExportMatchingProductsAsNdjson() throws Exception {
+        Product milk = save("Milk", "Food", "1.50", 4);
+        save("Bread", "Food", "2.00", 0);
+        save("Hammer", "Tools", "9.99", 1);
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+        long written = exportService.export(ProductExportService.Format.NDJSON, null, "food", true, output);
+
+        assertEquals(1, written);
+        String[] lines = output.toString(StandardCharsets.UTF_8).split("\n");
+        assertEquals(1, lines.length);
+        JsonNode line = objectMapper.readTree(lines[0]);
+        assertEquals(milk.getId(), line.get("id").asLong());
+        assertEquals("Milk", line.get("name").asText());
+        assertEquals(4, line.get("quantityInStock").asInt());
+    }
+
+    @Test
+    void shouldExportEverythingAsCsvWithQuotedFields() throws Exception {
+        Product sauce = save("Sauce \"hot\", 500ml", "Food", "3.10", 2);
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+        long written = exportService.export(ProductExportService.Format.CSV, null, null, null, output);
+
+        assertEquals(1, written);
+        String[] lines = output.toString(StandardCharsets.UTF_8).split("\r\n");
+        assertEquals("id,name,category,unitPrice,quantityInStock,expirationDate,createdAt,updatedAt", lines[0]);
+        assertEquals(sauce.getId() + ",\"Sauce \"\"hot\"\", 500ml\",Food,3.10,2,2030-01-31,"
+                + sauce.getCreatedAt() + "," + sauce.getUpdatedAt(), lines[1]);
+    }
+
+}
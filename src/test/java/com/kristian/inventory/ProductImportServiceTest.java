@@ -0,0 +1,70 @@
+package com.kristian.inventory;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.kristian.inventory.config.InventoryProperties;
+import com.kristian.inventory.dto.ImportProgress;
+import com.kristian.inventory.repository.InMemoryProductRepository;
+import com.kristian.inventory.service.ProductImportService;
+import com.kristian.inventory.service.ProductServiceImpl;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ProductImportServiceTest {
+
+    private InMemoryProductRepository repository;
+    private ProductImportService importService;
+
+    @BeforeEach
+    void setUp() {
+        InventoryProperties properties = new InventoryProperties();
+        properties.getImport().setBatchSize(2);
+        repository = new InMemoryProductRepository();
+        importService = new ProductImportService(new ProductServiceImpl(repository, properties), new ObjectMapper(), properties);
+    }
+
+    private static ByteArrayInputStream input(String content) {
+        return new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void shouldImportNdjsonInBatches() throws Exception {
+        String feed = """
+                {"name":"A","category":"Food","unitPrice":1.00,"quantityInStock":1}
+                {"name":"B","category":"Food","unitPrice":2.00,"quantityInStock":2}
+                {"name":"C","category":"Food","unitPrice":3.00,"quantityInStock":3}
+                """;
+        List<ImportProgress> progress = new ArrayList<>();
+
+        ImportProgress summary = importService.importProducts(input(feed), progress::add);
+
+        assertEquals(2, progress.size());
+        assertEquals(2, progress.get(0).getBatchSize());
+        assertEquals(1, progress.get(1).getBatchSize());
+        assertTrue(summary.isDone());
+        assertNull(summary.getError());
+        assertEquals(3, summary.getTotalImported());
+        assertEquals(3, repository.count());
+    }
+
+    @Test
+    void shouldImportJsonArrayAndKeepBatchesBeforeABadRow() throws Exception {
+        String feed = "[{\"name\":\"A\",\"category\":\"Food\",\"unitPrice\":1.00,\"quantityInStock\":1},"
+                + "{\"name\":\"B\",\"category\":\"Food\",\"unitPrice\":2.00,\"quantityInStock\":2},"
+                + "{\"name\":\"C\",\"category\":\"Food\",\"unitPrice\":\"not a price\"}]";
+
+        ImportProgress summary = importService.importProducts(input(feed), progress -> { });
+
+        assertTrue(summary.isDone());
+        assertNotNull(summary.getError());
+        assertEquals(2, summary.getTotalImported());
+        assertEquals(2, repository.count());
+    }
+
+}
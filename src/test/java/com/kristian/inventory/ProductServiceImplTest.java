@@ -0,0 +1,323 @@
+package com.kristian.inventory;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.kristian.inventory.config.InventoryProperties;
+import com.kristian.inventory.dto.ExplainedPage;
+import com.kristian.inventory.dto.InventoryMetrics;
+import com.kristian.inventory.dto.ProductPage;
+import com.kristian.inventory.dto.QueryPlan;
+import com.kristian.inventory.model.Product;
+import com.kristian.inventory.repository.InMemoryProductRepository;
+import com.kristian.inventory.repository.ParallelScan;
+import com.kristian.inventory.repository.ProductRepository;
+import com.kristian.inventory.repository.ProductSortField;
+import com.kristian.inventory.repository.columnar.ColumnarProductRepository;
+import com.kristian.inventory.service.InventoryMetricsCalculator;
+import com.kristian.inventory.service.ProductServiceImpl;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ProductServiceImplTest {
+
+    private InMemoryProductRepository repository;
+    private ProductServiceImpl productService;
+
+    @BeforeEach
+    void setUp() {
+        repository = new InMemoryProductRepository();
+        productService = new ProductServiceImpl(repository, new InventoryProperties());
+    }
+
+    private Product newProduct(String name, String category, String price, int stock) {
+        Product product = new Product();
+        product.setName(name);
+        product.setCategory(category);
+        product.setUnitPrice(new BigDecimal(price));
+        product.setQuantityInStock(stock);
+        return product;
+    }
+
+    private void assertMetricsMatchRecomputation() throws Exception {
+        InventoryMetrics incremental = productService.getInventoryMetrics();
+        InventoryMetrics recomputed = InventoryMetricsCalculator.compute(repository.findAll());
+
+        assertTrue(InventoryMetricsCalculator.same(incremental, recomputed));
+        ObjectMapper objectMapper = new ObjectMapper();
+        assertEquals(objectMapper.writeValueAsString(recomputed), objectMapper.writeValueAsString(incremental));
+    }
+
+    @Test
+    void incrementalMetricsShouldMatchFullRecomputation() throws Exception {
+        assertMetricsMatchRecomputation();
+
+        Product apple = productService.createProduct(newProduct("Apple", "Food", "1.5", 10));
+        Product melon = productService.createProduct(newProduct("Melon", "Food", "2.25", 3));
+        Product soap = productService.createProduct(newProduct("Soap", "Hygiene", "3.00", 0));
+        assertMetricsMatchRecomputation();
+
+        // Stock change in place, then a category change through update
+        apple.setQuantityInStock(0);
+        productService.updateProduct(apple.getId(), apple);
+        soap.setCategory("Food");
+        soap.setQuantityInStock(7);
+        productService.updateProduct(soap.getId(), soap);
+        assertMetricsMatchRecomputation();
+
+        // Removing the only 2-decimal price has to bring the total back to 1 decimal
+        productService.deleteProduct(melon.getId());
+        productService.deleteProduct(soap.getId());
+        assertMetricsMatchRecomputation();
+        assertEquals(new BigDecimal("0.0"), productService.getInventoryMetrics().getByCategory().get("Food").getTotalValue());
+
+        productService.deleteProduct(apple.getId());
+        assertMetricsMatchRecomputation();
+        assertTrue(productService.getInventoryMetrics().getByCategory().isEmpty());
+    }
+
+    @Test
+    void shallowPagesShouldMatchFullSort() {
+        Random random = new Random(42);
+        String[] names = {"Apple", "banana", "Cherry", "apple", "Date"};
+        String[] categories = {"Food", "food", "Drinks"};
+        for (int i = 0; i < 200; i++) {
+            Product product = newProduct(
+                    names[random.nextInt(names.length)],
+                    categories[random.nextInt(categories.length)],
+                    (1 + random.nextInt(5)) + ".00",
+                    random.nextInt(3)
+            );
+            if (random.nextBoolean()) {
+                product.setExpirationDate(LocalDate.of(2030, 1, 1 + random.nextInt(5)));
+            }
+            productService.createProduct(product);
+        }
+
+        String[] fields = {"name", "category", "price", "stock", "expiration", "availability", "id"};
+        for (String sortBy : fields) {
+            for (String sortDir : new String[]{"asc", "desc"}) {
+                for (String secondary : new String[]{null, "price", "name"}) {
+                    // A page that covers everything always takes the full sort path
+                    List<Product> all = productService.getFilteredSortedPaginatedProducts(
+                            0, 1000, sortBy, sortDir, secondary, "desc", null, null, null);
+
+                    for (int page = 0; page < 4; page++) {
+                        List<Product> expected = all.subList(page * 10, page * 10 + 10);
+                        List<Product> actual = productService.getFilteredSortedPaginatedProducts(
+                                page, 10, sortBy, sortDir, secondary, "desc", null, null, null);
+                        assertEquals(expected, actual, sortBy + " " + sortDir + " then " + secondary + ", page " + page);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    void offsetAndCursorPagesShouldFollowComparatorOrder() {
+        Random random = new Random(7);
+        String[] names = {"Apple", "banana", "Cherry", "apple", "Date"};
+        List<Product> created = new ArrayList<>();
+        for (int i = 0; i < 60; i++) {
+            Product product = newProduct(names[random.nextInt(names.length)], "Food",
+                    random.nextInt(4) + (random.nextBoolean() ? ".5" : ".50"), random.nextInt(3));
+            if (random.nextBoolean()) {
+                product.setExpirationDate(LocalDate.of(2030, 1, 1 + random.nextInt(5)));
+            }
+            created.add(productService.createProduct(product));
+        }
+        // Move some products to other keys so the sorted views have to follow
+        for (int i = 0; i < 10; i++) {
+            Product product = created.get(i);
+            product.setName(names[random.nextInt(names.length)]);
+            product.setExpirationDate(random.nextBoolean() ? null : LocalDate.of(2031, 1, 1));
+            product.setQuantityInStock(random.nextInt(3));
+            productService.updateProduct(product.getId(), product);
+        }
+
+        for (ProductSortField field : ProductSortField.values()) {
+            for (String sortDir : new String[]{"asc", "desc"}) {
+                Comparator<Product> comparator = field.comparator();
+                if (sortDir.equals("desc")) {
+                    comparator = comparator.reversed();
+                }
+                List<Product> expected = new ArrayList<>(repository.findAll());
+                expected.sort(comparator.thenComparing(Product::getId));
+
+                String sortBy = field.name().toLowerCase();
+                List<Product> byOffset = new ArrayList<>();
+                List<Product> byCursor = new ArrayList<>();
+                List<Product> page = productService.getFilteredSortedPaginatedProducts(
+                        0, 7, sortBy, sortDir, null, "asc", null, null, null);
+                byCursor.addAll(page);
+                String cursor = productService.nextCursor(page, 7, sortBy, sortDir, null);
+
+                for (int p = 0; p < 9; p++) {
+                    byOffset.addAll(productService.getFilteredSortedPaginatedProducts(
+                            p, 7, sortBy, sortDir, null, "asc", null, null, null));
+                }
+                while (cursor != null) {
+                    ProductPage next = productService.getProductsAfterCursor(cursor, 7, null, null, null, false);
+                    byCursor.addAll(next.getItems());
+                    cursor = next.getNextCursor();
+                }
+
+                assertEquals(expected, byOffset, field + " " + sortDir + " (offset)");
+                assertEquals(expected, byCursor, field + " " + sortDir + " (cursor)");
+            }
+        }
+    }
+
+    @Test
+    void pageAndCountShouldSeeWritesBetweenCalls() {
+        Product apple = productService.createProduct(newProduct("Apple", "Food", "1.00", 5));
+        productService.createProduct(newProduct("Apricot", "Food", "2.00", 0));
+
+        ProductPage page = productService.getProductPage(0, 10, "name", "asc", null, "asc", "ap", "food", null);
+        assertEquals(2, page.getTotalCount());
+        assertEquals(2, page.getItems().size());
+        assertEquals(2, productService.countFilteredProducts("AP", "FOOD", null));
+        // Same filter in other case: the list, the count and this all share one set of matches
+        assertEquals(2, productService.getCacheStats().get("matches").getHits());
+
+        // A cached result must not survive a write
+        apple.setCategory("Fruit");
+        productService.updateProduct(apple.getId(), apple);
+
+        page = productService.getProductPage(0, 10, "name", "asc", null, "asc", "ap", "food", null);
+        assertEquals(1, page.getTotalCount());
+        assertEquals("Apricot", page.getItems().get(0).getName());
+        assertEquals(1, productService.countFilteredProducts("ap", "food", null));
+    }
+
+    @Test
+    void pageCacheShouldCountHitsAndNeverServeStalePages() {
+        Product apple = productService.createProduct(newProduct("Apple", "Food", "1.00", 5));
+        productService.createProduct(newProduct("Banana", "Food", "2.00", 5));
+
+        List<Product> first = productService.getFilteredSortedPaginatedProducts(0, 10, "name", "asc", null, "asc", null, "food", null);
+        List<Product> again = productService.getFilteredSortedPaginatedProducts(0, 10, "name", "asc", null, "asc", null, "food", null);
+        assertSame(first, again);
+        assertEquals(1, productService.getCacheStats().get("pages").getHits());
+
+        // A stock change is a write like any other
+        apple.setQuantityInStock(0);
+        productService.updateProduct(apple.getId(), apple);
+        List<Product> outOfStock = productService.getFilteredSortedPaginatedProducts(0, 10, "name", "asc", null, "asc", null, "food", false);
+        assertEquals(List.of(apple.toString()), outOfStock.stream().map(Product::toString).toList());
+        assertNotSame(first, productService.getFilteredSortedPaginatedProducts(0, 10, "name", "asc", null, "asc", null, "food", null));
+        assertEquals(1, productService.getCacheStats().get("pages").getInvalidations());
+    }
+
+    @Test
+    void pageCacheShouldShareSpellingsOfASortAndSkipHugePages() {
+        InventoryProperties properties = new InventoryProperties();
+        properties.getPageCache().setMaxProducts(2);
+        productService = new ProductServiceImpl(repository, properties);
+        for (int i = 0; i < 3; i++) {
+            productService.createProduct(newProduct("Item " + i, "Food", "1.00", 1));
+        }
+
+        List<Product> first = productService.getFilteredSortedPaginatedProducts(0, 2, "name", "asc", null, "asc", null, null, null);
+        assertSame(first, productService.getFilteredSortedPaginatedProducts(0, 2, "NAME", "ASC", "id", "desc", null, null, null));
+        assertEquals(1, productService.getCacheStats().get("pages").getHits());
+
+        // Three products are over the limit
+        productService.getFilteredSortedPaginatedProducts(0, 3, "name", "asc", null, "asc", null, null, null);
+        productService.getFilteredSortedPaginatedProducts(0, 3, "name", "asc", null, "asc", null, null, null);
+        assertEquals(1, productService.getCacheStats().get("pages").getHits());
+    }
+
+    @Test
+    void explainShouldReportTheStagesOfTheListing() {
+        for (int i = 0; i < 40; i++) {
+            productService.createProduct(newProduct("Item " + i, i % 4 == 0 ? "Tools" : "Food", "1.00", i % 2));
+        }
+
+        ExplainedPage explained = productService.explainFilteredSortedPaginatedProducts(0, 3, "name", "asc", null, "asc", null, "food", true);
+
+        QueryPlan plan = explained.getPlan();
+        assertFalse(plan.isPageCached());
+        assertEquals(40, plan.getCatalogSize());
+        // The availability index (20 in stock) is smaller than the category (30 Food)
+        assertEquals(List.of("candidates(availability index) 40 -> 20", "filter(category+availability) 20 -> 20",
+                        "sort(top-3) 20 -> 3", "paginate(rows 0..3) 3 -> 3"),
+                plan.getStages().stream().map(stage -> stage.toString().replaceAll(" in .*", "")).toList());
+        assertTrue(plan.getNanos() >= plan.getStages().stream().mapToLong(QueryPlan.Stage::getNanos).sum());
+
+        // Same page as the plain listing; the second time the matches come from the filter cache
+        assertEquals(explained.getItems(), productService.getFilteredSortedPaginatedProducts(0, 3, "name", "asc", null, "asc", null, "food", true));
+        QueryPlan again = productService.explainFilteredSortedPaginatedProducts(0, 3, "name", "asc", null, "asc", null, "food", true).getPlan();
+        assertTrue(again.isPageCached());
+        assertEquals("match-cache", again.getStages().get(0).getName());
+
+        // Unfiltered pages come from the sort index
+        assertEquals("sorted-view(price desc) 3 -> 3", productService.explainFilteredSortedPaginatedProducts(0, 3, "price", "desc", null, "asc", null, null, null)
+                .getPlan().getStages().get(0).toString().replaceAll(" in .*", ""));
+    }
+
+    // Each columnar repository takes its own timestamps, compare everything else
+    private static List<String> fields(List<Product> products) {
+        return products.stream()
+                .map(p -> p.getId() + "|" + p.getName() + "|" + p.getCategory() + "|" + p.getUnitPrice() + "|" + p.getQuantityInStock())
+                .toList();
+    }
+
+    @Test
+    void parallelScansShouldMatchSequential() {
+        InventoryProperties parallel = new InventoryProperties();
+        parallel.getParallel().setEnabled(true);
+        parallel.getParallel().setThreshold(1);
+        parallel.getFilterCache().setEntries(0);
+        InventoryProperties sequential = new InventoryProperties();
+        sequential.getFilterCache().setEntries(0);
+
+        // Big enough to be split into several fork-join tasks
+        Random random = new Random(3);
+        String[] names = {"Apple", "banana", "Cherry", "apple pie", "Date"};
+        String[] prices = {"1.5", "1.50", "2.25", "3", "0.999"};
+        List<Product> products = new ArrayList<>();
+        for (int i = 0; i < 40_000; i++) {
+            products.add(newProduct(names[random.nextInt(names.length)], "Cat " + random.nextInt(7),
+                    prices[random.nextInt(prices.length)], random.nextInt(3)));
+        }
+        repository.saveAll(products);
+        ColumnarProductRepository columnarSequential = new ColumnarProductRepository();
+        ColumnarProductRepository columnarParallel = new ColumnarProductRepository(parallel);
+        for (Product product : products) {
+            columnarSequential.save(product);
+            columnarParallel.save(product);
+        }
+
+        assertTrue(InventoryMetricsCalculator.same(
+                InventoryMetricsCalculator.compute(repository.findAll()),
+                InventoryMetricsCalculator.compute(repository.findAll(), ParallelScan.of(parallel.getParallel()))));
+        assertTrue(InventoryMetricsCalculator.same(
+                InventoryMetricsCalculator.fromTotals(columnarSequential.getCategoryTotals()),
+                InventoryMetricsCalculator.fromTotals(columnarParallel.getCategoryTotals())));
+        assertEquals(fields(columnarSequential.findAll()), fields(columnarParallel.findAll()));
+        assertEquals(columnarSequential.countByAvailability(false), columnarParallel.countByAvailability(false));
+
+        List<ProductRepository[]> pairs = List.of(
+                new ProductRepository[]{repository, repository},
+                new ProductRepository[]{columnarSequential, columnarParallel});
+        for (ProductRepository[] pair : pairs) {
+            ProductServiceImpl one = new ProductServiceImpl(pair[0], sequential);
+            ProductServiceImpl other = new ProductServiceImpl(pair[1], parallel);
+            for (int page : new int[]{0, 3, 200}) {
+                assertEquals(
+                        fields(one.getFilteredSortedPaginatedProducts(page, 50, "name", "desc", "price", "asc", "app", null, null)),
+                        fields(other.getFilteredSortedPaginatedProducts(page, 50, "name", "desc", "price", "asc", "app", null, null)));
+            }
+            assertEquals(one.countFilteredProducts("an", null, true), other.countFilteredProducts("an", null, true));
+        }
+    }
+
+}
@@ -0,0 +1,97 @@
+package com.kristian.inventory;
+
+import com.kristian.inventory.dto.ImportProgress;
+import com.kristian.inventory.service.ProductExportService;
+import com.kristian.inventory.service.ProductImportService;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.boot.test.web.server.LocalServerPort;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.BDDMockito.given;
+
+// Export and import stream longer than spring.mvc.async.request-timeout and are still answered in full
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {
+        "spring.mvc.async.request-timeout=200ms",
+        "inventory.export.timeout=30s",
+        "inventory.import.timeout=30s"
+})
+class ProductStreamingTimeoutTest {
+
+    private static final int LINES = 10;
+    private static final long PAUSE_MILLIS = 100;
+
+    @LocalServerPort
+    private int port;
+
+    @MockBean
+    private ProductExportService productExportService;
+
+    @MockBean
+    private ProductImportService productImportService;
+
+    private final HttpClient client = HttpClient.newHttpClient();
+
+    @Test
+    void shouldExportLongerThanTheAsyncRequestTimeout() throws Exception {
+        given(productExportService.export(eq(ProductExportService.Format.NDJSON), isNull(), isNull(), isNull(), any()))
+                .willAnswer(invocation -> {
+                    OutputStream output = invocation.getArgument(4);
+                    for (int i = 0; i < LINES; i++) {
+                        output.write(("{\"id\":" + i + "}\n").getBytes(StandardCharsets.UTF_8));
+                        output.flush();
+                        Thread.sleep(PAUSE_MILLIS);
+                    }
+                    return (long) LINES;
+                });
+
+        HttpResponse<String> response = client.send(
+                HttpRequest.newBuilder(URI.create("http://localhost:" + port + "/products/export")).build(),
+                HttpResponse.BodyHandlers.ofString());
+
+        assertEquals(200, response.statusCode());
+        assertEquals("application/x-ndjson", response.headers().firstValue("Content-Type").orElseThrow());
+        assertEquals(LINES, response.body().lines().count());
+        assertEquals("{\"id\":" + (LINES - 1) + "}", response.body().lines().reduce((a, b) -> b).orElseThrow());
+    }
+
+    @Test
+    void shouldImportLongerThanTheAsyncRequestTimeout() throws Exception {
+        given(productImportService.importProducts(any(), any())).willAnswer(invocation -> {
+            InputStream input = invocation.getArgument(0);
+            Consumer<ImportProgress> onBatch = invocation.getArgument(1);
+            input.readAllBytes();
+            for (int i = 1; i <= LINES; i++) {
+                Thread.sleep(PAUSE_MILLIS);
+                onBatch.accept(new ImportProgress(i, 1, i, false, null));
+            }
+            return new ImportProgress(LINES, 0, LINES, true, null);
+        });
+
+        HttpResponse<String> response = client.send(
+                HttpRequest.newBuilder(URI.create("http://localhost:" + port + "/products/import"))
+                        .header("Content-Type", "application/x-ndjson")
+                        .POST(HttpRequest.BodyPublishers.ofString("{\"name\":\"Apple\"}\n"))
+                        .build(),
+                HttpResponse.BodyHandlers.ofString());
+
+        assertEquals(200, response.statusCode());
+        // A progress line per batch and the summary
+        assertEquals(LINES + 1, response.body().lines().count());
+        assertTrue(response.body().lines().reduce((a, b) -> b).orElseThrow().contains("\"done\":true"));
+    }
+
+}
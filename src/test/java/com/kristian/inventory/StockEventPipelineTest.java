@@ -0,0 +1,186 @@
+package com.kristian.inventory;
+
+import com.kristian.inventory.config.InventoryProperties;
+import com.kristian.inventory.dto.StockAdjustmentResult;
+import com.kristian.inventory.dto.StockEvent;
+import com.kristian.inventory.dto.StockEventStats;
+import com.kristian.inventory.model.Product;
+import com.kristian.inventory.repository.InMemoryProductRepository;
+import com.kristian.inventory.repository.StockAdjustment;
+import com.kristian.inventory.service.ProductService;
+import com.kristian.inventory.service.ProductServiceImpl;
+import com.kristian.inventory.service.StockEventPipeline;
+import com.kristian.inventory.service.StockEventQueueFullException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StockEventPipelineTest {
+
+    private InMemoryProductRepository repository;
+    private InventoryProperties properties;
+    private StockEventPipeline pipeline;
+
+    @BeforeEach
+    void setUp() {
+        repository = new InMemoryProductRepository();
+        properties = new InventoryProperties();
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (pipeline != null) {
+            pipeline.close();
+        }
+    }
+
+    private Long newProduct(int stock) {
+        Product product = new Product();
+        product.setName("Screw");
+        product.setCategory("Hardware");
+        product.setUnitPrice(new BigDecimal("0.10"));
+        product.setQuantityInStock(stock);
+        return repository.save(product).getId();
+    }
+
+    private int stock(Long id) {
+        return repository.findById(id).orElseThrow().getQuantityInStock();
+    }
+
+    @Test
+    void shouldMergeEventsPerProduct() throws Exception {
+        properties.getStockEvents().setWindow(Duration.ofSeconds(1));
+        pipeline = new StockEventPipeline(new ProductServiceImpl(repository, properties), properties);
+        Long hot = newProduct(0);
+        Long priced = newProduct(5);
+        Long empty = newProduct(1);
+
+        List<StockEvent> events = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            events.add(new StockEvent(hot, i % 3 == 0 ? -1 : 1, null));
+        }
+        events.add(new StockEvent(priced, -2, new BigDecimal("0.25")));
+        events.add(new StockEvent(priced, 0, new BigDecimal("0.20")));
+        events.add(new StockEvent(empty, -1, null));
+        events.add(new StockEvent(empty, -1, null));
+        events.add(new StockEvent(999_999L, 1, null));
+        pipeline.submit(events);
+
+        assertTrue(pipeline.flush(Duration.ofSeconds(10)));
+        assertEquals(100, stock(hot));
+        assertEquals(3, stock(priced));
+        assertEquals(new BigDecimal("0.20"), repository.findById(priced).orElseThrow().getUnitPrice());
+        // Together the two events would take the stock below 0, one by one the first still fits
+        assertEquals(0, stock(empty));
+
+        StockEventStats stats = pipeline.getStats();
+        assertEquals(305, stats.getAccepted());
+        assertEquals(303, stats.getApplied());
+        assertEquals(2, stats.getRejected());
+        // hot, empty and the unknown one in one batch, the priced one, then both events of empty on their own
+        assertEquals(6, stats.getProductWrites());
+        // 300 events, one write
+        assertEquals(2, repository.findById(hot).orElseThrow().getVersion());
+    }
+
+    @Test
+    void shouldRejectOnlyTheProductWhoseStockWouldOverflow() throws Exception {
+        properties.getStockEvents().setWindow(Duration.ofSeconds(1));
+        pipeline = new StockEventPipeline(new ProductServiceImpl(repository, properties), properties);
+        Long full = newProduct(Integer.MAX_VALUE - 1);
+        Long merged = newProduct(0);
+        Long other = newProduct(1);
+        long catalogVersion = repository.getCatalogVersion();
+
+        pipeline.submit(List.of(
+                new StockEvent(full, 2, null),
+                // Adds up past an int before the stock is even looked at, on its own the first one fits
+                new StockEvent(merged, Integer.MAX_VALUE, null),
+                new StockEvent(merged, Integer.MAX_VALUE, null),
+                new StockEvent(other, 1, null)));
+
+        assertTrue(pipeline.flush(Duration.ofSeconds(10)));
+        assertEquals(Integer.MAX_VALUE - 1, stock(full));
+        assertEquals(Integer.MAX_VALUE, stock(merged));
+        assertEquals(2, stock(other));
+        assertEquals(2, pipeline.getStats().getApplied());
+        assertEquals(2, pipeline.getStats().getRejected());
+        assertTrue(repository.getCatalogVersion() > catalogVersion);
+
+        assertEquals(List.of(StockAdjustment.Outcome.STOCK_OVERFLOW),
+                repository.adjustStockAll(List.of(new StockAdjustment(full, 2))).stream()
+                        .map(StockAdjustment.Result::outcome).toList());
+    }
+
+    @Test
+    void shouldRejectOnlyTheEventsThatDoNotFitInArrivalOrder() throws Exception {
+        properties.getStockEvents().setWindow(Duration.ofSeconds(1));
+        pipeline = new StockEventPipeline(new ProductServiceImpl(repository, properties), properties);
+        Long restocked = newProduct(5);
+        Long priced = newProduct(1);
+
+        // Net -8 would reject all three; in order the restock and the -3 fit, only the -10 doesn't
+        pipeline.submit(List.of(
+                new StockEvent(restocked, 5, null),
+                new StockEvent(priced, -1, new BigDecimal("0.50")),
+                new StockEvent(restocked, -3, null),
+                new StockEvent(priced, -5, new BigDecimal("0.70")),
+                new StockEvent(restocked, -10, null)));
+
+        assertTrue(pipeline.flush(Duration.ofSeconds(10)));
+        assertEquals(7, stock(restocked));
+        // A rejected event leaves the price alone too
+        assertEquals(0, stock(priced));
+        assertEquals(new BigDecimal("0.50"), repository.findById(priced).orElseThrow().getUnitPrice());
+        assertEquals(3, pipeline.getStats().getApplied());
+        assertEquals(2, pipeline.getStats().getRejected());
+    }
+
+    @Test
+    void shouldPushBackWhenFullAndApplyEverythingQueuedOnClose() throws Exception {
+        properties.getStockEvents().setQueueCapacity(2);
+        properties.getStockEvents().setMaxBatch(1);
+        properties.getStockEvents().setOfferTimeout(Duration.ofMillis(50));
+
+        // The first batch waits until the latch is opened, so the queue fills up behind it
+        CountDownLatch release = new CountDownLatch(1);
+        ProductService slowService = new ProductServiceImpl(repository, properties) {
+            @Override
+            public List<StockAdjustmentResult> adjustStock(List<StockAdjustment> adjustments) {
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return super.adjustStock(adjustments);
+            }
+        };
+        pipeline = new StockEventPipeline(slowService, properties);
+        Long id = newProduct(0);
+
+        pipeline.submit(List.of(new StockEvent(id, 1, null)));
+        // Give the writer time to take the first event out of the queue
+        while (pipeline.getStats().getQueued() > 0) {
+            Thread.sleep(1);
+        }
+
+        StockEventQueueFullException full = assertThrows(StockEventQueueFullException.class, () -> pipeline.submit(List.of(
+                new StockEvent(id, 1, null), new StockEvent(id, 1, null), new StockEvent(id, 1, null))));
+        assertEquals(2, full.getAccepted());
+
+        release.countDown();
+        pipeline.close();
+        pipeline = null;
+        assertEquals(3, stock(id));
+    }
+
+}